@@ -0,0 +1,46 @@
+package no.ssb.rawdata.converter.core.convert;
+
+/**
+ * <p>Writes the values of a single record, field by field, according to the Avro schema of the record. Used by
+ * {@link ColumnarRecord}s to write values straight into the columns of the target dataset.</p>
+ *
+ * <p>Values are addressed by field name, relative to the record that is currently being written. Nested records
+ * and arrays are written between matching start and end calls. Within an array, each call writes an element
+ * and the field name is ignored (pass null). Fields that are not written are null.</p>
+ *
+ * <p>Supported Avro types are records, arrays, nullable unions (a union of null and one other type), and the
+ * primitive types. Maps and unions of several non-null types are not supported.</p>
+ */
+public interface ColumnWriter {
+
+    ColumnWriter string(String field, CharSequence value);
+
+    ColumnWriter int32(String field, int value);
+
+    ColumnWriter int64(String field, long value);
+
+    ColumnWriter float32(String field, float value);
+
+    ColumnWriter float64(String field, double value);
+
+    ColumnWriter bool(String field, boolean value);
+
+    /**
+     * Write a bytes or fixed value
+     */
+    ColumnWriter bytes(String field, byte[] value);
+
+    /**
+     * Write an enum value
+     */
+    ColumnWriter symbol(String field, String value);
+
+    ColumnWriter startRecord(String field);
+
+    ColumnWriter endRecord();
+
+    ColumnWriter startArray(String field);
+
+    ColumnWriter endArray();
+
+}
@@ -0,0 +1,112 @@
+package no.ssb.rawdata.converter.core.convert;
+
+import de.huxhorn.sulky.ulid.ULID;
+import lombok.NonNull;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.util.function.Consumer;
+
+/**
+ * <p>A converted record that is written directly into the columns of the target dataset, instead of being built
+ * as an object graph of Avro records, lists and boxed values that the parquet writer then has to take apart.</p>
+ *
+ * <p>The record holds a function that writes its values to a {@link ColumnWriter}. The function is invoked when
+ * the record is written to parquet, so it should only capture what is needed to produce the values (typically
+ * the parsed rawdata message).</p>
+ *
+ * <pre>
+ * ColumnarRecord record = ColumnarRecord.of(targetAvroSchema, rawdataMessage.ulid(), out -> out
+ *   .startRecord("manifest")
+ *     ...
+ *   .endRecord()
+ *   .string("name", parsed.getName())
+ *   .int64("amount", parsed.getAmount())
+ * );
+ * return ConversionResult.builder(record, rawdataMessage).build();
+ * </pre>
+ *
+ * <p>A ColumnarRecord is a {@link GenericRecord}, so that it flows through the same pipeline as other converted
+ * records. Reading its fields (e.g. when logging, storing or dead-lettering converted records) materializes an
+ * equivalent {@link GenericData.Record}, which costs the allocations that columnar writing avoids.</p>
+ */
+public final class ColumnarRecord implements GenericRecord {
+
+    private final Schema schema;
+    private final ULID.Value ulid;
+    private final Consumer<ColumnWriter> writeFunction;
+    private GenericRecord materialized;
+
+    private ColumnarRecord(Schema schema, ULID.Value ulid, Consumer<ColumnWriter> writeFunction) {
+        this.schema = schema;
+        this.ulid = ulid;
+        this.writeFunction = writeFunction;
+    }
+
+    /**
+     * @param schema the Avro schema of the record
+     * @param ulid the ULID of the rawdata message that the record was converted from
+     * @param writeFunction function that writes the values of the record
+     */
+    public static ColumnarRecord of(@NonNull Schema schema, @NonNull ULID.Value ulid, @NonNull Consumer<ColumnWriter> writeFunction) {
+        return new ColumnarRecord(schema, ulid, writeFunction);
+    }
+
+    /**
+     * Write the values of this record. The writer must be positioned at the start of a record with the schema
+     * of this record.
+     */
+    public void writeTo(ColumnWriter columnWriter) {
+        writeFunction.accept(columnWriter);
+    }
+
+    /**
+     * @return the ULID of the rawdata message that the record was converted from
+     */
+    public ULID.Value getUlid() {
+        return ulid;
+    }
+
+    /**
+     * @return an equivalent Avro record
+     */
+    public synchronized GenericRecord toGenericRecord() {
+        if (materialized == null) {
+            GenericRecordColumnWriter columnWriter = new GenericRecordColumnWriter(schema);
+            writeTo(columnWriter);
+            materialized = columnWriter.getRecord();
+        }
+        return materialized;
+    }
+
+    @Override
+    public Schema getSchema() {
+        return schema;
+    }
+
+    @Override
+    public Object get(String key) {
+        return toGenericRecord().get(key);
+    }
+
+    @Override
+    public Object get(int i) {
+        return toGenericRecord().get(i);
+    }
+
+    @Override
+    public void put(String key, Object v) {
+        throw new UnsupportedOperationException("ColumnarRecord is read-only");
+    }
+
+    @Override
+    public void put(int i, Object v) {
+        throw new UnsupportedOperationException("ColumnarRecord is read-only");
+    }
+
+    @Override
+    public String toString() {
+        return toGenericRecord().toString();
+    }
+}
@@ -86,20 +86,38 @@ public class ConversionResult {
         return new ConversionResultBuilder(recordBuilder, rawdataMessage);
     }
 
+    /**
+     * Create a builder of a result whose record is written directly to the columns of the target dataset
+     */
+    public static ConversionResultBuilder builder(ColumnarRecord record, RawdataMessage rawdataMessage) {
+        return new ConversionResultBuilder(record, rawdataMessage);
+    }
+
     public static class ConversionResultBuilder {
 
         private final RawdataMessage rawdataMessage;
         private final GenericRecordBuilder recordBuilder;
+        private final ColumnarRecord columnarRecord;
         private List<Exception> failures = new ArrayList<>();
         private final Map<String, Object> properties = new HashMap<>();
         private final Map<String, AtomicLong> counters = new HashMap<>();
 
         public ConversionResultBuilder(GenericRecordBuilder recordBuilder, RawdataMessage rawdataMessage) {
             this.recordBuilder = recordBuilder;
+            this.columnarRecord = null;
+            this.rawdataMessage = rawdataMessage;
+        }
+
+        private ConversionResultBuilder(ColumnarRecord columnarRecord, RawdataMessage rawdataMessage) {
+            this.recordBuilder = null;
+            this.columnarRecord = columnarRecord;
             this.rawdataMessage = rawdataMessage;
         }
 
         public ConversionResultBuilder withRecord(String fieldName, GenericRecord record) {
+            if (recordBuilder == null) {
+                throw new IllegalStateException("The values of a ColumnarRecord can not be set on the result. Write them using the ColumnWriter.");
+            }
             this.recordBuilder.set(fieldName, record);
             return this;
         }
@@ -127,7 +145,7 @@ public class ConversionResult {
     }
 
     private ConversionResult(ConversionResultBuilder builder) {
-        this.genericRecord = builder.recordBuilder.build();
+        this.genericRecord = (builder.columnarRecord != null) ? builder.columnarRecord : builder.recordBuilder.build();
         this.rawdataMessage = builder.rawdataMessage;
         this.failures = Collections.unmodifiableList(builder.failures);
         this.properties = builder.properties;
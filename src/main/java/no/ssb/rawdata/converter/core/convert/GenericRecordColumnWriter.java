@@ -0,0 +1,163 @@
+package no.ssb.rawdata.converter.core.convert;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static no.ssb.rawdata.converter.util.AvroSchemaUtil.nonNullTypeOf;
+
+/**
+ * {@link ColumnWriter} that builds an Avro {@link GenericRecord}, used to materialize {@link ColumnarRecord}s
+ */
+class GenericRecordColumnWriter implements ColumnWriter {
+
+    private final Deque<Frame> frames = new ArrayDeque<>();
+    private final GenericRecord record;
+
+    GenericRecordColumnWriter(Schema schema) {
+        this.record = new GenericData.Record(schema);
+        frames.push(new Frame(schema, record));
+    }
+
+    GenericRecord getRecord() {
+        if (frames.size() != 1) {
+            throw new IllegalStateException("Unbalanced start/end calls: " + (frames.size() - 1) + " records or arrays were not ended");
+        }
+        return record;
+    }
+
+    @Override
+    public ColumnWriter string(String field, CharSequence value) {
+        frames.peek().add(field, value == null ? null : value.toString());
+        return this;
+    }
+
+    @Override
+    public ColumnWriter int32(String field, int value) {
+        frames.peek().add(field, value);
+        return this;
+    }
+
+    @Override
+    public ColumnWriter int64(String field, long value) {
+        frames.peek().add(field, value);
+        return this;
+    }
+
+    @Override
+    public ColumnWriter float32(String field, float value) {
+        frames.peek().add(field, value);
+        return this;
+    }
+
+    @Override
+    public ColumnWriter float64(String field, double value) {
+        frames.peek().add(field, value);
+        return this;
+    }
+
+    @Override
+    public ColumnWriter bool(String field, boolean value) {
+        frames.peek().add(field, value);
+        return this;
+    }
+
+    @Override
+    public ColumnWriter bytes(String field, byte[] value) {
+        Frame frame = frames.peek();
+        Schema schema = frame.schemaOf(field);
+        frame.add(field, (schema.getType() == Schema.Type.FIXED) ? new GenericData.Fixed(schema, value) : ByteBuffer.wrap(value));
+        return this;
+    }
+
+    @Override
+    public ColumnWriter symbol(String field, String value) {
+        Frame frame = frames.peek();
+        frame.add(field, new GenericData.EnumSymbol(frame.schemaOf(field), value));
+        return this;
+    }
+
+    @Override
+    public ColumnWriter startRecord(String field) {
+        Frame parent = frames.peek();
+        Schema schema = parent.schemaOf(field);
+        GenericRecord nested = new GenericData.Record(schema);
+        parent.add(field, nested);
+        frames.push(new Frame(schema, nested));
+        return this;
+    }
+
+    @Override
+    public ColumnWriter endRecord() {
+        pop(Schema.Type.RECORD);
+        return this;
+    }
+
+    @Override
+    public ColumnWriter startArray(String field) {
+        Frame parent = frames.peek();
+        Schema schema = parent.schemaOf(field);
+        List<Object> elements = new ArrayList<>();
+        parent.add(field, elements);
+        frames.push(new Frame(schema, elements));
+        return this;
+    }
+
+    @Override
+    public ColumnWriter endArray() {
+        pop(Schema.Type.ARRAY);
+        return this;
+    }
+
+    private void pop(Schema.Type type) {
+        if (frames.size() == 1 || frames.peek().schema.getType() != type) {
+            throw new IllegalStateException("end" + (type == Schema.Type.RECORD ? "Record" : "Array") + " does not match a preceding start call");
+        }
+        frames.pop();
+    }
+
+    private static class Frame {
+        private final Schema schema;
+        private final GenericRecord record;
+        private final List<Object> elements;
+
+        Frame(Schema schema, GenericRecord record) {
+            this.schema = schema;
+            this.record = record;
+            this.elements = null;
+        }
+
+        Frame(Schema schema, List<Object> elements) {
+            this.schema = schema;
+            this.record = null;
+            this.elements = elements;
+        }
+
+        Schema schemaOf(String field) {
+            if (elements != null) {
+                return nonNullTypeOf(schema.getElementType());
+            }
+            Schema.Field f = schema.getField(field);
+            if (f == null) {
+                throw new IllegalArgumentException("No field named '" + field + "' in " + schema.getFullName());
+            }
+            return nonNullTypeOf(f.schema());
+        }
+
+        void add(String field, Object value) {
+            if (elements != null) {
+                elements.add(value);
+            }
+            else {
+                schemaOf(field); // validates the field name
+                record.put(field, value);
+            }
+        }
+    }
+}
@@ -18,6 +18,9 @@ public interface RawdataConverter {
     /**
      * Convert a RawdataMessage to a GenericRecord, according to the Avro schema specified by {@link #targetAvroSchema}
      *
+     * <p>Converters of large or wide records can return a {@link ColumnarRecord} instead of building the record
+     * as Avro objects, see {@link ConversionResult#builder(ColumnarRecord, RawdataMessage)}.</p>
+     *
      * @return an Avro GenericRecord
      */
     ConversionResult convert(RawdataMessage rawdataMessage);
@@ -0,0 +1,343 @@
+package no.ssb.rawdata.converter.core.convert;
+
+import no.ssb.avro.convert.core.FieldDescriptor;
+import no.ssb.avro.convert.core.ValueInterceptor;
+import no.ssb.rawdata.converter.core.exception.RawdataConverterException;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static no.ssb.rawdata.converter.util.AvroSchemaUtil.nonNullTypeOf;
+
+/**
+ * <p>Builds Avro {@link GenericRecord}s from a stream of events (records started and ended, and textual leaf
+ * values), guided by the target schema. This is the common part of the streaming document converters, that
+ * only need to translate the events of a parser to calls to this builder.</p>
+ *
+ * <p>Fields are matched by name (or alias). Values of fields that are arrays are appended to the array, so
+ * repeated values ("implicit arrays", as in XML) and explicit arrays (as in JSON) are handled alike. Leaf values
+ * are passed through the {@link ValueInterceptor} (e.g. for pseudonymization) before being converted to the
+ * type of the field. Use {@link #kindOf(String)} to decide how to handle a named value before passing it on -
+ * values that are not part of the schema should be skipped by the caller.</p>
+ *
+ * <p>Only the records that are being built are held, so apart from the resulting record, memory use is
+ * proportional to the depth of the schema. A builder can be reused for multiple documents (one at a time), and
+ * is not thread safe.</p>
+ */
+public class SchemaGuidedRecordBuilder {
+
+    /**
+     * How a named value of the current record should be passed to the builder
+     */
+    public enum Kind {
+        /** The value should be passed as a record, using {@link #startRecord(String)} and {@link #endRecord()} */
+        RECORD,
+        /** The value should be passed as text, using {@link #value(String, String)} */
+        VALUE,
+        /** The value is not part of the schema, and should be skipped */
+        UNKNOWN
+    }
+
+    private final Schema schema;
+    private final ValueInterceptor valueInterceptor;
+    private final PathNode rootPath;
+    private final List<Frame> frames = new ArrayList<>();
+    private int depth = -1;
+
+    public SchemaGuidedRecordBuilder(Schema schema, ValueInterceptor valueInterceptor) {
+        if (schema.getType() != Schema.Type.RECORD) {
+            throw new IllegalArgumentException("Schema must be a record schema, but was " + schema.getType());
+        }
+        this.schema = schema;
+        this.valueInterceptor = valueInterceptor;
+        this.rootPath = new PathNode("", schema);
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Start building a new record of the target schema, discarding any record that has not been completed
+     */
+    public SchemaGuidedRecordBuilder start() {
+        depth = 0;
+        frameAt(0).reset(rootPath, new GenericData.Record(schema));
+        return this;
+    }
+
+    /**
+     * @return how a value with the specified name should be passed to the builder
+     */
+    public Kind kindOf(String name) {
+        PathNode child = currentFrame().path.child(name);
+        return child == null ? Kind.UNKNOWN : child.kind;
+    }
+
+    /**
+     * Start a nested record, that is set as (or appended to, if it is an array) the value of the named field
+     */
+    public SchemaGuidedRecordBuilder startRecord(String name) {
+        Frame parent = currentFrame();
+        PathNode path = parent.path.child(name);
+        if (path == null || path.kind != Kind.RECORD) {
+            throw new IllegalArgumentException("'" + parent.path.childPathOf(name) + "' is not a record field of " + parent.record.getSchema().getFullName());
+        }
+        GenericRecord nested = new GenericData.Record(path.valueSchema);
+        parent.add(path, nested);
+        frameAt(++depth).reset(path, nested);
+        return this;
+    }
+
+    /**
+     * End the current nested record
+     */
+    public SchemaGuidedRecordBuilder endRecord() {
+        if (depth < 1) {
+            throw new IllegalStateException("endRecord does not match a preceding startRecord call");
+        }
+        frames.get(depth--).complete();
+        return this;
+    }
+
+    /**
+     * Set (or append, if the field is an array) a leaf value of the current record. The text is passed through
+     * the value interceptor and converted to the type of the field. Null values, and empty text for fields that
+     * are not strings or bytes, are ignored.
+     *
+     * @throws IllegalArgumentException if the field is not a leaf field of the current record
+     * @throws SchemaGuidedConversionException if the text cannot be converted to the type of the field
+     */
+    public SchemaGuidedRecordBuilder value(String name, String text) {
+        Frame frame = currentFrame();
+        PathNode path = frame.path.child(name);
+        if (path == null || path.kind != Kind.VALUE) {
+            throw new IllegalArgumentException("'" + frame.path.childPathOf(name) + "' is not a leaf field of " + frame.record.getSchema().getFullName());
+        }
+        if (text == null) {
+            return this;
+        }
+        if (valueInterceptor != null) {
+            text = valueInterceptor.intercept(path.fieldDescriptor, text);
+        }
+        Object value = convert(path, text);
+        if (value != null) {
+            frame.add(path, value);
+        }
+        return this;
+    }
+
+    /**
+     * Complete the record that was started with {@link #start()}, setting defaults of fields that were not set
+     */
+    public GenericRecord build() {
+        if (depth != 0) {
+            throw new IllegalStateException(depth < 0
+              ? "build was called without a preceding start call"
+              : "Unbalanced start/end calls: " + depth + " records were not ended");
+        }
+        Frame root = frames.get(0);
+        GenericRecord record = root.record;
+        root.complete();
+        depth = -1;
+        return record;
+    }
+
+    private Frame currentFrame() {
+        if (depth < 0) {
+            throw new IllegalStateException("No record has been started");
+        }
+        return frames.get(depth);
+    }
+
+    private Frame frameAt(int index) {
+        if (index == frames.size()) {
+            frames.add(new Frame());
+        }
+        return frames.get(index);
+    }
+
+    private static Object convert(PathNode path, String text) {
+        Schema.Type type = path.valueSchema.getType();
+        if (text.isEmpty() && type != Schema.Type.STRING && type != Schema.Type.BYTES) {
+            return null;
+        }
+
+        try {
+            switch (type) {
+                case STRING:
+                    return text;
+                case INT:
+                    return Integer.parseInt(text.trim());
+                case LONG:
+                    return Long.parseLong(text.trim());
+                case FLOAT:
+                    return Float.parseFloat(text.trim());
+                case DOUBLE:
+                    return Double.parseDouble(text.trim());
+                case BOOLEAN:
+                    return parseBoolean(text.trim());
+                case BYTES:
+                    return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+                case ENUM:
+                    if (! path.valueSchema.hasEnumSymbol(text)) {
+                        throw new IllegalArgumentException("'" + text + "' is not a symbol of " + path.valueSchema.getFullName());
+                    }
+                    return new GenericData.EnumSymbol(path.valueSchema, text);
+                default:
+                    throw new IllegalStateException("Unsupported leaf type " + type);
+            }
+        }
+        catch (IllegalArgumentException e) {
+            throw new SchemaGuidedConversionException("Unable to convert value of " + path.path + " to " + type, e);
+        }
+    }
+
+    /**
+     * Parse a boolean strictly, so that values such as "yes" or "t" are rejected rather than silently read as false
+     */
+    private static boolean parseBoolean(String text) {
+        if ("true".equalsIgnoreCase(text) || "1".equals(text)) {
+            return true;
+        }
+        if ("false".equalsIgnoreCase(text) || "0".equals(text)) {
+            return false;
+        }
+        throw new IllegalArgumentException("'" + text + "' is not a boolean");
+    }
+
+    /**
+     * A field of the target schema, with the descriptor passed to value interceptors. Nodes are created lazily
+     * and reused for all records built by the builder.
+     */
+    private static class PathNode {
+        private final String path;
+        private final Schema.Field field;
+        private final Kind kind;
+        private final boolean array;
+        private final Schema valueSchema;
+        private final FieldDescriptor fieldDescriptor;
+        private final Map<String, PathNode> children = new HashMap<>();
+
+        PathNode(String path, Schema recordSchema) {
+            this.path = path;
+            this.field = null;
+            this.kind = Kind.RECORD;
+            this.array = false;
+            this.valueSchema = recordSchema;
+            this.fieldDescriptor = null;
+        }
+
+        PathNode(String path, Schema.Field field) {
+            Schema fieldSchema = nonNullTypeOf(field.schema());
+            this.path = path;
+            this.field = field;
+            this.array = fieldSchema.getType() == Schema.Type.ARRAY;
+            this.valueSchema = array ? nonNullTypeOf(fieldSchema.getElementType()) : fieldSchema;
+            this.kind = kindOf(valueSchema);
+            this.fieldDescriptor = (kind == Kind.VALUE) ? new FieldDescriptor(path) : null;
+        }
+
+        private static Kind kindOf(Schema schema) {
+            switch (schema.getType()) {
+                case RECORD:
+                    return Kind.RECORD;
+                case STRING:
+                case INT:
+                case LONG:
+                case FLOAT:
+                case DOUBLE:
+                case BOOLEAN:
+                case BYTES:
+                case ENUM:
+                    return Kind.VALUE;
+                default:
+                    return Kind.UNKNOWN;
+            }
+        }
+
+        /**
+         * @return the node of the named field of this record, or null if there is no such field
+         */
+        PathNode child(String name) {
+            PathNode child = children.get(name);
+            if (child == null && kind == Kind.RECORD && ! children.containsKey(name)) {
+                Schema.Field childField = fieldOf(name);
+                child = (childField == null) ? null : new PathNode(childPathOf(name), childField);
+                children.put(name, child);
+            }
+            return child;
+        }
+
+        String childPathOf(String name) {
+            return path + "/" + name;
+        }
+
+        private Schema.Field fieldOf(String name) {
+            Schema.Field f = valueSchema.getField(name);
+            if (f == null) {
+                for (Schema.Field candidate : valueSchema.getFields()) {
+                    if (candidate.aliases().contains(name)) {
+                        return candidate;
+                    }
+                }
+            }
+            return f;
+        }
+    }
+
+    /**
+     * A record that is being built
+     */
+    private static class Frame {
+        private PathNode path;
+        private GenericRecord record;
+
+        void reset(PathNode path, GenericRecord record) {
+            this.path = path;
+            this.record = record;
+        }
+
+        @SuppressWarnings("unchecked")
+        void add(PathNode child, Object value) {
+            int pos = child.field.pos();
+            if (child.array) {
+                List<Object> elements = (List<Object>) record.get(pos);
+                if (elements == null) {
+                    elements = new ArrayList<>();
+                    record.put(pos, elements);
+                }
+                elements.add(value);
+            }
+            else {
+                record.put(pos, value);
+            }
+        }
+
+        /**
+         * Set the default value of fields that were not set
+         */
+        void complete() {
+            for (Schema.Field f : record.getSchema().getFields()) {
+                if (record.get(f.pos()) == null && f.hasDefaultValue()) {
+                    record.put(f.pos(), GenericData.get().deepCopy(f.schema(), GenericData.get().getDefaultValue(f)));
+                }
+            }
+            path = null;
+            record = null;
+        }
+    }
+
+    public static class SchemaGuidedConversionException extends RawdataConverterException {
+        public SchemaGuidedConversionException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package no.ssb.rawdata.converter.core.csv;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Format of CSV items. Fields are separated by the delimiter, and may be enclosed in quotes in order to contain
+ * delimiters, line breaks or (doubled) quotes.
+ */
+@Value
+@Builder(toBuilder = true)
+public class CsvFormat {
+
+    public static final CsvFormat DEFAULT = CsvFormat.builder().build();
+
+    @Builder.Default
+    private final char delimiter = ',';
+
+    @Builder.Default
+    private final char quote = '"';
+
+    /**
+     * If true, the first row of an item holds the column names. Otherwise, columns are named column1, column2, ...
+     */
+    @Builder.Default
+    private final boolean header = true;
+}
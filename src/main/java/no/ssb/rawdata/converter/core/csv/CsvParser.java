@@ -0,0 +1,192 @@
+package no.ssb.rawdata.converter.core.csv;
+
+import no.ssb.rawdata.converter.core.exception.RawdataConverterException;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Streaming CSV parser, reading one row at a time. The cells of the current row are only valid until the next
+ * call to {@link #next()}, so the rows of an item are never held in memory together.</p>
+ *
+ * <pre>
+ * try (CsvParser csv = CsvParser.of(bytes, CsvFormat.DEFAULT)) {
+ *     while (csv.next()) {
+ *         String firstCell = csv.cell(0);
+ *     }
+ * }
+ * </pre>
+ */
+public class CsvParser implements Closeable {
+
+    private static final int EOF = -1;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final char delimiter;
+    private final char quote;
+    private final List<String> cells = new ArrayList<>();
+    private final StringBuilder cell = new StringBuilder();
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int bufferPos;
+    private int bufferLength;
+    private long rowNumber;
+    private int pushedBack = EOF;
+
+    public CsvParser(Reader reader, CsvFormat format) {
+        this.reader = reader;
+        this.delimiter = format.getDelimiter();
+        this.quote = format.getQuote();
+    }
+
+    /**
+     * Parse UTF-8 encoded CSV
+     */
+    public static CsvParser of(InputStream csv, CsvFormat format) {
+        return new CsvParser(new InputStreamReader(csv, StandardCharsets.UTF_8), format);
+    }
+
+    /**
+     * Parse UTF-8 encoded CSV
+     */
+    public static CsvParser of(byte[] csv, CsvFormat format) {
+        return of(new ByteArrayInputStream(csv), format);
+    }
+
+    /**
+     * Advance to the next row
+     *
+     * @return false if there are no more rows
+     */
+    public boolean next() {
+        cells.clear();
+        try {
+            int c = read();
+            if (c == EOF) {
+                return false;
+            }
+
+            rowNumber++;
+            while (true) {
+                cell.setLength(0);
+                if (c == quote) {
+                    c = readQuoted();
+                }
+                else {
+                    while (c != delimiter && c != '\n' && c != '\r' && c != EOF) {
+                        cell.append((char) c);
+                        c = read();
+                    }
+                }
+                cells.add(cell.toString());
+
+                if (c == delimiter) {
+                    c = read();
+                }
+                else {
+                    if (c == '\r') {
+                        int lf = read();
+                        if (lf != '\n') {
+                            pushedBack = lf;
+                        }
+                    }
+                    return true;
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new CsvParserException("Error reading CSV row " + (rowNumber + 1), e);
+        }
+    }
+
+    /**
+     * Read the rest of a quoted cell (after the opening quote), including any unquoted text following it
+     *
+     * @return the character following the cell
+     */
+    private int readQuoted() throws IOException {
+        long startRow = rowNumber;
+        while (true) {
+            int c = read();
+            if (c == EOF) {
+                throw new CsvParserException("Unterminated quoted cell starting at row " + startRow);
+            }
+            if (c == quote) {
+                c = read();
+                if (c != quote) {
+                    while (c != delimiter && c != '\n' && c != '\r' && c != EOF) {
+                        cell.append((char) c);
+                        c = read();
+                    }
+                    return c;
+                }
+            }
+            cell.append((char) c);
+        }
+    }
+
+    private int read() throws IOException {
+        if (pushedBack != EOF) {
+            int c = pushedBack;
+            pushedBack = EOF;
+            return c;
+        }
+        if (bufferPos == bufferLength) {
+            bufferLength = reader.read(buffer);
+            bufferPos = 0;
+            if (bufferLength <= 0) {
+                bufferLength = 0;
+                return EOF;
+            }
+        }
+        return buffer[bufferPos++];
+    }
+
+    /**
+     * @return the number of cells of the current row
+     */
+    public int cellCount() {
+        return cells.size();
+    }
+
+    /**
+     * @return the cell at the specified (zero based) index of the current row
+     */
+    public String cell(int index) {
+        return cells.get(index);
+    }
+
+    /**
+     * @return the (one based) number of the current row, including the header row
+     */
+    public long getRowNumber() {
+        return rowNumber;
+    }
+
+    @Override
+    public void close() {
+        try {
+            reader.close();
+        }
+        catch (IOException e) {
+            throw new CsvParserException("Error closing CSV reader", e);
+        }
+    }
+
+    public static class CsvParserException extends RawdataConverterException {
+        public CsvParserException(String message) {
+            super(message);
+        }
+
+        public CsvParserException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package no.ssb.rawdata.converter.core.csv;
+
+import no.ssb.avro.convert.core.ValueInterceptor;
+import no.ssb.rawdata.converter.core.convert.SchemaGuidedRecordBuilder;
+import no.ssb.rawdata.converter.core.convert.SchemaGuidedRecordBuilder.Kind;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * <p>Converts the rows of CSV items to Avro records of a row schema (typically inferred by
+ * {@link CsvSchemaInference}). Items are parsed in a single streaming pass, and each row is converted to a record
+ * as soon as it has been read.</p>
+ *
+ * <p>Cells are set as the fields named by the column names (see {@link CsvSchemaInference}). Each cell value is
+ * passed through the {@link ValueInterceptor} (e.g. a {@link no.ssb.rawdata.converter.core.convert.ValueInterceptorChain}
+ * for pseudonymization) with the path of the field (like /birthYear) as field descriptor. Columns that are not
+ * part of the schema are skipped.</p>
+ *
+ * <p>A reader holds the state of the item being read, and is not thread safe.</p>
+ */
+public class CsvRecordReader {
+
+    private final CsvFormat format;
+    private final SchemaGuidedRecordBuilder recordBuilder;
+    private final List<String> defaultFieldNames = new ArrayList<>();
+
+    public CsvRecordReader(Schema rowSchema, CsvFormat format, ValueInterceptor valueInterceptor) {
+        this.format = format;
+        this.recordBuilder = new SchemaGuidedRecordBuilder(rowSchema, valueInterceptor);
+    }
+
+    /**
+     * Convert each row of a (UTF-8 encoded) CSV item, passing the records to the consumer as they are read
+     *
+     * @return the number of rows
+     */
+    public long forEachRow(byte[] csv, Consumer<GenericRecord> rowConsumer) {
+        long rowCount = 0;
+        try (CsvParser parser = CsvParser.of(csv, format)) {
+            List<String> fieldNames = defaultFieldNames;
+            if (format.isHeader()) {
+                if (! parser.next()) {
+                    return 0;
+                }
+                fieldNames = CsvSchemaInference.fieldNamesOf(parser);
+            }
+
+            while (parser.next()) {
+                recordBuilder.start();
+                for (int i = 0; i < parser.cellCount(); i++) {
+                    String fieldName = fieldNameOf(fieldNames, i);
+                    if (fieldName != null && recordBuilder.kindOf(fieldName) == Kind.VALUE) {
+                        recordBuilder.value(fieldName, parser.cell(i));
+                    }
+                }
+                rowConsumer.accept(recordBuilder.build());
+                rowCount++;
+            }
+        }
+        return rowCount;
+    }
+
+    /**
+     * Convert all rows of a (UTF-8 encoded) CSV item. Use {@link #forEachRow(byte[], Consumer)} to avoid holding
+     * all records in memory.
+     */
+    public List<GenericRecord> readRows(byte[] csv) {
+        List<GenericRecord> rows = new ArrayList<>();
+        forEachRow(csv, rows::add);
+        return rows;
+    }
+
+    private String fieldNameOf(List<String> fieldNames, int columnIndex) {
+        if (fieldNames == defaultFieldNames) {
+            while (defaultFieldNames.size() <= columnIndex) {
+                defaultFieldNames.add(CsvSchemaInference.defaultFieldNameOf(defaultFieldNames.size()));
+            }
+        }
+        return columnIndex < fieldNames.size() ? fieldNames.get(columnIndex) : null;
+    }
+}
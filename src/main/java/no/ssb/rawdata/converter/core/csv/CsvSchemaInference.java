@@ -0,0 +1,166 @@
+package no.ssb.rawdata.converter.core.csv;
+
+import lombok.experimental.UtilityClass;
+import no.ssb.rawdata.api.RawdataMessage;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Infers the Avro schema of CSV rows from sample items, typically the sample messages passed to
+ * {@link no.ssb.rawdata.converter.core.convert.RawdataConverter#init(Collection)}.</p>
+ *
+ * <p>Each column becomes an optional field, named by the column name (with characters that are not valid in
+ * Avro names replaced by underscores). A column is typed as boolean, long or double if all non-empty sample
+ * values are of that type, and as string otherwise. Numbers with leading zeros (like postal codes) are
+ * considered strings.</p>
+ */
+@UtilityClass
+public class CsvSchemaInference {
+
+    private static final Pattern LONG = Pattern.compile("-?(0|[1-9][0-9]{0,17})");
+    private static final Pattern DOUBLE = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][-+]?[0-9]+)?");
+
+    /**
+     * Infer the row schema from an item of each of the sample messages. Messages without the item are ignored.
+     */
+    public static Schema inferSchema(String recordName, Collection<RawdataMessage> sampleMessages, String itemName, CsvFormat format) {
+        List<byte[]> samples = new ArrayList<>();
+        for (RawdataMessage message : sampleMessages) {
+            byte[] item = message.get(itemName);
+            if (item != null) {
+                samples.add(item);
+            }
+        }
+        return inferSchema(recordName, samples, format);
+    }
+
+    /**
+     * Infer the row schema from sample CSV items. Columns of all samples are included, in the order they are
+     * first encountered.
+     */
+    public static Schema inferSchema(String recordName, Iterable<byte[]> samples, CsvFormat format) {
+        Map<String, ColumnType> columns = new LinkedHashMap<>();
+        for (byte[] sample : samples) {
+            try (CsvParser csv = CsvParser.of(sample, format)) {
+                List<String> fieldNames = null;
+                if (format.isHeader() && csv.next()) {
+                    fieldNames = fieldNamesOf(csv);
+                }
+                while (csv.next()) {
+                    for (int i = 0; i < csv.cellCount(); i++) {
+                        String fieldName = (fieldNames == null) ? defaultFieldNameOf(i) : (i < fieldNames.size() ? fieldNames.get(i) : null);
+                        if (fieldName != null) {
+                            columns.merge(fieldName, ColumnType.of(csv.cell(i)), ColumnType::widen);
+                        }
+                    }
+                }
+                if (fieldNames != null) {
+                    fieldNames.forEach(name -> columns.putIfAbsent(name, ColumnType.UNKNOWN));
+                }
+            }
+        }
+
+        SchemaBuilder.FieldAssembler<Schema> fields = SchemaBuilder.record(recordName).fields();
+        columns.forEach((name, type) -> {
+            SchemaBuilder.BaseTypeBuilder<SchemaBuilder.FieldAssembler<Schema>> optional = fields.name(name).type().optional();
+            switch (type) {
+                case BOOLEAN:
+                    optional.booleanType();
+                    break;
+                case LONG:
+                    optional.longType();
+                    break;
+                case DOUBLE:
+                    optional.doubleType();
+                    break;
+                default:
+                    optional.stringType();
+            }
+        });
+        return fields.endRecord();
+    }
+
+    /**
+     * @return the field names of the columns of a header row. Duplicate names are suffixed by their position.
+     */
+    static List<String> fieldNamesOf(CsvParser header) {
+        List<String> fieldNames = new ArrayList<>(header.cellCount());
+        Set<String> used = new HashSet<>();
+        for (int i = 0; i < header.cellCount(); i++) {
+            String name = fieldNameOf(header.cell(i).trim(), i);
+            if (! used.add(name)) {
+                name = name + "_" + (i + 1);
+                used.add(name);
+            }
+            fieldNames.add(name);
+        }
+        return fieldNames;
+    }
+
+    /**
+     * @return the name of a column when items have no header
+     */
+    static String defaultFieldNameOf(int columnIndex) {
+        return "column" + (columnIndex + 1);
+    }
+
+    private static String fieldNameOf(String columnName, int columnIndex) {
+        if (columnName.isEmpty()) {
+            return defaultFieldNameOf(columnIndex);
+        }
+        StringBuilder sb = new StringBuilder(columnName.length() + 1);
+        if (! Character.isLetter(columnName.charAt(0)) && columnName.charAt(0) != '_') {
+            sb.append('_');
+        }
+        for (int i = 0; i < columnName.length(); i++) {
+            char c = columnName.charAt(i);
+            sb.append((c < 128 && (Character.isLetterOrDigit(c) || c == '_')) ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    private enum ColumnType {
+        UNKNOWN, BOOLEAN, LONG, DOUBLE, STRING;
+
+        static ColumnType of(String value) {
+            if (value.isEmpty()) {
+                return UNKNOWN;
+            }
+            else if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+                return BOOLEAN;
+            }
+            else if (LONG.matcher(value).matches()) {
+                return LONG;
+            }
+            else if (DOUBLE.matcher(value).matches()) {
+                return DOUBLE;
+            }
+            return STRING;
+        }
+
+        /**
+         * @return a type that can hold values of both types
+         */
+        static ColumnType widen(ColumnType a, ColumnType b) {
+            if (a == b || b == UNKNOWN) {
+                return a;
+            }
+            else if (a == UNKNOWN) {
+                return b;
+            }
+            else if ((a == LONG && b == DOUBLE) || (a == DOUBLE && b == LONG)) {
+                return DOUBLE;
+            }
+            return STRING;
+        }
+    }
+}
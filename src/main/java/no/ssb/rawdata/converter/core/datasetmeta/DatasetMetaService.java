@@ -18,6 +18,7 @@ import no.ssb.dapla.dataset.uri.DatasetUri;
 import no.ssb.dapla.storage.client.backend.BinaryBackend;
 import no.ssb.rawdata.converter.core.exception.RawdataConverterException;
 import no.ssb.rawdata.converter.core.storage.BinaryBackendFactory;
+import no.ssb.rawdata.converter.core.storage.BinaryBackendLease;
 import no.ssb.rawdata.converter.core.storage.StorageType;
 import no.ssb.rawdata.converter.service.dapla.dataaccess.DataAccessService;
 import no.ssb.rawdata.converter.service.dapla.dataaccess.ValidatedDatasetMeta;
@@ -80,18 +81,20 @@ public class DatasetMetaService {
 
     private void storeDatasetMetaFiles(ValidatedDatasetMeta datasetMeta, String metadataPath, String signaturePath) {
         // Assumes GCS with compute engine credentials
-        BinaryBackend fileStorage = binaryBackendFactory.binaryBackendOf(StorageType.of(metadataPath));
-
-        try {
-            fileStorage.write(metadataPath, datasetMeta.getContent());
-        } catch (Exception e) {
-            throw new DatasetMetaPublishException(String.format("Failed to write %s", metadataPath), e);
-        }
-
-        try {
-            fileStorage.write(signaturePath, datasetMeta.getSignature());
-        } catch (Exception e) {
-            throw new DatasetMetaPublishException(String.format("Failed to write %s", signaturePath), e);
+        try (BinaryBackendLease backendLease = binaryBackendFactory.lease(StorageType.of(metadataPath))) {
+            BinaryBackend fileStorage = backendLease.getBackend();
+
+            try {
+                fileStorage.write(metadataPath, datasetMeta.getContent());
+            } catch (Exception e) {
+                throw new DatasetMetaPublishException(String.format("Failed to write %s", metadataPath), e);
+            }
+
+            try {
+                fileStorage.write(signaturePath, datasetMeta.getSignature());
+            } catch (Exception e) {
+                throw new DatasetMetaPublishException(String.format("Failed to write %s", signaturePath), e);
+            }
         }
     }
 
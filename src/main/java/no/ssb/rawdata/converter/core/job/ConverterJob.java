@@ -11,16 +11,18 @@ import lombok.Builder;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import no.ssb.dapla.dataset.uri.DatasetUri;
-import no.ssb.dapla.storage.client.DatasetStorage;
 import no.ssb.rawdata.api.RawdataClosedException;
 import no.ssb.rawdata.api.RawdataConsumer;
 import no.ssb.rawdata.api.RawdataMessage;
+import no.ssb.rawdata.converter.core.convert.ConversionResult;
 import no.ssb.rawdata.converter.core.convert.RawdataConverter;
 import no.ssb.rawdata.converter.core.crypto.DecryptedRawdataMessage.DecryptRawdataMessageException;
 import no.ssb.rawdata.converter.core.crypto.RawdataDecryptor;
 import no.ssb.rawdata.converter.core.datasetmeta.DatasetType;
 import no.ssb.rawdata.converter.core.datasetmeta.PublishDatasetMetaEvent;
 import no.ssb.rawdata.converter.core.rawdatasource.RawdataConsumers;
+import no.ssb.rawdata.converter.core.storage.DatasetDedupIndex;
+import no.ssb.rawdata.converter.core.storage.DatasetWriter;
 import no.ssb.rawdata.converter.util.DatasetUriBuilder;
 import no.ssb.rawdata.converter.util.Json;
 import no.ssb.rawdata.converter.util.RawdataMessageAdapter;
@@ -37,6 +39,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import static no.ssb.rawdata.converter.util.RawdataMessageAdapter.posAndIdOf;
@@ -51,12 +54,14 @@ public class ConverterJob {
     private final ConverterJobRuntime runtime = new ConverterJobRuntime();
     private final Deque<RawdataMessage> lastRawdataMessages = new ArrayDeque<>();
     private final Map<String, Object> executionSummaryProperties = new LinkedHashMap<>();
+    private final Map<ULID.Value, Long> messageReceiveTimes = new ConcurrentHashMap<>(); // System.nanoTime() of receive, used for end-to-end latency metrics
 
     @NonNull private final ConverterJobConfig jobConfig;
     @NonNull private final RawdataConverter rawdataConverter;
     @NonNull private final RawdataConsumers rawdataConsumers;
     @NonNull private final RawdataDecryptor rawdataDecryptor;
-    @NonNull private final DatasetStorage datasetStorage;
+    @NonNull private final DatasetWriter datasetWriter;
+    private final DatasetDedupIndex dedupIndex; // null if deduplication is not enabled
     @NonNull private final ApplicationEventPublisher eventPublisher;
     @NonNull private final ConverterJobLocalStorage localStorage; // TODO: Initialize internally instead of in Scheduler
     @NonNull private final ConverterJobMetrics jobMetrics;
@@ -120,17 +125,26 @@ public class ConverterJob {
         Schema targetAvroSchema = rawdataConverter.targetAvroSchema();
 
         executionSummaryProperties.putIfAbsent("time.start", Instant.now().toString());
+        if (jobConfig.getTargetDataset().getType() == DatasetType.BOUNDED) {
+            rawdataConsumers.findLastTopicMessage().ifPresent(lastMessage -> {
+                log.info("Last message of BOUNDED rawdata topic - {}", posAndIdOf(lastMessage));
+                executionSummaryProperties.putIfAbsent("position.end.expected", posAndIdOf(lastMessage));
+                jobMetrics.setTopicLastMessageTimestamp(lastMessage.timestamp());
+            });
+        }
         runtime.start();
 
         processRawdataMessages(rawdataMessagesFlowOf(rawdataConsumers.getMainRawdataConsumer()), targetAvroSchema);
     }
 
     /**
-     * Pause the converter job
+     * Pause the converter job. Debug content held back by local storage is stored, so that it is not lost if the
+     * job is never resumed.
      */
     public void pause() {
         log.info("Pause converter job {}", jobId());
         runtime.pause();
+        localStorage.flush();
     }
 
     /**
@@ -145,6 +159,7 @@ public class ConverterJob {
         log.info("Stop converter job {}", jobId());
         executionSummaryProperties.put("time.stop", Instant.now().toString());
         runtime.stop();
+        localStorage.flush();
         log.info("Converter job summary:\n{}", Json.prettyFrom(getExecutionSummary()));
         close();
     }
@@ -152,6 +167,10 @@ public class ConverterJob {
     // TODO: Implement close
     public void close() {
         // TODO: Close rawdata consumers?
+        datasetWriter.close();
+        if (dedupIndex != null) {
+            dedupIndex.close();
+        }
     }
 
     private List<RawdataMessage> sampleRawdataMessages() {
@@ -256,12 +275,16 @@ public class ConverterJob {
             if (jobConfig.getConverterSettings().getMaxRecordsTotal() != null) {
                 if (jobMetrics.getRawdataMessagesProcessedTotal() >= jobConfig.getConverterSettings().getMaxRecordsTotal()) {
                     log.info("Stopping converter job since the configured max records to be converted ({}) was reached", jobConfig.getConverterSettings().getMaxRecordsTotal());
+                    // complete the stream before stopping, so that the last window is written before the writer is closed
+                    emitter.onComplete();
                     this.stop();
+                    return;
                 }
             }
 
             if (! runtime.isStarted()) {
                 emitter.onComplete();
+                return;
             }
 
             RawdataMessage message = rawdataConsumer.receive(TIMEOUT, TimeUnit.MILLISECONDS);
@@ -269,6 +292,7 @@ public class ConverterJob {
             if (message != null) {
                 log.info("[{}] Process RawdataMessage - {}, t={}", jobId(), posAndIdOf(message), Instant.ofEpochMilli(message.timestamp()).toString());
                 executionSummaryProperties.putIfAbsent("position.start.actual", posAndIdOf(message));
+                messageReceiveTimes.put(message.ulid(), System.nanoTime());
                 emitter.onNext(message);
             } else {
                 if (jobConfig.getTargetDataset().getType() == DatasetType.BOUNDED) {
@@ -309,7 +333,7 @@ public class ConverterJob {
 
                 // Convert and write
                 else {
-                    datasetStorage.writeDataUnbounded(
+                    datasetWriter.writeDataUnbounded(
                       datasetUriOf(jobConfig.getTargetStorage()), // dataset to write to
                       targetAvroSchema, // avro schema
                       convertRecords(rawdataMessages), // map rawdata to avro records
@@ -329,6 +353,7 @@ public class ConverterJob {
     void deactivateAndLogProcessingError(String errorMessage, RawdataMessage rawdataMessage, Throwable cause) {
         log.error(errorMessage + " - " + posAndIdOf(rawdataMessage) + ". Deactivating converter", cause);
         this.pause();
+        messageReceiveTimes.clear();
         if (rawdataMessage == null) {
             return;
         }
@@ -353,6 +378,14 @@ public class ConverterJob {
 
     private Flowable<GenericRecord> convertRecords(Flowable<RawdataMessage> rawdataMessages) {
         return rawdataMessages
+                .filter(rawdataMessage -> { // filter out messages that have already been converted to the target dataset
+                    if (dedupIndex != null && dedupIndex.isConverted(rawdataMessage.ulid())) {
+                        jobMetrics.appendDuplicateMessagesCount();
+                        messageReceiveTimes.remove(rawdataMessage.ulid());
+                        return false;
+                    }
+                    return true;
+                })
                 .map(rawdataDecryptor::tryDecrypt) // decrypt message data if encryption is configured
                 .filter(rawdataMessage -> { // filter out records that should be skipped conversion
                     if (!isSkipped((rawdataMessage)) && rawdataConverter.isConvertible(rawdataMessage)) {
@@ -367,12 +400,13 @@ public class ConverterJob {
                         }
 
                         jobMetrics.appendSkippedMessagesCount();
+                        messageReceiveTimes.remove(rawdataMessage.ulid());
                         return false;
                     }
                 })
                 .map(rawdataMessage -> { // optionally write record to file
                     if (jobConfig.getDebug().shouldStoreAllRawdata()) {
-                        localStorage.storeRawdataToFile(rawdataMessage, "rawdata");
+                        localStorage.storeSampledRawdataToFile(rawdataMessage, "rawdata");
                     }
                     if (jobConfig.getDebug().shouldLogAllRawdata()) {
                         log.info("RawdataMessage ({}):\n{}", posAndIdOf(rawdataMessage), RawdataMessageAdapter.toDebugString(rawdataMessage));
@@ -385,7 +419,10 @@ public class ConverterJob {
                         lastRawdataMessages.pollLast();
                     }
 
-                    return rawdataConverter.convert(rawdataMessage);
+                    long conversionStart = System.nanoTime();
+                    ConversionResult conversionResult = rawdataConverter.convert(rawdataMessage);
+                    jobMetrics.appendConversionLatency(rawdataMessage, System.nanoTime() - conversionStart);
+                    return conversionResult;
                 })
                 .map(conversionResult -> { // Gather metrics
                     jobMetrics.appendConversionResult(conversionResult); // TODO: Use async events for this instead
@@ -395,7 +432,12 @@ public class ConverterJob {
                         log.info("Converted record:\n{}", record.toString());
                     }
                     if (jobConfig.getDebug().shouldStoreAllConverted()) {
-                        localStorage.storeToFile("converted", conversionResult.getRawdataMessage().position(), Map.of("converted.json", Json.prettyFrom(record.toString()).getBytes()));
+                        localStorage.storeConvertedRecord(conversionResult.getRawdataMessage(), record);
+                    }
+
+                    Long receivedAt = messageReceiveTimes.remove(conversionResult.getRawdataMessage().ulid());
+                    if (receivedAt != null) {
+                        jobMetrics.appendEndToEndLatency(System.nanoTime() - receivedAt);
                     }
 
                     return record;
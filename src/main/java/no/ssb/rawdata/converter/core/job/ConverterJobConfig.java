@@ -12,13 +12,16 @@ import lombok.experimental.Accessors;
 import no.ssb.dlp.pseudo.core.PseudoFuncRule;
 import no.ssb.rawdata.converter.core.datasetmeta.DatasetType;
 import no.ssb.rawdata.converter.core.datasetmeta.Valuation;
+import no.ssb.rawdata.converter.core.storage.ParquetPreset;
 import no.ssb.rawdata.converter.util.Json;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
 
 import java.io.Serializable;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -95,6 +98,11 @@ public class ConverterJobConfig implements Serializable {
      */
     private TargetDataset targetDataset = new TargetDataset();
 
+    /**
+     * Settings for the metrics reported by the job
+     */
+    private MetricsSettings metrics = new MetricsSettings();
+
     /**
      * <p>Implementation specific configuration for the converter app, represented as a generic JSON map.</p>
      *
@@ -204,13 +212,24 @@ public class ConverterJobConfig implements Serializable {
         private Boolean storeAllRawdata;
 
         /**
-         * <p>If true, all converted records will be stored as JSON to
-         * local disk (specified by localStoragePath).</p>
+         * <p>If true, all converted records will be stored to local disk
+         * (specified by localStoragePath), in the format given by convertedStorageFormat.</p>
          *
          * <p>Default: false</p>
          */
         private Boolean storeAllConverted;
 
+        /**
+         * <p>The format used when storing converted records (storeAllConverted). One of:<ul>
+         *   <li>JSON - each record is stored as a separate, pretty printed JSON file</li>
+         *   <li>AVRO - records are appended to an hourly, block compressed Avro container file per job, using the
+         *   job's target schema. Not applicable if localStoragePassword is specified.</li>
+         * </ul></p>
+         *
+         * <p>Default: JSON</p>
+         */
+        private ConvertedStorageFormat convertedStorageFormat;
+
         /**
          * <p>The root path of locally stored debug content.</p>
          *
@@ -230,6 +249,38 @@ public class ConverterJobConfig implements Serializable {
          */
         private String localStoragePassword;
 
+        /**
+         * <p>If specified, only 1 in N messages will be stored when storeAllRawdata or storeAllConverted
+         * is enabled. Messages are selected by their ULID, so that the same messages are sampled for both
+         * rawdata and converted records. Failed and skipped messages are not sampled.</p>
+         *
+         * <p>Defaults to 1 (all messages)</p>
+         */
+        private Integer localStorageSampleRate;
+
+        /**
+         * <p>If specified, at most this number of uniformly sampled messages (reservoir sampling) will be
+         * stored per localStorageReservoirWindowSeconds when storeAllRawdata or storeAllConverted is enabled.
+         * Sampled content is held in memory until the end of each window.</p>
+         */
+        private Integer localStorageReservoirSize;
+
+        /**
+         * <p>The length of the reservoir sampling window.</p>
+         *
+         * <p>Default: 3600</p>
+         */
+        private Long localStorageReservoirWindowSeconds;
+
+        /**
+         * <p>If specified, the max number of bytes that the job will keep in local storage. When exceeded,
+         * the oldest hourly buckets of stored content will be deleted. Content is dropped if the quota is
+         * exceeded by the current hour alone.</p>
+         *
+         * <p>Defaults to unlimited</p>
+         */
+        private Long localStorageQuotaBytes;
+
         /**
          * <p>If specified, only the given rawdata entries will be included when logging or
          * storing rawdata to local storage path. This can be convenient if you for some
@@ -270,6 +321,19 @@ public class ConverterJobConfig implements Serializable {
         public boolean shouldStoreAllConverted() {
             return Optional.ofNullable(storeAllConverted).orElse(false);
         }
+        public ConvertedStorageFormat convertedStorageFormatOrDefault() {
+            return Optional.ofNullable(convertedStorageFormat).orElse(ConvertedStorageFormat.JSON);
+        }
+        public int localStorageSampleRateOrDefault() {
+            return Optional.ofNullable(localStorageSampleRate).orElse(1);
+        }
+        public long localStorageReservoirWindowSecondsOrDefault() {
+            return Optional.ofNullable(localStorageReservoirWindowSeconds).orElse(3600L);
+        }
+
+        public enum ConvertedStorageFormat {
+            JSON, AVRO;
+        }
     }
 
     @ConfigurationProperties("converter-settings")
@@ -285,6 +349,63 @@ public class ConverterJobConfig implements Serializable {
          */
         private Long maxSecondsBeforeFlush;
 
+        /**
+         * <p>The max number of parquet files that can be waiting to be closed and uploaded while the next file
+         * is being written. When reached, conversion is paused until an upload completes.</p>
+         *
+         * <p>Defaults to 2</p>
+         */
+        private Integer maxInFlightUploads;
+
+        /**
+         * <p>How to handle records that fail to be written to parquet, e.g. because of null elements in arrays.</p>
+         *
+         * <p>Defaults to FAIL</p>
+         */
+        private WriteExceptionPolicy writeExceptionPolicy;
+
+        /**
+         * <p>The max number of records that can be dead-lettered (if writeExceptionPolicy is DEAD_LETTER). If
+         * exceeded, the converter job is paused.</p>
+         *
+         * <p>Defaults to 1000</p>
+         */
+        private Long maxDeadLetterRecords;
+
+        /**
+         * <p>If true, rawdata messages that have already been converted to the target dataset are skipped
+         * before being decrypted and converted. This makes it safe to re-convert from the FIRST position, or
+         * from an earlier position after a partial failure, without producing duplicates.</p>
+         *
+         * <p>The ULIDs of the existing dataset are kept in an index next to the data files. The index must
+         * read any data files that it does not already cover when the job starts.</p>
+         *
+         * <p>Defaults to false</p>
+         */
+        private Boolean deduplicate;
+
+        /**
+         * <p>The max number of pseudonymized values to cache, keyed by pseudo rule and input value. Identifiers
+         * such as person and organization numbers typically repeat across messages, and are then pseudonymized
+         * only once. Cached values are held in memory only, and are never logged or persisted. Only values of
+         * fields that a pseudo rule applies to are cached.</p>
+         *
+         * <p>Caching applies to converters that pseudonymize through the value interceptor created by
+         * FieldPseudonymizerFactory.newPseudonymizingInterceptor. Converters that still use a FieldPseudonymizer
+         * from FieldPseudonymizerFactory.newFieldPseudonymizer directly must switch to the interceptor to get
+         * caching.</p>
+         *
+         * <p>Defaults to 0 (no caching)</p>
+         */
+        private Long pseudoCacheMaxEntries;
+
+        /**
+         * <p>The max (estimated) memory used by cached pseudonymized values, in bytes</p>
+         *
+         * <p>Defaults to 64 MiB</p>
+         */
+        private Long pseudoCacheMaxBytes;
+
         /**
          * <p>The max number of records to convert. The converter job will be stopped
          * when reaching this count.</p>
@@ -307,6 +428,27 @@ public class ConverterJobConfig implements Serializable {
          * accompanying technical debt.</p>
          */
         private Set<String> skippedMessages;
+
+        public boolean shouldDeduplicate() {
+            return Optional.ofNullable(deduplicate).orElse(false);
+        }
+
+        public boolean shouldCachePseudonymization() {
+            return Optional.ofNullable(pseudoCacheMaxEntries).orElse(0L) > 0 && Optional.ofNullable(pseudoCacheMaxBytes).orElse(0L) > 0;
+        }
+
+        public enum WriteExceptionPolicy {
+            /**
+             * Pause the converter job
+             */
+            FAIL,
+
+            /**
+             * Store the failed record (along with the error) in a dead-letter avro file in the target dataset
+             * and continue
+             */
+            DEAD_LETTER;
+        }
     }
 
     @ConfigurationProperties("rawdata-source")
@@ -330,7 +472,7 @@ public class ConverterJobConfig implements Serializable {
          *
          * <p>One of:<ul>
          *   <li>LAST - after the last known (converted) position, meaning that the rawdata converter will determine the last known position from the target dataset. If the target dataset is not readable, then the converter will start from the beginning of the stream</li>
-         *   <li>FIRST - always from the beginning of the stream. Note that this might result in duplicates if the dataset already exists.</li>
+         *   <li>FIRST - always from the beginning of the stream. Note that this might result in duplicates if the dataset already exists, unless converter-settings.deduplicate is enabled.</li>
          *   <li>a specific RawdataMessage ULID</li>
          * </ul></p>
          */
@@ -368,6 +510,89 @@ public class ConverterJobConfig implements Serializable {
          * is GCS and this property is null, then it is assumed that compute engine credentials should be used.</p>
          */
         private String saKeyFile;
+
+        /**
+         * <p>Predefined parquet writer settings, tailored for the characteristics of the target dataset. The
+         * individual parquet settings below override the settings of the preset.</p>
+         *
+         * <p>Defaults to {@link ParquetPreset#DEFAULT}</p>
+         */
+        private ParquetPreset parquetPreset;
+
+        /**
+         * The parquet row group size in bytes. This is the amount of data buffered in memory per dataset file
+         * before it is flushed.
+         */
+        private Integer parquetRowGroupSize;
+
+        /**
+         * The parquet page size in bytes
+         */
+        private Integer parquetPageSize;
+
+        /**
+         * The compression codec used for parquet pages, e.g. SNAPPY, GZIP or ZSTD
+         */
+        private CompressionCodecName parquetCompressionCodec;
+
+        /**
+         * Whether or not to use dictionary encoding for parquet columns
+         */
+        private Boolean parquetDictionaryEncoding;
+
+        /**
+         * <p>Local directory used to spool parquet files before they are uploaded to the target storage. If
+         * specified, completed parquet files are uploaded in the background with retries, so that intermittent
+         * storage failures do not interrupt the conversion.</p>
+         *
+         * <p>Defaults to null (no spooling)</p>
+         */
+        private String spoolPath;
+
+        /**
+         * <p>The max total size (in bytes) of spooled parquet files. Conversion is paused when reached.</p>
+         *
+         * <p>Defaults to 1 GiB</p>
+         */
+        private Long spoolMaxSizeBytes;
+
+        /**
+         * <p>The max number of seconds to wait for parquet files to be uploaded, e.g. for the spooled files of a
+         * previous run before the job starts, or for the last files of a BOUNDED job before it completes. The job
+         * fails if the uploads have not completed by then.</p>
+         *
+         * <p>Defaults to 3600 (1 hour)</p>
+         */
+        private Long uploadTimeoutSeconds;
+
+        public long spoolMaxSizeBytesOrDefault() {
+            return Optional.ofNullable(spoolMaxSizeBytes).orElse(1024L * 1024 * 1024);
+        }
+
+        public Duration uploadTimeoutOrDefault() {
+            return Duration.ofSeconds(Optional.ofNullable(uploadTimeoutSeconds).orElse(3600L));
+        }
+    }
+
+    @ConfigurationProperties("metrics")
+    @Data
+    public static class MetricsSettings extends ConfigElement {
+        /**
+         * <p>Service level objectives (in milliseconds) that are published as histogram buckets
+         * for the per-message latency metrics (conversion and end-to-end).</p>
+         *
+         * <p>Defaults to 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000</p>
+         */
+        private List<Long> latencySloMillis;
+
+        /**
+         * <p>Upper bounds (in bytes) of the message size classes used to correlate conversion
+         * latency with rawdata message size. Messages larger than the biggest bound are reported
+         * in an overflow class.</p>
+         *
+         * <p>Defaults to 1 KiB, 10 KiB, 100 KiB, 1 MiB, 10 MiB</p>
+         */
+        private List<Long> messageSizeClassBytes;
     }
 
     @ConfigurationProperties("target-dataset")
@@ -40,6 +40,12 @@ public class ConverterJobConfigFactory {
         DEFAULT_CONFIG.getConverterSettings()
           .setMaxRecordsBeforeFlush(1000000L)
           .setMaxSecondsBeforeFlush(300L)
+          .setMaxInFlightUploads(2)
+          .setWriteExceptionPolicy(ConverterJobConfig.ConverterSettings.WriteExceptionPolicy.FAIL)
+          .setMaxDeadLetterRecords(1000L)
+          .setDeduplicate(false)
+          .setPseudoCacheMaxEntries(0L)
+          .setPseudoCacheMaxBytes(64 * 1024 * 1024L)
           .setRawdataSamples(1)
         ;
         DEFAULT_CONFIG.getRawdataSource()
@@ -47,6 +53,10 @@ public class ConverterJobConfigFactory {
         ;
         DEFAULT_CONFIG.getRawdataSource()
           ;
+        DEFAULT_CONFIG.getMetrics()
+          .setLatencySloMillis(List.of(5L, 10L, 25L, 50L, 100L, 250L, 500L, 1000L, 2500L, 5000L, 10000L))
+          .setMessageSizeClassBytes(List.of(1024L, 10 * 1024L, 100 * 1024L, 1024 * 1024L, 10 * 1024 * 1024L))
+        ;
 
     }
 
@@ -1,26 +1,245 @@
 package no.ssb.rawdata.converter.core.job;
 
 import com.google.common.collect.Sets;
+import com.google.common.io.CountingOutputStream;
 import io.micronaut.context.event.ApplicationEventPublisher;
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
 import no.ssb.rawdata.api.RawdataMessage;
+import no.ssb.rawdata.converter.core.job.ConverterJobConfig.Debug.ConvertedStorageFormat;
+import no.ssb.rawdata.converter.metrics.Metric;
+import no.ssb.rawdata.converter.metrics.MetricName;
+import no.ssb.rawdata.converter.util.Json;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * <p>Stores debug content for a converter job to local storage.</p>
+ *
+ * <p>Content stored using the "sampled" methods (typically content stored for all messages) is subject to 1-in-N
+ * and/or reservoir sampling. All stored content is subject to the job's local storage quota. Content is grouped in
+ * hourly buckets, and the oldest buckets are deleted when the quota is exceeded.</p>
+ *
+ * <p>Content is written asynchronously by the {@link LocalStorageService}. Quota is reserved when content is
+ * handed to the service, and is released again if the service drops the content (e.g. because its queue is
+ * full), so that content that was never written does not use up the quota.</p>
+ */
 @RequiredArgsConstructor
+@Slf4j
 public class ConverterJobLocalStorage {
+    public static final Metric LOCAL_STORAGE_BYTES_STORED = new Metric(MetricName.LOCAL_STORAGE_BYTES_TOTAL, "result", "stored");
+    public static final Metric LOCAL_STORAGE_BYTES_DROPPED = new Metric(MetricName.LOCAL_STORAGE_BYTES_TOTAL, "result", "dropped");
+    public static final Metric LOCAL_STORAGE_BYTES_ROTATED = new Metric(MetricName.LOCAL_STORAGE_BYTES_TOTAL, "result", "rotated");
+
     private final ConverterJobConfig jobConfig;
     private final ApplicationEventPublisher eventPublisher;
+    private final ConverterJobMetrics jobMetrics;
+
+    /**
+     * Bytes stored per hourly time bucket, oldest bucket first
+     */
+    private final Map<String, Long> timeBucketBytes = new LinkedHashMap<>();
+    private final Map<String, Reservoir> reservoirs = new HashMap<>();
+
+    /**
+     * Quota reservations to release, for content dropped by the local storage writer. The writer thread must not
+     * wait for the lock of this object (a requester holding it may be blocked waiting for the writer's queue), so
+     * reservations are released the next time quota is reserved.
+     */
+    private final Queue<QuotaReservation> droppedReservations = new ConcurrentLinkedQueue<>();
+    private boolean isUsageInitialized = false;
+    private long usedBytes = 0;
+
+    private DataFileWriter<GenericRecord> convertedRecordWriter;
+    private CountingOutputStream convertedRecordOutput;
+    private String convertedRecordTimeBucket;
+    private long convertedRecordAccountedBytes;
+    private boolean isConvertedRecordQuotaExceeded;
 
     public void storeRawdataToFile(RawdataMessage rawdataMessage, String pathSuffix) {
         this.storeRawdataToFile(rawdataMessage, pathSuffix, null);
     }
 
     public void storeRawdataToFile(RawdataMessage rawdataMessage, String pathSuffix, Map<String, byte[]> additionalFiles) {
+        storeToFile(pathSuffix, rawdataMessage.position(), rawdataFilesOf(rawdataMessage, additionalFiles));
+    }
+
+    /**
+     * Store rawdata, subject to the configured sampling
+     */
+    public void storeSampledRawdataToFile(RawdataMessage rawdataMessage, String pathSuffix) {
+        if (isSampled(rawdataMessage)) {
+            storeSampled(pathSuffix, rawdataMessage.position(), rawdataFilesOf(rawdataMessage, null));
+        }
+    }
+
+    /**
+     * Store content associated with a rawdata message, subject to the configured sampling
+     */
+    public void storeSampledToFile(RawdataMessage rawdataMessage, String pathSuffix, Map<String, byte[]> files) {
+        if (isSampled(rawdataMessage)) {
+            storeSampled(pathSuffix, rawdataMessage.position(), files);
+        }
+    }
+
+    public synchronized void storeToFile(String pathSuffix, String fileGroup, Map<String, byte[]> files) {
+        long bytes = files.values().stream().mapToLong(b -> b.length).sum();
+        String timeBucket = LocalStorageService.timeBucketOf(LocalDateTime.now());
+        if (! reserveQuota(timeBucket, bytes)) {
+            log.debug("Local storage quota exceeded. Dropped {} bytes of {}/{}", bytes, pathSuffix, fileGroup);
+            jobMetrics.incrementCounter(LOCAL_STORAGE_BYTES_DROPPED, bytes);
+            return;
+        }
+
+        eventPublisher.publishEvent(LocalStorageEvent.builder()
+          .pathPrefix(storageRootPath().resolve(pathSuffix))
+          .files(files)
+          .fileGroupName(fileGroup)
+          .localStoragePassword(jobConfig.getDebug().getLocalStoragePassword())
+          .timeBucket(timeBucket)
+          .onStored(() -> jobMetrics.incrementCounter(LOCAL_STORAGE_BYTES_STORED, bytes))
+          .onDropped(() -> {
+              droppedReservations.add(new QuotaReservation(timeBucket, bytes));
+              jobMetrics.incrementCounter(LOCAL_STORAGE_BYTES_DROPPED, bytes);
+          })
+          .build());
+    }
+
+    /**
+     * <p>Store a converted record, subject to the configured sampling.</p>
+     *
+     * <p>Depending on the configured format, the record is either stored as a pretty printed JSON file, or
+     * appended to an hourly, block compressed Avro container file of the job. Since Avro container files cannot be
+     * password protected, records are always stored as JSON if a local storage password is specified.</p>
+     */
+    public synchronized void storeConvertedRecord(RawdataMessage rawdataMessage, GenericRecord record) {
+        ConverterJobConfig.Debug debug = jobConfig.getDebug();
+        if (debug.convertedStorageFormatOrDefault() == ConvertedStorageFormat.AVRO && debug.getLocalStoragePassword() == null) {
+            if (isSampled(rawdataMessage)) {
+                appendToAvroContainer(record);
+            }
+        }
+        else {
+            storeSampledToFile(rawdataMessage, "converted", Map.of("converted.json", Json.prettyFrom(record.toString()).getBytes()));
+        }
+    }
+
+    /**
+     * Store all content currently held back by reservoir sampling, and close any open Avro container file
+     */
+    public synchronized void flush() {
+        reservoirs.values().forEach(this::storeReservoir);
+        reservoirs.clear();
+        closeConvertedRecordWriter();
+    }
+
+    /**
+     * Append a record to the Avro container file of the current hour. The file is rolled when the hour changes, and
+     * a new file is started if the current file is closed (e.g. after an error, or when the job is paused).
+     */
+    private void appendToAvroContainer(GenericRecord record) {
+        String timeBucket = LocalStorageService.timeBucketOf(LocalDateTime.now());
+        try {
+            if (convertedRecordWriter == null || ! timeBucket.equals(convertedRecordTimeBucket)) {
+                closeConvertedRecordWriter();
+                openConvertedRecordWriter(timeBucket, record);
+            }
+            if (isConvertedRecordQuotaExceeded) {
+                return;
+            }
+
+            convertedRecordWriter.append(record);
+            accountConvertedRecordBytes();
+        }
+        catch (Exception e) {
+            log.warn("Error appending converted record to Avro container file. Closing file.", e);
+            closeConvertedRecordWriter();
+        }
+    }
+
+    private void openConvertedRecordWriter(String timeBucket, GenericRecord record) throws IOException {
+        Path dir = storageRootPath().resolve("converted");
+        Files.createDirectories(dir);
+        Path file = dir.resolve(String.format("%s-%s.avro", timeBucket, jobConfig.getJobId()));
+        for (int seq = 2; Files.exists(file); seq++) {
+            // never truncate records stored earlier in the hour (or by a previous run)
+            file = dir.resolve(String.format("%s-%s-%d.avro", timeBucket, jobConfig.getJobId(), seq));
+        }
+
+        convertedRecordOutput = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)));
+        convertedRecordWriter = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(record.getSchema()));
+        convertedRecordWriter.setCodec(CodecFactory.deflateCodec(CodecFactory.DEFAULT_DEFLATE_LEVEL));
+        convertedRecordWriter.create(record.getSchema(), convertedRecordOutput);
+        convertedRecordTimeBucket = timeBucket;
+        convertedRecordAccountedBytes = 0;
+        isConvertedRecordQuotaExceeded = false;
+    }
+
+    private void closeConvertedRecordWriter() {
+        if (convertedRecordWriter == null) {
+            return;
+        }
+        try {
+            convertedRecordWriter.close();
+            accountConvertedRecordBytes();
+        }
+        catch (IOException e) {
+            log.warn("Error closing Avro container file", e);
+        }
+        finally {
+            convertedRecordWriter = null;
+            convertedRecordOutput = null;
+        }
+    }
+
+    /**
+     * Account for bytes written to the Avro container file. Since records are buffered and written in compressed
+     * blocks, this is only updated once a block is written. Appending is stopped for the rest of the hour if the
+     * quota is exceeded.
+     */
+    private void accountConvertedRecordBytes() {
+        long bytes = convertedRecordOutput.getCount() - convertedRecordAccountedBytes;
+        if (bytes <= 0) {
+            return;
+        }
+        convertedRecordAccountedBytes += bytes;
+
+        if (reserveQuota(convertedRecordTimeBucket, bytes)) {
+            jobMetrics.incrementCounter(LOCAL_STORAGE_BYTES_STORED, bytes);
+        }
+        else {
+            // The bytes are already written, so they count as used
+            timeBucketBytes.merge(convertedRecordTimeBucket, bytes, Long::sum);
+            usedBytes += bytes;
+            isConvertedRecordQuotaExceeded = true;
+            log.warn("Local storage quota exceeded. No more converted records will be stored to time bucket {}", convertedRecordTimeBucket);
+        }
+    }
+
+    private Map<String, byte[]> rawdataFilesOf(RawdataMessage rawdataMessage, Map<String, byte[]> additionalFiles) {
         Map<String, byte[]> files = new HashMap<>();
         for (String entryId : whitelistedRawdataEntries(rawdataMessage)) {
             files.put(entryId, rawdataMessage.get(entryId));
@@ -30,17 +249,169 @@ public class ConverterJobLocalStorage {
             files.putAll(additionalFiles);
         }
 
-        storeToFile(pathSuffix, rawdataMessage.position(), files);
+        return files;
+    }
+
+    /**
+     * 1-in-N sampling based on the message ULID. The same message will be selected regardless of what kind of
+     * content (e.g. rawdata or converted) is being stored.
+     */
+    private boolean isSampled(RawdataMessage rawdataMessage) {
+        int sampleRate = jobConfig.getDebug().localStorageSampleRateOrDefault();
+        return sampleRate <= 1 || Math.floorMod(rawdataMessage.ulid().hashCode(), sampleRate) == 0;
+    }
+
+    private synchronized void storeSampled(String pathSuffix, String fileGroup, Map<String, byte[]> files) {
+        Integer reservoirSize = jobConfig.getDebug().getLocalStorageReservoirSize();
+        if (reservoirSize == null) {
+            storeToFile(pathSuffix, fileGroup, files);
+            return;
+        }
+
+        long windowMillis = jobConfig.getDebug().localStorageReservoirWindowSecondsOrDefault() * 1000;
+        long windowId = System.currentTimeMillis() / windowMillis;
+        Reservoir reservoir = reservoirs.get(pathSuffix);
+        if (reservoir == null || reservoir.getWindowId() != windowId) {
+            if (reservoir != null) {
+                storeReservoir(reservoir);
+            }
+            reservoir = new Reservoir(windowId, reservoirSize);
+            reservoirs.put(pathSuffix, reservoir);
+        }
+        reservoir.offer(new PendingStore(pathSuffix, fileGroup, files));
+    }
+
+    private void storeReservoir(Reservoir reservoir) {
+        reservoir.getItems().forEach(item -> storeToFile(item.getPathSuffix(), item.getFileGroup(), item.getFiles()));
+    }
+
+    /**
+     * Reserve quota for content to be stored, rotating (deleting) the oldest time buckets if needed.
+     *
+     * @return true if quota was available, false if the content should be dropped
+     */
+    private boolean reserveQuota(String timeBucket, long bytes) {
+        Long quota = jobConfig.getDebug().getLocalStorageQuotaBytes();
+        if (quota == null) {
+            droppedReservations.clear();
+            return true;
+        }
+        if (! isUsageInitialized) {
+            initUsage();
+        }
+        releaseDroppedReservations();
+
+        while (usedBytes + bytes > quota) {
+            String oldestTimeBucket = timeBucketBytes.keySet().stream()
+              .filter(b -> ! b.equals(timeBucket))
+              .findFirst()
+              .orElse(null);
+            if (oldestTimeBucket == null) {
+                return false;
+            }
+
+            long rotatedBytes = timeBucketBytes.remove(oldestTimeBucket);
+            usedBytes -= rotatedBytes;
+            deleteTimeBucket(oldestTimeBucket);
+            jobMetrics.incrementCounter(LOCAL_STORAGE_BYTES_ROTATED, rotatedBytes);
+            log.info("Local storage quota exceeded. Rotated time bucket {} ({} bytes)", oldestTimeBucket, rotatedBytes);
+        }
+
+        timeBucketBytes.merge(timeBucket, bytes, Long::sum);
+        usedBytes += bytes;
+        return true;
+    }
+
+    private void releaseDroppedReservations() {
+        QuotaReservation reservation;
+        while ((reservation = droppedReservations.poll()) != null) {
+            Long bucketBytes = timeBucketBytes.get(reservation.getTimeBucket());
+            if (bucketBytes == null) {
+                continue; // already rotated
+            }
+            long releasedBytes = Math.min(bucketBytes, reservation.getBytes());
+            timeBucketBytes.put(reservation.getTimeBucket(), bucketBytes - releasedBytes);
+            usedBytes -= releasedBytes;
+        }
+    }
+
+    /**
+     * Determine the current disk usage from content stored by previous runs, ordered by time of last modification
+     */
+    private void initUsage() {
+        isUsageInitialized = true;
+        Map<String, Long> bucketLastModified = new HashMap<>();
+        for (Path entry : timeBucketEntries(null)) {
+            String timeBucket = entry.getFileName().toString().substring(0, 6);
+            try (Stream<Path> files = Files.walk(entry)) {
+                for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                    timeBucketBytes.merge(timeBucket, Files.size(file), Long::sum);
+                    bucketLastModified.merge(timeBucket, Files.getLastModifiedTime(file).toMillis(), Math::max);
+                }
+            }
+            catch (IOException e) {
+                log.warn("Unable to determine size of local storage entry " + entry, e);
+            }
+        }
+
+        List<String> orderedTimeBuckets = new ArrayList<>(timeBucketBytes.keySet());
+        orderedTimeBuckets.sort(Comparator.comparing(b -> bucketLastModified.getOrDefault(b, 0L)));
+        Map<String, Long> ordered = new LinkedHashMap<>();
+        orderedTimeBuckets.forEach(b -> ordered.put(b, timeBucketBytes.get(b)));
+        timeBucketBytes.clear();
+        timeBucketBytes.putAll(ordered);
+        usedBytes = timeBucketBytes.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    private void deleteTimeBucket(String timeBucket) {
+        for (Path entry : timeBucketEntries(timeBucket)) {
+            try (Stream<Path> files = Files.walk(entry)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            catch (IOException e) {
+                log.warn("Unable to delete local storage entry " + entry, e);
+            }
+        }
+    }
+
+    /**
+     * Find all stored entries (hourly directories or archives) of the job, optionally for a specific time bucket.
+     * Entries are stored as [root]/[topic]/[pathSuffix]/[timeBucket]...
+     */
+    private List<Path> timeBucketEntries(String timeBucket) {
+        Path root = storageRootPath();
+        if (! Files.isDirectory(root)) {
+            return List.of();
+        }
+
+        try (Stream<Path> suffixDirs = Files.list(root)) {
+            List<Path> entries = new ArrayList<>();
+            for (Path suffixDir : suffixDirs.filter(Files::isDirectory).collect(Collectors.toList())) {
+                try (Stream<Path> suffixEntries = Files.list(suffixDir)) {
+                    suffixEntries
+                      .filter(p -> isTimeBucketEntry(p.getFileName().toString(), timeBucket))
+                      .forEach(entries::add);
+                }
+            }
+            return entries;
+        }
+        catch (IOException e) {
+            log.warn("Unable to list local storage entries in " + root, e);
+            return List.of();
+        }
+    }
+
+    private static boolean isTimeBucketEntry(String filename, String timeBucket) {
+        return (timeBucket == null)
+          ? filename.matches("^\\d{6}([-.].*)?$")
+          : filename.equals(timeBucket) || filename.startsWith(timeBucket + "-") || filename.equals(timeBucket + ".zip");
     }
 
-    public void storeToFile(String pathSuffix, String fileGroup, Map<String, byte[]> files) {
+    private Path storageRootPath() {
         String root = Optional.ofNullable(jobConfig.getDebug().getLocalStoragePath()).orElse("/tmp");
-        eventPublisher.publishEvent(LocalStorageEvent.builder()
-          .pathPrefix(Path.of(root, jobConfig.getRawdataSource().getTopic(), pathSuffix))
-          .files(files)
-          .fileGroupName(fileGroup)
-          .localStoragePassword(jobConfig.getDebug().getLocalStoragePassword())
-          .build());
+        return Path.of(root, jobConfig.getRawdataSource().getTopic());
     }
 
     private Set<String> whitelistedRawdataEntries(RawdataMessage rawdataMessage) {
@@ -54,4 +425,53 @@ public class ConverterJobLocalStorage {
         }
     }
 
+    @Value
+    private static class QuotaReservation {
+        private final String timeBucket;
+        private final long bytes;
+    }
+
+    @Value
+    private static class PendingStore {
+        private final String pathSuffix;
+        private final String fileGroup;
+        private final Map<String, byte[]> files;
+    }
+
+    /**
+     * Uniform reservoir sample (algorithm R) of content offered within a time window
+     */
+    private static class Reservoir {
+        private final long windowId;
+        private final int size;
+        private final List<PendingStore> items = new ArrayList<>();
+        private long offeredCount = 0;
+
+        Reservoir(long windowId, int size) {
+            this.windowId = windowId;
+            this.size = size;
+        }
+
+        long getWindowId() {
+            return windowId;
+        }
+
+        List<PendingStore> getItems() {
+            return items;
+        }
+
+        void offer(PendingStore item) {
+            offeredCount++;
+            if (items.size() < size) {
+                items.add(item);
+            }
+            else {
+                long idx = ThreadLocalRandom.current().nextLong(offeredCount);
+                if (idx < size) {
+                    items.set((int) idx, item);
+                }
+            }
+        }
+    }
+
 }
@@ -2,21 +2,35 @@ package no.ssb.rawdata.converter.core.job;
 
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.Meter;
 import io.micrometer.core.instrument.Tag;
 import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import io.micrometer.core.instrument.binder.BaseUnits;
 import io.micrometer.prometheus.PrometheusMeterRegistry;
 import lombok.NonNull;
 import no.ssb.rawdata.api.RawdataMessage;
 import no.ssb.rawdata.converter.app.RawdataConverterApplication;
 import no.ssb.rawdata.converter.core.convert.ConversionResult;
+import no.ssb.rawdata.converter.core.datasetmeta.DatasetType;
+import no.ssb.rawdata.converter.core.storage.DatasetSpool;
+import no.ssb.rawdata.converter.core.storage.DatasetWriter;
+import no.ssb.rawdata.converter.core.storage.TunedParquetProvider;
 import no.ssb.rawdata.converter.metrics.Metric;
 import no.ssb.rawdata.converter.metrics.MetricName;
+import no.ssb.rawdata.converter.metrics.SlidingWindowRate;
 
+import java.time.Duration;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
 import java.util.stream.Collectors;
 
 public class ConverterJobMetrics {
@@ -31,9 +45,49 @@ public class ConverterJobMetrics {
     public static final Metric RAWDATA_MESSAGES_TOTAL_SUCCESS = new Metric(MetricName.RAWDATA_MESSAGES_TOTAL, "result", "success");
     public static final Metric RAWDATA_MESSAGES_TOTAL_FAIL = new Metric(MetricName.RAWDATA_MESSAGES_TOTAL, "result", "fail");
     public static final Metric RAWDATA_MESSAGES_TOTAL_SKIP = new Metric(MetricName.RAWDATA_MESSAGES_TOTAL, "result", "skip");
+    public static final Metric RAWDATA_MESSAGES_TOTAL_DUPLICATE = new Metric(MetricName.RAWDATA_MESSAGES_TOTAL, "result", "duplicate");
     public static final Metric RAWDATA_MESSAGE_SIZE_BYTES = new Metric(MetricName.RAWDATA_MESSAGE_SIZE_BYTES);
+    public static final Metric RAWDATA_MESSAGE_CONVERSION_LATENCY = new Metric(MetricName.RAWDATA_MESSAGE_CONVERSION_LATENCY);
+    public static final Metric RAWDATA_MESSAGE_CONVERSION_LATENCY_BY_SIZE = new Metric(MetricName.RAWDATA_MESSAGE_CONVERSION_LATENCY_BY_SIZE);
+    public static final Metric RAWDATA_MESSAGE_END_TO_END_LATENCY = new Metric(MetricName.RAWDATA_MESSAGE_END_TO_END_LATENCY);
+    public static final Metric RAWDATA_EVENT_TIME_LAG_SECONDS = new Metric(MetricName.RAWDATA_EVENT_TIME_LAG_SECONDS);
+    public static final Metric RAWDATA_THROUGHPUT_MESSAGES = new Metric(MetricName.RAWDATA_THROUGHPUT_MESSAGES);
+    public static final Metric RAWDATA_THROUGHPUT_BYTES = new Metric(MetricName.RAWDATA_THROUGHPUT_BYTES);
+    public static final Metric JOB_ETA_SECONDS = new Metric(MetricName.JOB_ETA_SECONDS);
+    public static final Metric PARQUET_WRITER_BUFFERED_BYTES = new Metric(MetricName.PARQUET_WRITER_BUFFERED_BYTES);
+    public static final Metric PARQUET_WRITERS_OPEN = new Metric(MetricName.PARQUET_WRITERS_OPEN);
+    public static final Metric SPOOL_SIZE_BYTES = new Metric(MetricName.SPOOL_SIZE_BYTES);
+    public static final Metric SPOOL_FILES_PENDING = new Metric(MetricName.SPOOL_FILES_PENDING);
+    public static final Metric SPOOL_UPLOAD_FAILURES = new Metric(MetricName.SPOOL_UPLOAD_FAILURES);
+    public static final Metric DEAD_LETTER_RECORDS = new Metric(MetricName.DEAD_LETTER_RECORDS);
+
+    private static final Duration THROUGHPUT_WINDOW = Duration.ofMinutes(1);
+    private static final int THROUGHPUT_WINDOW_BUCKETS = 60;
+
+    private static final String SIZE_CLASS_OVERFLOW = "+Inf";
 
     private final DistributionSummary rawdataMessageSizeSummary;
+    private final Timer conversionLatencyTimer;
+    private final Timer endToEndLatencyTimer;
+
+    /**
+     * Conversion latency timers keyed by the upper bound (in bytes) of the message size class they cover
+     */
+    private final NavigableMap<Long, Timer> conversionLatencyBySizeTimers = new TreeMap<>();
+    private final Timer conversionLatencyOverflowSizeTimer;
+
+    private final SlidingWindowRate messageThroughput = new SlidingWindowRate(THROUGHPUT_WINDOW, THROUGHPUT_WINDOW_BUCKETS);
+    private final SlidingWindowRate byteThroughput = new SlidingWindowRate(THROUGHPUT_WINDOW, THROUGHPUT_WINDOW_BUCKETS);
+
+    /**
+     * Rate at which event time (rawdata message timestamps, in millis) advances per second of wall clock time
+     */
+    private final SlidingWindowRate eventTimeThroughput = new SlidingWindowRate(THROUGHPUT_WINDOW, THROUGHPUT_WINDOW_BUCKETS);
+
+    private volatile long lastConvertedMessageTimestamp = -1;
+    private volatile long topicLastMessageTimestamp = -1;
+    private volatile TunedParquetProvider parquetProvider;
+    private volatile DatasetWriter datasetWriter;
 
     Map<String, Counter> counters = new LinkedHashMap<>();
 
@@ -46,18 +100,85 @@ public class ConverterJobMetrics {
         incrementCounter(RAWDATA_MESSAGES_TOTAL_SUCCESS, 0);
         incrementCounter(RAWDATA_MESSAGES_TOTAL_FAIL, 0);
         incrementCounter(RAWDATA_MESSAGES_TOTAL_SKIP, 0);
+        incrementCounter(RAWDATA_MESSAGES_TOTAL_DUPLICATE, 0);
 
         rawdataMessageSizeSummary = DistributionSummary.builder(RAWDATA_MESSAGE_SIZE_BYTES.getName())
           .description("Size of encountered rawdata messages")
           .baseUnit(BaseUnits.BYTES)
           .tags(correlationTagsOf(jobConfig))
           .register(this.meterRegistry);
+
+        Duration[] latencySlos = latencySlosOf(jobConfig);
+        conversionLatencyTimer = latencyTimerOf(RAWDATA_MESSAGE_CONVERSION_LATENCY, "Time spent converting a single rawdata message", latencySlos, Tags.empty());
+        endToEndLatencyTimer = latencyTimerOf(RAWDATA_MESSAGE_END_TO_END_LATENCY, "Time from a rawdata message is received until the converted record is emitted", latencySlos, Tags.empty());
+
+        for (Long sizeClass : messageSizeClassesOf(jobConfig)) {
+            conversionLatencyBySizeTimers.put(sizeClass, latencyTimerOf(RAWDATA_MESSAGE_CONVERSION_LATENCY_BY_SIZE,
+              "Time spent converting a single rawdata message, grouped by message size class", latencySlos, Tags.of("size.le", String.valueOf(sizeClass))));
+        }
+        conversionLatencyOverflowSizeTimer = latencyTimerOf(RAWDATA_MESSAGE_CONVERSION_LATENCY_BY_SIZE,
+          "Time spent converting a single rawdata message, grouped by message size class", latencySlos, Tags.of("size.le", SIZE_CLASS_OVERFLOW));
+
+        registerGauge(RAWDATA_EVENT_TIME_LAG_SECONDS, "Seconds between now and the timestamp of the last converted rawdata message", ConverterJobMetrics::getEventTimeLagSeconds);
+        registerGauge(RAWDATA_THROUGHPUT_MESSAGES, "Rolling average of converted rawdata messages per second", m -> m.messageThroughput.ratePerSecond());
+        registerGauge(RAWDATA_THROUGHPUT_BYTES, "Rolling average of converted rawdata bytes per second", m -> m.byteThroughput.ratePerSecond());
+        registerGauge(JOB_ETA_SECONDS, "Estimated seconds until a BOUNDED job has converted the last message of the topic", ConverterJobMetrics::getEtaSeconds);
+        registerGauge(PARQUET_WRITER_BUFFERED_BYTES, "Bytes buffered in memory by the parquet writers of the job", m -> m.parquetProvider == null ? 0 : m.parquetProvider.getBufferedBytes());
+        registerGauge(PARQUET_WRITERS_OPEN, "Number of open parquet writers of the job", m -> m.parquetProvider == null ? 0 : m.parquetProvider.getOpenWriterCount());
+        registerGauge(SPOOL_SIZE_BYTES, "Total size of spooled parquet files not yet uploaded", m -> m.spool().map(DatasetSpool::getSpoolSizeBytes).orElse(0L));
+        registerGauge(SPOOL_FILES_PENDING, "Number of spooled parquet files not yet uploaded", m -> m.spool().map(DatasetSpool::getPendingFileCount).orElse(0));
+        registerGauge(SPOOL_UPLOAD_FAILURES, "Number of failed (and retried) uploads of spooled parquet files", m -> m.spool().map(DatasetSpool::getUploadFailureCount).orElse(0L));
+        registerGauge(DEAD_LETTER_RECORDS, "Number of records that failed to be written and were dead-lettered", m -> m.datasetWriter == null ? 0 : m.datasetWriter.getDeadLetterCount());
+    }
+
+    /**
+     * Report spool usage and dead-lettered records of the job using the supplied writer
+     */
+    public void setDatasetWriter(DatasetWriter datasetWriter) {
+        this.datasetWriter = datasetWriter;
+    }
+
+    private Optional<DatasetSpool> spool() {
+        return Optional.ofNullable(datasetWriter).flatMap(DatasetWriter::getSpool);
+    }
+
+    /**
+     * Report parquet writer memory usage of the job using the supplied provider
+     */
+    public void setParquetProvider(TunedParquetProvider parquetProvider) {
+        this.parquetProvider = parquetProvider;
+    }
+
+    private void registerGauge(Metric metric, String description, ToDoubleFunction<ConverterJobMetrics> valueFunction) {
+        Gauge.builder(metric.getName(), this, valueFunction)
+          .description(description)
+          .tags(correlationTagsOf(jobConfig))
+          .strongReference(true)
+          .register(this.meterRegistry);
+    }
+
+    private Timer latencyTimerOf(Metric metric, String description, Duration[] slos, Tags additionalTags) {
+        return Timer.builder(metric.getName())
+          .description(description)
+          .serviceLevelObjectives(slos)
+          .tags(correlationTagsOf(jobConfig).and(additionalTags))
+          .register(this.meterRegistry);
+    }
+
+    private static Duration[] latencySlosOf(ConverterJobConfig jobConfig) {
+        return Optional.ofNullable(jobConfig.getMetrics().getLatencySloMillis()).orElse(List.of()).stream()
+          .map(Duration::ofMillis)
+          .toArray(Duration[]::new);
+    }
+
+    private static List<Long> messageSizeClassesOf(ConverterJobConfig jobConfig) {
+        return Optional.ofNullable(jobConfig.getMetrics().getMessageSizeClassBytes()).orElse(List.of());
     }
 
     /**
      * Retrieve micrometer tags used to correlate converter jobs
      */
-    private static Tags correlationTagsOf(ConverterJobConfig jobConfig) {
+    public static Tags correlationTagsOf(ConverterJobConfig jobConfig) {
         return Tags.of(
           Tag.of("job_id", jobConfig.getJobId().toString()),
           Tag.of("job.name", jobConfig.getJobName()),
@@ -122,12 +243,33 @@ public class ConverterJobMetrics {
         incrementCounter(RAWDATA_MESSAGES_TOTAL_SKIP);
     }
 
+    public void appendDuplicateMessagesCount() {
+        incrementCounter(RAWDATA_MESSAGES_TOTAL_DUPLICATE);
+    }
+
     public Map<String, Double> getExecutionSummaryMetrics() {
-        return counters.entrySet().stream()
+        Map<String, Double> summary = counters.entrySet().stream()
           .collect(Collectors.toMap(
             e -> e.getKey(),
             e -> e.getValue().count()
           ));
+        summary.putAll(latencySummaryOf(RAWDATA_MESSAGE_CONVERSION_LATENCY, conversionLatencyTimer));
+        summary.putAll(latencySummaryOf(RAWDATA_MESSAGE_END_TO_END_LATENCY, endToEndLatencyTimer));
+        summary.put(RAWDATA_EVENT_TIME_LAG_SECONDS.getName(), getEventTimeLagSeconds());
+        summary.put(RAWDATA_THROUGHPUT_MESSAGES.getName(), messageThroughput.ratePerSecond());
+        summary.put(RAWDATA_THROUGHPUT_BYTES.getName(), byteThroughput.ratePerSecond());
+        if (jobConfig.getTargetDataset().getType() == DatasetType.BOUNDED) {
+            summary.put(JOB_ETA_SECONDS.getName(), getEtaSeconds());
+        }
+
+        return summary;
+    }
+
+    private static Map<String, Double> latencySummaryOf(Metric metric, Timer timer) {
+        return Map.of(
+          metric.getName() + ".mean.ms", timer.mean(TimeUnit.MILLISECONDS),
+          metric.getName() + ".max.ms", timer.max(TimeUnit.MILLISECONDS)
+        );
     }
 
     public double getRawdataMessagesProcessedTotal() {
@@ -135,18 +277,44 @@ public class ConverterJobMetrics {
           countOf(RAWDATA_MESSAGES_TOTAL_SKIP);
     }
 
-    private void appendRawdataMessageSize(RawdataMessage rawdataMessage) {
-        double messageBytes = 0;
+    private static long messageSizeOf(RawdataMessage rawdataMessage) {
+        long messageBytes = 0;
         for (byte[] bytes : rawdataMessage.data().values()) {
             messageBytes += bytes.length;
         }
+        return messageBytes;
+    }
+
+    private void appendRawdataMessageSize(RawdataMessage rawdataMessage) {
+        rawdataMessageSizeSummary.record(messageSizeOf(rawdataMessage));
+    }
 
-        rawdataMessageSizeSummary.record(messageBytes);
+    /**
+     * Record the time spent converting a single rawdata message. The latency is also recorded to the
+     * timer covering the size class of the message, so that latency can be correlated with message size.
+     *
+     * @param rawdataMessage the converted rawdata message
+     * @param conversionNanos time spent in {@link no.ssb.rawdata.converter.core.convert.RawdataConverter#convert}
+     */
+    public void appendConversionLatency(RawdataMessage rawdataMessage, long conversionNanos) {
+        conversionLatencyTimer.record(conversionNanos, TimeUnit.NANOSECONDS);
+        Map.Entry<Long, Timer> sizeClass = conversionLatencyBySizeTimers.ceilingEntry(messageSizeOf(rawdataMessage));
+        Timer sizeClassTimer = (sizeClass != null) ? sizeClass.getValue() : conversionLatencyOverflowSizeTimer;
+        sizeClassTimer.record(conversionNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record the time from a rawdata message was received from the rawdata source until the converted record
+     * was emitted.
+     */
+    public void appendEndToEndLatency(long endToEndNanos) {
+        endToEndLatencyTimer.record(endToEndNanos, TimeUnit.NANOSECONDS);
     }
 
     public void appendConversionResult(ConversionResult conversionResult) {
         incrementCounter(RAWDATA_MESSAGES_TOTAL_SUCCESS);
         appendRawdataMessageSize(conversionResult.getRawdataMessage());
+        appendProgress(conversionResult.getRawdataMessage());
 
         conversionResult.getCounters().forEach((key, count) -> {
             incrementCounter(key, count.get());
@@ -156,6 +324,55 @@ public class ConverterJobMetrics {
         }
     }
 
+    private void appendProgress(RawdataMessage rawdataMessage) {
+        messageThroughput.add(1);
+        byteThroughput.add(messageSizeOf(rawdataMessage));
+
+        long previousTimestamp = lastConvertedMessageTimestamp;
+        if (previousTimestamp >= 0 && rawdataMessage.timestamp() > previousTimestamp) {
+            eventTimeThroughput.add(rawdataMessage.timestamp() - previousTimestamp);
+        }
+        lastConvertedMessageTimestamp = rawdataMessage.timestamp();
+    }
+
+    /**
+     * Register the timestamp of the last message in the rawdata topic. This is used to estimate when a BOUNDED
+     * job will complete.
+     */
+    public void setTopicLastMessageTimestamp(long timestamp) {
+        this.topicLastMessageTimestamp = timestamp;
+    }
+
+    /**
+     * @return seconds between now and the timestamp of the last converted rawdata message, or NaN if no
+     * messages have been converted yet
+     */
+    public double getEventTimeLagSeconds() {
+        long lastTimestamp = lastConvertedMessageTimestamp;
+        return (lastTimestamp < 0) ? Double.NaN : (System.currentTimeMillis() - lastTimestamp) / 1000d;
+    }
+
+    /**
+     * Estimate the number of seconds until the last message of the topic has been converted. The estimate is based on
+     * the remaining event time span and the rate at which event time has been progressing over the last minute.
+     *
+     * @return estimated seconds until completion, or NaN if an estimate cannot be made (e.g. for UNBOUNDED
+     * jobs or before any progress has been made)
+     */
+    public double getEtaSeconds() {
+        long lastTimestamp = lastConvertedMessageTimestamp;
+        long topicLastTimestamp = topicLastMessageTimestamp;
+        if (topicLastTimestamp < 0 || lastTimestamp < 0) {
+            return Double.NaN;
+        }
+        if (lastTimestamp >= topicLastTimestamp) {
+            return 0;
+        }
+
+        double eventMillisPerSecond = eventTimeThroughput.ratePerSecond();
+        return (eventMillisPerSecond > 0) ? (topicLastTimestamp - lastTimestamp) / eventMillisPerSecond : Double.NaN;
+    }
+
     private double countOf(Metric m) {
         Counter c = counters.get(m.getFullName());
         return (c != null) ? c.count() : 0;
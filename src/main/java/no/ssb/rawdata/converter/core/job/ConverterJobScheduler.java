@@ -12,7 +12,8 @@ import no.ssb.rawdata.converter.core.convert.RawdataConverterFactory;
 import no.ssb.rawdata.converter.core.crypto.RawdataDecryptorFactory;
 import no.ssb.rawdata.converter.core.rawdatasource.RawdataConsumerFactory;
 import no.ssb.rawdata.converter.core.storage.DatasetStorageFactory;
-import no.ssb.rawdata.converter.core.storage.StorageType;
+import no.ssb.rawdata.converter.core.storage.DatasetWriter;
+import no.ssb.rawdata.converter.core.storage.TunedParquetProvider;
 
 import javax.inject.Singleton;
 import java.util.Map;
@@ -45,14 +46,20 @@ public class ConverterJobScheduler {
     @ExecuteOn(TaskExecutors.IO)
     public void schedule(ConverterJobConfig jobConfig) {
         if (canAcceptJobs()) {
+            ConverterJobMetrics jobMetrics = new ConverterJobMetrics(prometheusMeterRegistry, jobConfig);
+            TunedParquetProvider parquetProvider = datasetStorageFactory.parquetProviderOf(jobConfig.getTargetStorage());
+            jobMetrics.setParquetProvider(parquetProvider);
+            DatasetWriter datasetWriter = datasetStorageFactory.datasetWriterOf(jobConfig, parquetProvider);
+            jobMetrics.setDatasetWriter(datasetWriter);
             ConverterJob job = ConverterJob.builder()
               .jobConfig(jobConfig)
               .rawdataConverter(rawdataConverterFactory.newRawdataConverter(jobConfig))
               .rawdataConsumers(rawdataConsumerFactory.rawdataConsumersOf(jobConfig))
               .rawdataDecryptor(rawdataDecryptorFactory.rawdataDecryptorOf(jobConfig.getRawdataSource().getName())) //TODO: Support rawdataDecryptor=null
-              .datasetStorage(datasetStorageFactory.datasetStorageOf(StorageType.of(jobConfig.getTargetStorage().getRoot()), jobConfig.getTargetStorage().getSaKeyFile()))
-              .localStorage(new ConverterJobLocalStorage(jobConfig, eventPublisher)) // TODO: Initialize this internally instead?
-              .jobMetrics(new ConverterJobMetrics(prometheusMeterRegistry, jobConfig)) // TODO: Initialize this internally instead?
+              .datasetWriter(datasetWriter)
+              .dedupIndex(jobConfig.getConverterSettings().shouldDeduplicate() ? datasetStorageFactory.datasetDedupIndexOf(jobConfig.getTargetStorage()) : null)
+              .localStorage(new ConverterJobLocalStorage(jobConfig, eventPublisher, jobMetrics)) // TODO: Initialize this internally instead?
+              .jobMetrics(jobMetrics) // TODO: Initialize this internally instead?
               .eventPublisher(eventPublisher)
               .build();
 
@@ -13,4 +13,19 @@ public class LocalStorageEvent {
     private String fileGroupName;
     private Map<String, byte[]> files;
     private String localStoragePassword;
+
+    /**
+     * The hourly bucket (MMddHH) to store the files in. Defaults to the current hour if not specified.
+     */
+    private String timeBucket;
+
+    /**
+     * Invoked by the local storage writer thread when the files have been stored
+     */
+    private Runnable onStored;
+
+    /**
+     * Invoked when the files will not be stored, because the request was dropped or failed
+     */
+    private Runnable onDropped;
 }
@@ -1,57 +1,233 @@
 package no.ssb.rawdata.converter.core.job;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
 import io.micronaut.context.annotation.Context;
 import io.micronaut.runtime.event.annotation.EventListener;
-import io.micronaut.scheduling.annotation.Async;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
-import net.lingala.zip4j.ZipFile;
+import net.lingala.zip4j.io.outputstream.ZipOutputStream;
 import net.lingala.zip4j.model.ZipParameters;
-import net.lingala.zip4j.model.enums.CompressionLevel;
 import net.lingala.zip4j.model.enums.EncryptionMethod;
 import no.ssb.rawdata.converter.core.exception.RawdataConverterException;
+import no.ssb.rawdata.converter.metrics.Metric;
+import no.ssb.rawdata.converter.metrics.MetricName;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Singleton;
-import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
+import static no.ssb.rawdata.converter.core.job.LocalStorageServiceConfig.OverflowPolicy.BLOCK;
+
+/**
+ * <p>Stores debug content (such as failed rawdata messages) to the local filesystem.</p>
+ *
+ * <p>Storage requests are put on a bounded queue and written by a single, dedicated writer thread that drains
+ * the queue in batches. If the queue is full, requests are either dropped or the requesting thread is blocked,
+ * depending on the configured overflow policy.</p>
+ *
+ * <p>Password protected content is stored to hourly archives. The files of all requests of a batch that go to
+ * the same archive are written sequentially to one new archive, as opposed to appending to (and thus rewriting
+ * the central directory of) an archive for every file. The archives are completed at the end of each batch, so
+ * that a killed process never leaves an archive without a central directory behind, and requesters are only
+ * notified that their files are stored once the archive holding them is complete. An archive is never reopened:
+ * the next batch of the same hour goes to a new archive with a sequence number.</p>
+ */
 @Singleton
 @Context
 @Slf4j
 public class LocalStorageService {
 
+    private static final Metric LOCAL_STORAGE_EVENTS_STORED = new Metric(MetricName.LOCAL_STORAGE_EVENTS_TOTAL, "result", "stored");
+    private static final Metric LOCAL_STORAGE_EVENTS_DROPPED = new Metric(MetricName.LOCAL_STORAGE_EVENTS_TOTAL, "result", "dropped");
+    private static final Metric LOCAL_STORAGE_EVENTS_FAILED = new Metric(MetricName.LOCAL_STORAGE_EVENTS_TOTAL, "result", "failed");
+    private static final Metric LOCAL_STORAGE_QUEUE_SIZE = new Metric(MetricName.LOCAL_STORAGE_QUEUE_SIZE);
+
+    private final LocalStorageServiceConfig config;
+    private final BlockingQueue<LocalStorageEvent> queue;
+    private final Thread writerThread;
+    private final Counter storedCounter;
+    private final Counter droppedCounter;
+    private final Counter failedCounter;
+    private volatile boolean running = true;
+
+    /**
+     * Password protected archives being written by the current batch. Only accessed by the writer thread.
+     */
+    private final Map<ArchiveKey, OpenArchive> openArchives = new HashMap<>();
+
+    /**
+     * The last sequence number given to an archive of the current hour, by archive path without sequence
+     * number, to save probing all archives of the hour for every new archive. Only accessed by the writer thread.
+     */
+    private final Map<Path, Integer> lastArchiveSeqs = new HashMap<>();
+
+    public LocalStorageService(LocalStorageServiceConfig config, PrometheusMeterRegistry meterRegistry) {
+        this.config = config;
+        this.queue = new ArrayBlockingQueue<>(config.getQueueCapacity());
+        this.storedCounter = meterRegistry.counter(LOCAL_STORAGE_EVENTS_STORED.getName(), LOCAL_STORAGE_EVENTS_STORED.getTags());
+        this.droppedCounter = meterRegistry.counter(LOCAL_STORAGE_EVENTS_DROPPED.getName(), LOCAL_STORAGE_EVENTS_DROPPED.getTags());
+        this.failedCounter = meterRegistry.counter(LOCAL_STORAGE_EVENTS_FAILED.getName(), LOCAL_STORAGE_EVENTS_FAILED.getTags());
+        Gauge.builder(LOCAL_STORAGE_QUEUE_SIZE.getName(), queue, BlockingQueue::size)
+          .description("Number of pending local storage requests")
+          .register(meterRegistry);
+
+        this.writerThread = new Thread(this::writeLoop, "local-storage-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
     @EventListener
-    @Async
     void onLocalStorageRequest(LocalStorageEvent req) {
-        processStorageEvent(req);
+        if (config.getOverflowPolicy() == BLOCK) {
+            try {
+                queue.put(req);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                droppedCounter.increment();
+                notify(req.getOnDropped());
+            }
+        }
+        else if (! queue.offer(req)) {
+            droppedCounter.increment();
+            notify(req.getOnDropped());
+            log.debug("Local storage queue is full. Dropped storage request for {}/{}", req.getPathPrefix(), req.getFileGroupName());
+        }
     }
 
-    private void processStorageEvent(LocalStorageEvent req) {
-        boolean storeAsArchive = req.getLocalStoragePassword() != null;
-        Path targetPath = storeAsArchive
-          ? req.getPathPrefix()
-          : req.getPathPrefix().resolve(currentTimeFragment()).resolve(req.getFileGroupName());
+    private static void notify(Runnable callback) {
+        if (callback == null) {
+            return;
+        }
+        try {
+            callback.run();
+        }
+        catch (Exception e) {
+            log.warn("Error notifying local storage requester", e);
+        }
+    }
 
+    @PreDestroy
+    void close() {
+        running = false;
         try {
-            Files.createDirectories(targetPath);
+            writerThread.join(TimeUnit.SECONDS.toMillis(30));
         }
-        catch (IOException e) {
-            throw new LocalStorageServiceException("Error creating target path " + targetPath, e);
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<LocalStorageEvent> batch = new ArrayList<>(config.getMaxBatchSize());
+        while (running || ! queue.isEmpty()) {
+            try {
+                LocalStorageEvent first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, config.getMaxBatchSize() - 1);
+                processStorageEvents(batch);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (Exception e) {
+                log.error("Error writing to local storage", e);
+            }
+            finally {
+                batch.clear();
+            }
+        }
+    }
+
+    void processStorageEvents(List<LocalStorageEvent> events) {
+        String currentTimeBucket = timeBucketOf(LocalDateTime.now());
+        lastArchiveSeqs.keySet().removeIf(p -> ! p.getFileName().toString().equals(currentTimeBucket));
+
+        // requests whose files have been added to an archive, stored once the archive is complete
+        Map<ArchiveKey, List<LocalStorageEvent>> archivedRequests = new HashMap<>();
+        try {
+            for (LocalStorageEvent req : events) {
+                String timeBucket = Optional.ofNullable(req.getTimeBucket()).orElse(currentTimeBucket);
+                try {
+                    if (req.getLocalStoragePassword() != null) {
+                        ArchiveKey archiveKey = new ArchiveKey(req.getPathPrefix(), req.getLocalStoragePassword(), timeBucket);
+                        addFilesToArchive(archiveKey, req);
+                        archivedRequests.computeIfAbsent(archiveKey, k -> new ArrayList<>()).add(req);
+                        continue;
+                    }
+
+                    Path targetPath = req.getPathPrefix().resolve(timeBucket).resolve(req.getFileGroupName());
+                    createDirectories(targetPath);
+                    storeFilesToDisk(targetPath, req);
+                    stored(req);
+                }
+                catch (LocalStorageServiceException e) {
+                    failed(req, e);
+                }
+            }
+        }
+        finally {
+            // complete the archives of the batch, then notify the requesters whose files they hold
+            for (Map.Entry<ArchiveKey, List<LocalStorageEvent>> archive : archivedRequests.entrySet()) {
+                try {
+                    closeArchive(archive.getKey());
+                    archive.getValue().forEach(this::stored);
+                }
+                catch (LocalStorageServiceException e) {
+                    archive.getValue().forEach(req -> failed(req, e));
+                }
+            }
+            closeArchives(k -> true);
         }
+    }
+
+    private void stored(LocalStorageEvent req) {
+        storedCounter.increment();
+        notify(req.getOnStored());
+    }
 
-        if (storeAsArchive) {
-            addFilesToArchive(targetPath.resolve(currentTimeFragment() + ".zip"), req);
+    private void failed(LocalStorageEvent req, LocalStorageServiceException e) {
+        failedCounter.increment();
+        notify(req.getOnDropped());
+        log.error("Error storing local storage request", e);
+    }
+
+    private void createDirectories(Path targetPath) {
+        try {
+            Files.createDirectories(targetPath);
         }
-        else {
-            storeFilesToDisk(targetPath, req);
+        catch (IOException e) {
+            throw new LocalStorageServiceException("Error creating target path " + targetPath, e);
         }
     }
 
-    private String currentTimeFragment() {
-        LocalDateTime now = LocalDateTime.now();
-        return String.format("%02d%02d%02d", now.getMonthValue(), now.getDayOfMonth(), now.getHour());
+    /**
+     * @return the name of the hourly bucket (MMddHH) that stored content is grouped by
+     */
+    static String timeBucketOf(LocalDateTime time) {
+        return String.format("%02d%02d%02d", time.getMonthValue(), time.getDayOfMonth(), time.getHour());
     }
 
     private void storeFilesToDisk(Path targetPath, LocalStorageEvent req) {
@@ -65,23 +241,110 @@ public class LocalStorageService {
         }
     }
 
-    private void addFilesToArchive(Path archivePath, LocalStorageEvent req) {
-            try {
-                ZipFile zipFile = new ZipFile(archivePath.toFile(), req.getLocalStoragePassword().toCharArray());
+    /**
+     * Add the files of a request to the open archive of a target, opening a new archive if needed. If writing
+     * fails, the archive is closed, so that the files written to it so far are kept.
+     */
+    private void addFilesToArchive(ArchiveKey archiveKey, LocalStorageEvent req) {
+        OpenArchive archive = openArchives.get(archiveKey);
+        if (archive == null) {
+            archive = openArchive(archiveKey);
+            openArchives.put(archiveKey, archive);
+        }
 
-                for (String filename : req.getFiles().keySet()) {
-                    ZipParameters params = new ZipParameters();
-                    params.setEncryptFiles(true);
-                    params.setEncryptionMethod(EncryptionMethod.ZIP_STANDARD);
-                    params.setFileNameInZip(req.getFileGroupName() + "/" + filename);
-                    params.setCompressionLevel(CompressionLevel.MAXIMUM);
+        try {
+            for (Map.Entry<String, byte[]> file : req.getFiles().entrySet()) {
+                ZipParameters params = new ZipParameters();
+                params.setEncryptFiles(true);
+                params.setEncryptionMethod(EncryptionMethod.ZIP_STANDARD);
+                params.setFileNameInZip(req.getFileGroupName() + "/" + file.getKey());
+                params.setCompressionLevel(config.getCompressionLevel());
 
-                    zipFile.addStream(new ByteArrayInputStream(req.getFiles().get(filename)), params);
-                }
+                archive.getZos().putNextEntry(params);
+                archive.getZos().write(file.getValue());
+                archive.getZos().closeEntry();
             }
-            catch (Exception e) {
-                throw new LocalStorageServiceException("Error adding files to archive " + archivePath, e);
+        }
+        catch (Exception e) {
+            closeArchives(archiveKey::equals);
+            throw new LocalStorageServiceException("Error adding files to archive " + archive.getPath(), e);
+        }
+    }
+
+    /**
+     * Open a new archive for the time bucket of a target. Archives of the time bucket that have already been
+     * completed (by an earlier batch or a previous run) are left as is, and the new archive is given a sequence
+     * number.
+     */
+    private OpenArchive openArchive(ArchiveKey archiveKey) {
+        createDirectories(archiveKey.getPathPrefix());
+        Path basePath = archiveKey.getPathPrefix().resolve(archiveKey.getTimeBucket());
+        int seq = lastArchiveSeqs.getOrDefault(basePath, 0);
+        Path archivePath;
+        do {
+            seq++;
+            archivePath = archiveKey.getPathPrefix().resolve(seq == 1
+              ? archiveKey.getTimeBucket() + ".zip"
+              : String.format("%s-%d.zip", archiveKey.getTimeBucket(), seq));
+        } while (Files.exists(archivePath));
+        lastArchiveSeqs.put(basePath, seq);
+
+        try {
+            OutputStream out = new BufferedOutputStream(Files.newOutputStream(archivePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+            return new OpenArchive(archivePath, new ZipOutputStream(out, archiveKey.getPassword().toCharArray()));
+        }
+        catch (IOException e) {
+            throw new LocalStorageServiceException("Error creating archive " + archivePath, e);
+        }
+    }
+
+    /**
+     * Complete and close the open archive of a target
+     *
+     * @throws LocalStorageServiceException if the archive could not be completed
+     */
+    private void closeArchive(ArchiveKey archiveKey) {
+        OpenArchive archive = openArchives.remove(archiveKey);
+        if (archive == null) {
+            return;
+        }
+        try {
+            archive.getZos().close();
+        }
+        catch (Exception e) {
+            throw new LocalStorageServiceException("Error completing archive " + archive.getPath(), e);
+        }
+    }
+
+    /**
+     * Complete and close the open archives of the targets matching a filter
+     */
+    private void closeArchives(Predicate<ArchiveKey> filter) {
+        for (Iterator<Map.Entry<ArchiveKey, OpenArchive>> it = openArchives.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<ArchiveKey, OpenArchive> archive = it.next();
+            if (filter.test(archive.getKey())) {
+                it.remove();
+                try {
+                    archive.getValue().getZos().close();
+                }
+                catch (Exception e) {
+                    log.error("Error closing archive " + archive.getValue().getPath(), e);
+                }
             }
+        }
+    }
+
+    @Value
+    private static class OpenArchive {
+        private final Path path;
+        private final ZipOutputStream zos;
+    }
+
+    @Value
+    private static class ArchiveKey {
+        private final Path pathPrefix;
+        private final String password;
+        private final String timeBucket;
     }
 
     public class LocalStorageServiceException extends RawdataConverterException {
@@ -89,4 +352,4 @@ public class LocalStorageService {
             super(message, cause);
         }
     }
-}
\ No newline at end of file
+}
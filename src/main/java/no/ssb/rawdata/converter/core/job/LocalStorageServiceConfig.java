@@ -0,0 +1,44 @@
+package no.ssb.rawdata.converter.core.job;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+import lombok.Data;
+import net.lingala.zip4j.model.enums.CompressionLevel;
+
+@Data
+@ConfigurationProperties("rawdata.converter.local-storage")
+public class LocalStorageServiceConfig {
+
+    /**
+     * The max number of pending local storage requests. Requests exceeding this are handled
+     * according to the overflow policy.
+     */
+    private int queueCapacity = 1000;
+
+    /**
+     * The max number of local storage requests that are taken off the queue and written in one go.
+     */
+    private int maxBatchSize = 100;
+
+    /**
+     * Compression level used for password protected archives.
+     */
+    private CompressionLevel compressionLevel = CompressionLevel.MAXIMUM;
+
+    /**
+     * What to do with local storage requests when the queue is full.
+     */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+
+    public enum OverflowPolicy {
+        /**
+         * Discard the request. Debug storage will never slow down conversion, but stored content might be incomplete.
+         */
+        DROP,
+
+        /**
+         * Block the requesting thread (typically a converter job) until there is room in the queue.
+         */
+        BLOCK;
+    }
+
+}
@@ -0,0 +1,136 @@
+package no.ssb.rawdata.converter.core.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import no.ssb.avro.convert.core.ValueInterceptor;
+import no.ssb.rawdata.converter.core.convert.SchemaGuidedRecordBuilder;
+import no.ssb.rawdata.converter.core.convert.SchemaGuidedRecordBuilder.Kind;
+import no.ssb.rawdata.converter.core.exception.RawdataConverterException;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <p>Converts JSON documents to Avro records in a single streaming pass, guided by the target schema. The
+ * document is read token by token, straight from the bytes of a rawdata message item, without building an
+ * intermediate String, Map or JsonNode tree.</p>
+ *
+ * <ul>
+ *   <li>The document must be a JSON object, that corresponds to the target schema</li>
+ *   <li>Object properties are set as the fields with the same name. Elements of arrays are appended to
+ *   array fields, and a single value is accepted for an array field as well.</li>
+ *   <li>Properties that are not part of the schema, null values and nested arrays are skipped</li>
+ * </ul>
+ *
+ * <p>Leaf values are passed (as text) through the {@link ValueInterceptor} (e.g. for pseudonymization), with the
+ * path of the field (like /person/address/street) as field descriptor, and then converted to the type of the
+ * field.</p>
+ *
+ * <p>A reader holds the state of the document being read, and is not thread safe.</p>
+ */
+public class JsonRecordReader {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final SchemaGuidedRecordBuilder recordBuilder;
+
+    public JsonRecordReader(Schema schema, ValueInterceptor valueInterceptor) {
+        this.recordBuilder = new SchemaGuidedRecordBuilder(schema, valueInterceptor);
+    }
+
+    /**
+     * Convert a JSON document (encoded as UTF-8, UTF-16 or UTF-32) to a record of the target schema
+     */
+    public GenericRecord read(byte[] json) {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            return read(parser);
+        }
+        catch (IOException e) {
+            throw new JsonRecordReaderException("Error converting JSON to " + recordBuilder.getSchema().getFullName() + " record", e);
+        }
+    }
+
+    /**
+     * Convert a JSON document (encoded as UTF-8, UTF-16 or UTF-32) to a record of the target schema. The stream
+     * is not closed.
+     */
+    public GenericRecord read(InputStream json) {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            return read(parser);
+        }
+        catch (IOException e) {
+            throw new JsonRecordReaderException("Error converting JSON to " + recordBuilder.getSchema().getFullName() + " record", e);
+        }
+    }
+
+    private GenericRecord read(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonRecordReaderException("Expected a JSON object, but found " + token);
+        }
+        recordBuilder.start();
+        readFields(parser);
+        return recordBuilder.build();
+    }
+
+    /**
+     * Read the properties of the current object, up to and including its end
+     */
+    private void readFields(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    if (token == JsonToken.START_ARRAY) {
+                        parser.skipChildren();
+                    }
+                    else {
+                        readValue(parser, name, token);
+                    }
+                }
+            }
+            else {
+                readValue(parser, name, token);
+            }
+        }
+    }
+
+    /**
+     * Read an object or scalar value of the named field
+     */
+    private void readValue(JsonParser parser, String name, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return;
+        }
+
+        Kind kind = recordBuilder.kindOf(name);
+        if (token == JsonToken.START_OBJECT) {
+            if (kind == Kind.RECORD) {
+                recordBuilder.startRecord(name);
+                readFields(parser);
+                recordBuilder.endRecord();
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+        else if (kind == Kind.VALUE) {
+            recordBuilder.value(name, parser.getText());
+        }
+    }
+
+    public static class JsonRecordReaderException extends RawdataConverterException {
+        public JsonRecordReaderException(String message) {
+            super(message);
+        }
+
+        public JsonRecordReaderException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
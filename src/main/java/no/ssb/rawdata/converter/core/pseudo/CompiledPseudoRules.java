@@ -0,0 +1,147 @@
+package no.ssb.rawdata.converter.core.pseudo;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import no.ssb.dlp.pseudo.core.PseudoFuncRule;
+import org.apache.avro.Schema;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * <p>Resolves which pseudo rule (if any) applies to a field path, matching the glob patterns of the rules only
+ * once per path. The first rule with a pattern matching the path applies.</p>
+ *
+ * <p>Use {@link #compile(List, Schema)} when initializing a converter to resolve the rules of all leaf fields of
+ * the target schema up front (using paths like /person/address/street). Other paths are resolved on first use,
+ * and then remembered. Since such paths may be unbounded (e.g. if they contain map keys or array indexes), at
+ * most {@value #MAX_LAZILY_RESOLVED_PATHS} of them are remembered, evicting the least recently used.</p>
+ */
+public class CompiledPseudoRules {
+
+    static final int MAX_LAZILY_RESOLVED_PATHS = 10_000;
+
+    private static final Optional<PseudoFuncRule> NO_RULE = Optional.empty();
+
+    private final List<PseudoFuncRule> rules;
+    private final List<PathMatcher> matchers;
+
+    /**
+     * Rules of the leaf field paths of the schema the rules were compiled for. Never changed after construction.
+     */
+    private final Map<String, Optional<PseudoFuncRule>> schemaRulesByPath = new HashMap<>();
+    private final Cache<String, Optional<PseudoFuncRule>> lazyRulesByPath = CacheBuilder.newBuilder()
+      .maximumSize(MAX_LAZILY_RESOLVED_PATHS)
+      .build();
+
+    private CompiledPseudoRules(List<PseudoFuncRule> rules, Schema schema) {
+        this.rules = List.copyOf(rules);
+        this.matchers = new ArrayList<>(rules.size());
+        for (PseudoFuncRule rule : rules) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + rule.getPattern()));
+        }
+        if (schema != null) {
+            resolveLeafPaths("", schema, new HashSet<>());
+        }
+    }
+
+    /**
+     * Compile rules, resolving field paths on first use
+     */
+    public static CompiledPseudoRules compile(List<PseudoFuncRule> rules) {
+        return new CompiledPseudoRules(rules, null);
+    }
+
+    /**
+     * Compile rules, resolving the rules of all leaf field paths of a record schema up front
+     */
+    public static CompiledPseudoRules compile(List<PseudoFuncRule> rules, Schema schema) {
+        return new CompiledPseudoRules(rules, schema);
+    }
+
+    /**
+     * @return the rule that applies to a field path, if any
+     */
+    public Optional<PseudoFuncRule> ruleOf(String path) {
+        Optional<PseudoFuncRule> rule = schemaRulesByPath.get(path);
+        if (rule == null) {
+            rule = lazyRulesByPath.getIfPresent(path);
+            if (rule == null) {
+                rule = match(path);
+                lazyRulesByPath.put(path, rule);
+            }
+        }
+        return rule;
+    }
+
+    /**
+     * @return the rules, in the order they are matched. {@link #ruleOf(String)} returns these very instances.
+     */
+    public List<PseudoFuncRule> getRules() {
+        return rules;
+    }
+
+    /**
+     * @return true if no rules are defined, in which case no values need to be pseudonymized
+     */
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * @return the paths that have been resolved, mapped to the name of the rule that applies (or null)
+     */
+    Map<String, String> resolvedPaths() {
+        Map<String, String> resolved = new HashMap<>();
+        schemaRulesByPath.forEach((path, rule) -> resolved.put(path, rule.map(PseudoFuncRule::getName).orElse(null)));
+        lazyRulesByPath.asMap().forEach((path, rule) -> resolved.put(path, rule.map(PseudoFuncRule::getName).orElse(null)));
+        return resolved;
+    }
+
+    private Optional<PseudoFuncRule> match(String path) {
+        if (rules.isEmpty()) {
+            return NO_RULE;
+        }
+        Path p = Path.of(path);
+        for (int i = 0; i < matchers.size(); i++) {
+            if (matchers.get(i).matches(p)) {
+                return Optional.of(rules.get(i));
+            }
+        }
+        return NO_RULE;
+    }
+
+    private void resolveLeafPaths(String parentPath, Schema schema, Set<String> recordsOnPath) {
+        if (schema.getType() == Schema.Type.UNION) {
+            for (Schema type : schema.getTypes()) {
+                if (type.getType() != Schema.Type.NULL) {
+                    resolveLeafPaths(parentPath, type, recordsOnPath);
+                }
+            }
+        }
+        else if (schema.getType() == Schema.Type.ARRAY) {
+            resolveLeafPaths(parentPath, schema.getElementType(), recordsOnPath);
+        }
+        else if (schema.getType() == Schema.Type.RECORD) {
+            // guard against recursive schemas
+            if (! recordsOnPath.add(schema.getFullName())) {
+                return;
+            }
+            for (Schema.Field field : schema.getFields()) {
+                resolveLeafPaths(parentPath + "/" + field.name(), field.schema(), recordsOnPath);
+            }
+            recordsOnPath.remove(schema.getFullName());
+        }
+        else if (schema.getType() != Schema.Type.MAP && schema.getType() != Schema.Type.NULL && ! parentPath.isEmpty()) {
+            schemaRulesByPath.put(parentPath, match(parentPath));
+        }
+    }
+}
@@ -1,11 +1,17 @@
 package no.ssb.rawdata.converter.core.pseudo;
 
+import io.micrometer.prometheus.PrometheusMeterRegistry;
 import io.micronaut.context.annotation.Property;
+import no.ssb.avro.convert.core.ValueInterceptor;
 import no.ssb.dlp.pseudo.core.FieldPseudonymizer;
+import no.ssb.dlp.pseudo.core.PseudoFuncRule;
 import no.ssb.dlp.pseudo.core.PseudoSecret;
 import no.ssb.rawdata.converter.core.job.ConverterJobConfig;
+import no.ssb.rawdata.converter.core.job.ConverterJobMetrics;
+import org.apache.avro.Schema;
 
 import javax.inject.Singleton;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -14,8 +20,9 @@ import java.util.stream.Collectors;
 public class FieldPseudonymizerFactory {
 
     private final List<PseudoSecret> pseudoSecrets;
+    private final PrometheusMeterRegistry meterRegistry;
 
-    public FieldPseudonymizerFactory(@Property(name="pseudo-secrets") Map<String, PseudoSecret> pseudoSecretMap) {
+    public FieldPseudonymizerFactory(@Property(name="pseudo-secrets") Map<String, PseudoSecret> pseudoSecretMap, PrometheusMeterRegistry meterRegistry) {
         pseudoSecrets = pseudoSecretMap.entrySet().stream()
           .map(e -> {
               PseudoSecret secret = e.getValue();
@@ -23,13 +30,76 @@ public class FieldPseudonymizerFactory {
               return secret;
           })
           .collect(Collectors.toList());
+        this.meterRegistry = meterRegistry;
     }
 
+    /**
+     * Create a pseudonymizer for the pseudo rules of the job. Every value passed to it is matched against the
+     * rules and pseudonymized, without caching. Prefer {@link #newPseudonymizingInterceptor(ConverterJobConfig)}.
+     */
     public FieldPseudonymizer newFieldPseudonymizer(ConverterJobConfig jobConfig) {
+        return newFieldPseudonymizer(jobConfig.getPseudoRules());
+    }
+
+    private FieldPseudonymizer newFieldPseudonymizer(List<PseudoFuncRule> rules) {
         return new FieldPseudonymizer.Builder()
-          .rules(jobConfig.getPseudoRules())
+          .rules(rules)
           .secrets(pseudoSecrets)
           .build();
     }
 
+    /**
+     * <p>Create a value interceptor that pseudonymizes values according to the pseudo rules of the job, to be
+     * registered in the {@link no.ssb.rawdata.converter.core.convert.ValueInterceptorChain} of a converter.</p>
+     *
+     * <p>The rule that applies to a field is resolved once per field path. Values of fields that no rule applies
+     * to are returned as is, without invoking a pseudonymizer. Other values are passed to a pseudonymizer holding
+     * only the rule that applies, built up front for each rule. The pseudo functions of the dlp library are only
+     * exposed through {@link FieldPseudonymizer}, which still matches the pattern of its rule against the field,
+     * but a single pattern is matched per value rather than the patterns of all rules. If enabled by
+     * converter-settings.pseudo-cache-max-entries, pseudonymized values are cached per job.</p>
+     */
+    public ValueInterceptor newPseudonymizingInterceptor(ConverterJobConfig jobConfig) {
+        return newPseudonymizingInterceptor(jobConfig, CompiledPseudoRules.compile(jobConfig.getPseudoRules()));
+    }
+
+    /**
+     * Like {@link #newPseudonymizingInterceptor(ConverterJobConfig)}, resolving the rules of all fields of the
+     * target schema up front. Use this from {@link no.ssb.rawdata.converter.core.convert.RawdataConverter#init}.
+     */
+    public ValueInterceptor newPseudonymizingInterceptor(ConverterJobConfig jobConfig, Schema targetSchema) {
+        return newPseudonymizingInterceptor(jobConfig, CompiledPseudoRules.compile(jobConfig.getPseudoRules(), targetSchema));
+    }
+
+    private ValueInterceptor newPseudonymizingInterceptor(ConverterJobConfig jobConfig, CompiledPseudoRules rules) {
+        if (rules.isEmpty()) {
+            return (field, value) -> value;
+        }
+
+        Map<PseudoFuncRule, FieldPseudonymizer> pseudonymizersByRule = new IdentityHashMap<>();
+        for (PseudoFuncRule rule : rules.getRules()) {
+            pseudonymizersByRule.put(rule, newFieldPseudonymizer(List.of(rule)));
+        }
+        ConverterJobConfig.ConverterSettings settings = jobConfig.getConverterSettings();
+        PseudonymizationCache cache = settings.shouldCachePseudonymization()
+          ? new PseudonymizationCache(settings.getPseudoCacheMaxEntries(), settings.getPseudoCacheMaxBytes())
+              .registerMetrics(meterRegistry, ConverterJobMetrics.correlationTagsOf(jobConfig))
+          : null;
+
+        return (field, value) -> {
+            PseudoFuncRule rule = rules.ruleOf(field.getPath()).orElse(null);
+            if (rule == null || value == null) {
+                return value; // never cached
+            }
+
+            FieldPseudonymizer fieldPseudonymizer = pseudonymizersByRule.get(rule);
+            if (cache == null) {
+                return fieldPseudonymizer.pseudonymize(field, value);
+            }
+
+            // The pseudo function (including its secret) determines the pseudonym of a value
+            return cache.pseudonymize(rule.getFunc(), value, v -> fieldPseudonymizer.pseudonymize(field, v));
+        };
+    }
+
 }
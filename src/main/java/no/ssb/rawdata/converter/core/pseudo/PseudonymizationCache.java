@@ -0,0 +1,135 @@
+package no.ssb.rawdata.converter.core.pseudo;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import no.ssb.rawdata.converter.metrics.MetricName;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * <p>Bounded cache of pseudonymized values, keyed by the pseudo rule and the input value. Pseudonymization is
+ * deterministic, so a cached value can be reused for every occurrence of the same input under the same rule.</p>
+ *
+ * <p>The cache is bounded both by number of entries and by the estimated memory of the cached strings. Cached
+ * values are sensitive (they link inputs to pseudonyms), so they are held in memory only, and neither the cache
+ * nor its keys expose them through toString.</p>
+ */
+public class PseudonymizationCache {
+
+    /**
+     * Estimated memory of a cache entry, apart from the characters of the cached strings
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private final Cache<Key, String> cache;
+
+    public PseudonymizationCache(long maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("maxEntries and maxBytes must be positive");
+        }
+
+        // Guava caches can only be bounded by either size or weight. Weighing each entry at least
+        // maxBytes/maxEntries bounds the number of entries as well as the memory.
+        int minEntryWeight = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxBytes / maxEntries));
+        this.cache = CacheBuilder.newBuilder()
+          .maximumWeight(maxBytes)
+          .<Key, String>weigher((key, value) -> Math.max(minEntryWeight, ENTRY_OVERHEAD_BYTES + 2 * (key.rule.length() + key.value.length() + value.length())))
+          .recordStats()
+          .build();
+    }
+
+    /**
+     * @param rule identifies the pseudo rule (function and secret) applied to the value
+     * @param value the input value
+     * @param pseudonymizer pseudonymizes the value if it is not cached
+     * @return the pseudonymized value
+     */
+    public String pseudonymize(String rule, String value, UnaryOperator<String> pseudonymizer) {
+        if (value == null) {
+            return null;
+        }
+        Key key = new Key(rule, value);
+        String pseudonymized = cache.getIfPresent(key);
+        if (pseudonymized == null) {
+            pseudonymized = pseudonymizer.apply(value);
+            if (pseudonymized != null) {
+                cache.put(key, pseudonymized);
+            }
+        }
+        return pseudonymized;
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Report hits, misses, evictions and size of the cache
+     */
+    public PseudonymizationCache registerMetrics(MeterRegistry meterRegistry, Tags tags) {
+        FunctionCounter.builder(MetricName.PSEUDO_CACHE_REQUESTS_TOTAL, this, c -> c.stats().hitCount())
+          .description("Number of values looked up in the pseudonymization cache")
+          .tags(tags.and("result", "hit"))
+          .register(meterRegistry);
+        FunctionCounter.builder(MetricName.PSEUDO_CACHE_REQUESTS_TOTAL, this, c -> c.stats().missCount())
+          .description("Number of values looked up in the pseudonymization cache")
+          .tags(tags.and("result", "miss"))
+          .register(meterRegistry);
+        FunctionCounter.builder(MetricName.PSEUDO_CACHE_EVICTIONS_TOTAL, this, c -> c.stats().evictionCount())
+          .description("Number of values evicted from the pseudonymization cache")
+          .tags(tags)
+          .register(meterRegistry);
+        Gauge.builder(MetricName.PSEUDO_CACHE_SIZE, this, PseudonymizationCache::size)
+          .description("Number of values in the pseudonymization cache")
+          .tags(tags)
+          .register(meterRegistry);
+        Gauge.builder(MetricName.PSEUDO_CACHE_HIT_RATIO, this, c -> c.stats().hitRate())
+          .description("Ratio of pseudonymization cache lookups that were hits")
+          .tags(tags)
+          .register(meterRegistry);
+        return this;
+    }
+
+    private static final class Key {
+        private final String rule;
+        private final String value;
+        private final int hash;
+
+        Key(String rule, String value) {
+            this.rule = rule;
+            this.value = value;
+            this.hash = 31 * rule.hashCode() + value.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (! (o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && rule.equals(other.rule) && value.equals(other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return "Key(rule=" + rule + ", value=<redacted>)";
+        }
+    }
+}
@@ -4,15 +4,13 @@ import de.huxhorn.sulky.ulid.ULID;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import no.ssb.dapla.dataset.uri.DatasetUri;
-import no.ssb.dapla.storage.client.DatasetStorage;
-import no.ssb.dapla.storage.client.backend.FileInfo;
 import no.ssb.rawdata.api.RawdataClient;
 import no.ssb.rawdata.api.RawdataConsumer;
 import no.ssb.rawdata.converter.core.exception.RawdataConverterException;
 import no.ssb.rawdata.converter.core.job.ConverterJobConfig;
 import no.ssb.rawdata.converter.core.storage.DatasetStorageFactory;
+import no.ssb.rawdata.converter.core.storage.LastPositionFinder;
 import no.ssb.rawdata.converter.core.storage.StorageType;
-import no.ssb.rawdata.converter.core.storage.UlidVisitor;
 import no.ssb.rawdata.converter.util.DatasetUriBuilder;
 
 import javax.inject.Singleton;
@@ -30,8 +28,10 @@ public class RawdataConsumerFactory {
     public RawdataConsumers rawdataConsumersOf(ConverterJobConfig jobConfig) {
         DatasetUri datasetUri = datasetUriOf(jobConfig.getTargetStorage());
         StorageType storageType = StorageType.of(datasetUri);
-        DatasetStorage datasetStorage = datasetStorageFactory.datasetStorageOf(storageType, jobConfig.getTargetStorage().getSaKeyFile());
-        ULID.Value initialPosition = resolveInitialPosition(jobConfig.getRawdataSource().getInitialPosition(), datasetStorage, datasetUri);
+        final ULID.Value initialPosition;
+        try (LastPositionFinder lastPositionFinder = datasetStorageFactory.lastPositionFinderOf(storageType, jobConfig.getTargetStorage().getSaKeyFile())) {
+            initialPosition = resolveInitialPosition(jobConfig.getRawdataSource().getInitialPosition(), lastPositionFinder, datasetUri);
+        }
 
         RawdataClient rawdataClient = rawdataClientFactory.rawdataClientOf(jobConfig.getRawdataSource().getName());
         RawdataConsumer mainRawdataConsumer = rawdataClient.consumer(jobConfig.getRawdataSource().getTopic(), initialPosition, true);
@@ -40,6 +40,8 @@ public class RawdataConsumerFactory {
         return RawdataConsumers.builder()
           .mainRawdataConsumer(mainRawdataConsumer)
           .sampleRawdataConsumer(sampleRawdataConsumer)
+          .rawdataClient(rawdataClient)
+          .topic(jobConfig.getRawdataSource().getTopic())
           .build();
     }
 
@@ -55,14 +57,14 @@ public class RawdataConsumerFactory {
      * Attempt to resolve the position from which the rawdata stream should start.
      */
     // TODO: Return Optional
-    private ULID.Value resolveInitialPosition(String initialPosition, DatasetStorage datasetStorage, DatasetUri datasetUri) {
+    private ULID.Value resolveInitialPosition(String initialPosition, LastPositionFinder lastPositionFinder, DatasetUri datasetUri) {
         final ULID.Value position;
         try {
             if ("FIRST".equalsIgnoreCase(initialPosition)) {
                 position = null;
             } else if ("LAST".equalsIgnoreCase(initialPosition)) {
                 log.info("Determine initial starting position by searching for last record in {}", datasetUri);
-                position = attemptToFindLastRecord(datasetStorage, datasetUri);
+                position = attemptToFindLastRecord(lastPositionFinder, datasetUri);
             } else {
                 position = ULID.parseULID(initialPosition);
             }
@@ -81,16 +83,9 @@ public class RawdataConsumerFactory {
     }
 
     // TODO: Return Optional
-    private ULID.Value attemptToFindLastRecord(DatasetStorage datasetStorage, DatasetUri datasetUri) {
-        FileInfo lastModifiedDatasetFile = datasetStorage.getLastModifiedDatasetFile(datasetUri).orElse(null);
-        if (lastModifiedDatasetFile == null) {
-            return null;
-        }
-
+    private ULID.Value attemptToFindLastRecord(LastPositionFinder lastPositionFinder, DatasetUri datasetUri) {
         try {
-            UlidVisitor ulidVisitor = new UlidVisitor();
-            datasetStorage.readParquetFile(datasetUri, lastModifiedDatasetFile.getName(), UlidVisitor.ULID_PROJECTION_SCHEMA, ulidVisitor);
-            return ulidVisitor.getLatest();
+            return lastPositionFinder.findLastPosition(datasetUri).orElse(null);
         }
         catch (Exception e) {
             throw new LastPositionNotFoundException(datasetUri, e);
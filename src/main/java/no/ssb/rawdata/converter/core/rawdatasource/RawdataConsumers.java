@@ -2,7 +2,11 @@ package no.ssb.rawdata.converter.core.rawdatasource;
 
 import lombok.Builder;
 import lombok.Value;
+import no.ssb.rawdata.api.RawdataClient;
 import no.ssb.rawdata.api.RawdataConsumer;
+import no.ssb.rawdata.api.RawdataMessage;
+
+import java.util.Optional;
 
 @Value
 @Builder
@@ -19,4 +23,24 @@ public class RawdataConsumers {
      */
     private final RawdataConsumer sampleRawdataConsumer;
 
+    /**
+     * The rawdata client that the consumers were created from. Used to inspect the topic, e.g. to determine how
+     * far the main consumer is from the end of the topic.
+     */
+    private final RawdataClient rawdataClient;
+
+    /**
+     * The rawdata topic that the consumers read from
+     */
+    private final String topic;
+
+    /**
+     * Look up the last rawdata message currently in the topic
+     *
+     * @return the last RawdataMessage of the topic, or empty if the topic is empty
+     */
+    public Optional<RawdataMessage> findLastTopicMessage() {
+        return Optional.ofNullable(rawdataClient.lastMessage(topic));
+    }
+
 }
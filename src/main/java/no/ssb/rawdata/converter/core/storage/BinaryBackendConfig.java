@@ -0,0 +1,27 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+import lombok.Data;
+
+@Data
+@ConfigurationProperties("rawdata.converter.storage")
+public class BinaryBackendConfig {
+
+    /**
+     * The number of bytes fetched per request when reading from GCS.
+     */
+    private int gcsReadChunkSize = 4 * 1024 * 1024;
+
+    /**
+     * The number of bytes buffered before being sent in one request when writing to GCS. Each open
+     * write channel holds a buffer of this size.
+     */
+    private int gcsWriteChunkSize = 4 * 1024 * 1024;
+
+    /**
+     * The number of seconds a storage backend is kept after its last lease has been closed, so that it can be
+     * reused by the next lease (e.g. when a job is restarted). If 0, unused backends are closed immediately.
+     */
+    private int idleBackendTimeoutSeconds = 300;
+
+}
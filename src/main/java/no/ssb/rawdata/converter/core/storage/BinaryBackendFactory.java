@@ -1,34 +1,145 @@
 package no.ssb.rawdata.converter.core.storage;
 
 import com.google.common.base.Strings;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import no.ssb.dapla.storage.client.backend.BinaryBackend;
 import no.ssb.dapla.storage.client.backend.gcs.GoogleCloudStorageBackend;
 import no.ssb.dapla.storage.client.backend.local.LocalBackend;
+import no.ssb.rawdata.converter.metrics.MetricName;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Singleton;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-@RequiredArgsConstructor
+/**
+ * <p>Provides {@link BinaryBackend}s, shared between all users of the same storage type and credentials.</p>
+ *
+ * <p>Creating a GCS backend sets up credentials and an HTTP transport, so backends are pooled and reference
+ * counted: a backend is created when first leased and shared by all subsequent leases with the same key. When
+ * the last lease is closed, the backend is kept for a grace period so that it can be reused, and is then closed
+ * and discarded.</p>
+ */
 @Slf4j
 @Singleton
 public class BinaryBackendFactory {
 
-    public BinaryBackend binaryBackendOf(StorageType storageType) {
-        return binaryBackendOf(storageType, null);
+    private final BinaryBackendConfig config;
+    private final Map<BackendKey, PooledBackend> pool = new HashMap<>();
+    private final Counter createdCounter;
+    private final ScheduledExecutorService idleBackendDiscarder;
+
+    public BinaryBackendFactory(BinaryBackendConfig config, PrometheusMeterRegistry meterRegistry) {
+        this.config = config;
+        this.createdCounter = meterRegistry.counter(MetricName.STORAGE_BACKENDS_CREATED_TOTAL);
+        Gauge.builder(MetricName.STORAGE_BACKENDS_POOLED, this, BinaryBackendFactory::pooledBackendCount)
+          .description("Number of pooled storage backends, in use or idle")
+          .register(meterRegistry);
+        Gauge.builder(MetricName.STORAGE_BACKEND_LEASES, this, BinaryBackendFactory::leaseCount)
+          .description("Number of open leases of pooled storage backends")
+          .register(meterRegistry);
+
+        this.idleBackendDiscarder = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "storage-backend-discarder");
+            t.setDaemon(true);
+            return t;
+        });
+        idleBackendDiscarder.scheduleWithFixedDelay(this::discardIdleBackends, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public BinaryBackendLease lease(StorageType storageType) {
+        return lease(storageType, null);
+    }
+
+    /**
+     * Lease a backend for the given storage type and (optional) service account key file. The lease must be
+     * closed when the backend is no longer needed.
+     */
+    public synchronized BinaryBackendLease lease(StorageType storageType, String saKeyFile) {
+        BackendKey key = new BackendKey(storageType, Strings.emptyToNull(saKeyFile));
+        PooledBackend pooled = pool.computeIfAbsent(key, k -> new PooledBackend(createBinaryBackend(k.getStorageType(), k.getSaKeyFile())));
+        pooled.refCount++;
+        return new BinaryBackendLease(pooled.backend, () -> release(key));
+    }
+
+    private synchronized void release(BackendKey key) {
+        PooledBackend pooled = pool.get(key);
+        if (pooled == null || --pooled.refCount > 0) {
+            return;
+        }
+        pooled.idleSinceNanos = System.nanoTime();
+        if (config.getIdleBackendTimeoutSeconds() <= 0) {
+            discard(key, pooled);
+        }
     }
 
-    // TODO: Rename to create
-    public BinaryBackend binaryBackendOf(StorageType storageType, String saKeyFile) {
+    /**
+     * Close and discard the backends that have been unused for longer than the idle timeout
+     */
+    synchronized void discardIdleBackends() {
+        long idleTimeoutNanos = TimeUnit.SECONDS.toNanos(config.getIdleBackendTimeoutSeconds());
+        long now = System.nanoTime();
+        new HashMap<>(pool).forEach((key, pooled) -> {
+            if (pooled.refCount <= 0 && now - pooled.idleSinceNanos >= idleTimeoutNanos) {
+                discard(key, pooled);
+            }
+        });
+    }
+
+    private void discard(BackendKey key, PooledBackend pooled) {
+        pool.remove(key);
+        if (pooled.backend instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) pooled.backend).close();
+            }
+            catch (Exception e) {
+                log.warn("Error closing unused " + key.getStorageType() + " storage backend", e);
+            }
+        }
+        log.debug("Discarded unused {} storage backend", key.getStorageType());
+    }
+
+    /**
+     * Close the backends that are not in use. Backends that are still leased are left to their users.
+     */
+    @PreDestroy
+    synchronized void close() {
+        idleBackendDiscarder.shutdownNow();
+        new HashMap<>(pool).forEach((key, pooled) -> {
+            if (pooled.refCount <= 0) {
+                discard(key, pooled);
+            }
+        });
+    }
+
+    synchronized int pooledBackendCount() {
+        return pool.size();
+    }
+
+    synchronized int leaseCount() {
+        return pool.values().stream().mapToInt(p -> p.refCount).sum();
+    }
+
+    private BinaryBackend createBinaryBackend(StorageType storageType, String saKeyFile) {
+        createdCounter.increment();
 
         switch (storageType) {
             case FILESYSTEM:
                 log.info("Use local filesystem data storage client");
                 return new LocalBackend();
             case GCS:
-                GoogleCloudStorageBackend.Configuration configuration = new GoogleCloudStorageBackend.Configuration().setReadChunkSize(4 * 1024 * 1024).setWriteChunkSize(4 * 1024 * 1024);
+                GoogleCloudStorageBackend.Configuration configuration = new GoogleCloudStorageBackend.Configuration()
+                  .setReadChunkSize(config.getGcsReadChunkSize())
+                  .setWriteChunkSize(config.getGcsWriteChunkSize());
                 if (Strings.isNullOrEmpty(saKeyFile)) {
                     log.info("Use GCS data storage client with compute engine credentials");
                 } else {
@@ -45,4 +156,20 @@ public class BinaryBackendFactory {
         }
     }
 
+    @Value
+    private static class BackendKey {
+        private final StorageType storageType;
+        private final String saKeyFile;
+    }
+
+    private static class PooledBackend {
+        private final BinaryBackend backend;
+        private int refCount;
+        private long idleSinceNanos;
+
+        PooledBackend(BinaryBackend backend) {
+            this.backend = backend;
+        }
+    }
+
 }
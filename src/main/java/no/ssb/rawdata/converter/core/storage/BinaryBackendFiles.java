@@ -0,0 +1,52 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import com.google.cloud.BaseServiceException;
+import lombok.experimental.UtilityClass;
+import no.ssb.dapla.storage.client.backend.BinaryBackend;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.NoSuchFileException;
+import java.util.Optional;
+
+/**
+ * Helpers for reading small files (like indexes) as a whole through a {@link BinaryBackend}
+ */
+@UtilityClass
+class BinaryBackendFiles {
+
+    /**
+     * Read a file, treating a file that does not exist as empty. This saves listing the directory of the file
+     * just to check if it exists.
+     *
+     * @return the content of the file, or empty if there is no such file
+     */
+    static Optional<byte[]> readIfExists(BinaryBackend binaryBackend, String path) throws IOException {
+        try (InputStream in = Channels.newInputStream(binaryBackend.read(path))) {
+            return Optional.of(in.readAllBytes());
+        }
+        catch (IOException | RuntimeException e) {
+            if (isNotFound(e)) {
+                return Optional.empty();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if the exception (or any of its causes) signals that a file does not exist, locally or in GCS
+     */
+    static boolean isNotFound(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof NoSuchFileException || t instanceof FileNotFoundException) {
+                return true;
+            }
+            if (t instanceof BaseServiceException && ((BaseServiceException) t).getCode() == 404) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,34 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import no.ssb.dapla.storage.client.backend.BinaryBackend;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A reference to a shared {@link BinaryBackend}. The backend must not be used after the lease has been closed.
+ */
+public class BinaryBackendLease implements AutoCloseable {
+
+    private final BinaryBackend backend;
+    private final Runnable release;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    BinaryBackendLease(BinaryBackend backend, Runnable release) {
+        this.backend = backend;
+        this.release = release;
+    }
+
+    public BinaryBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Release the reference to the backend. Closing a lease more than once has no effect.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            release.run();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import org.apache.parquet.io.ParquetEncodingException;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+
+import java.util.Arrays;
+
+/**
+ * <p>{@link RecordConsumer} that holds the events of a message, and passes them on to the actual consumer only
+ * when the message is complete.</p>
+ *
+ * <p>The column writers of a parquet file cannot take back values, so a write that fails halfway through a
+ * record (e.g. the parquet Avro writer rejecting a null array element, or the write function of a
+ * {@link no.ssb.rawdata.converter.core.convert.ColumnarRecord} throwing) would leave the columns of the file out
+ * of step with each other. With a buffered consumer, a failed write never reaches the column writers, and the
+ * file can be written to after the failure. Messages that would be rejected by the actual consumer because a
+ * field is started without a value are rejected when buffered, for the same reason.</p>
+ *
+ * <p>The buffer is reused for all messages, so buffering does not allocate once it has grown to the size of the
+ * largest message.</p>
+ */
+class BufferedRecordConsumer extends RecordConsumer {
+
+    private static final byte START_FIELD = 0;
+    private static final byte END_FIELD = 1;
+    private static final byte START_GROUP = 2;
+    private static final byte END_GROUP = 3;
+    private static final byte INTEGER = 4;
+    private static final byte LONG = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte BINARY = 7;
+    private static final byte FLOAT = 8;
+    private static final byte DOUBLE = 9;
+
+    private final RecordConsumer delegate;
+    private byte[] events = new byte[256];
+    private long[] values = new long[256];
+    private Object[] objects = new Object[256];
+    private int size;
+    private boolean inMessage;
+    private boolean emptyField;
+
+    BufferedRecordConsumer(RecordConsumer delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void startMessage() {
+        discard();
+        inMessage = true;
+    }
+
+    @Override
+    public void endMessage() {
+        if (! inMessage) {
+            throw new ParquetEncodingException("endMessage does not match a preceding startMessage");
+        }
+        try {
+            delegate.startMessage();
+            for (int i = 0; i < size; i++) {
+                replay(i);
+            }
+            delegate.endMessage();
+        }
+        finally {
+            discard();
+        }
+    }
+
+    private void replay(int i) {
+        switch (events[i]) {
+            case START_FIELD:
+                delegate.startField((String) objects[i], (int) values[i]);
+                break;
+            case END_FIELD:
+                delegate.endField((String) objects[i], (int) values[i]);
+                break;
+            case START_GROUP:
+                delegate.startGroup();
+                break;
+            case END_GROUP:
+                delegate.endGroup();
+                break;
+            case INTEGER:
+                delegate.addInteger((int) values[i]);
+                break;
+            case LONG:
+                delegate.addLong(values[i]);
+                break;
+            case BOOLEAN:
+                delegate.addBoolean(values[i] != 0);
+                break;
+            case BINARY:
+                delegate.addBinary((Binary) objects[i]);
+                break;
+            case FLOAT:
+                delegate.addFloat(Float.intBitsToFloat((int) values[i]));
+                break;
+            case DOUBLE:
+                delegate.addDouble(Double.longBitsToDouble(values[i]));
+                break;
+            default:
+                throw new IllegalStateException("Unknown event " + events[i]);
+        }
+    }
+
+    /**
+     * Discard the events of the current message
+     */
+    private void discard() {
+        Arrays.fill(objects, 0, size, null);
+        size = 0;
+        inMessage = false;
+    }
+
+    @Override
+    public void startField(String field, int index) {
+        add(START_FIELD, index, field);
+        emptyField = true;
+    }
+
+    @Override
+    public void endField(String field, int index) {
+        if (emptyField) {
+            throw new ParquetEncodingException("empty fields are illegal, the field should be ommited completely instead");
+        }
+        add(END_FIELD, index, field);
+    }
+
+    @Override
+    public void startGroup() {
+        add(START_GROUP, 0, null);
+    }
+
+    @Override
+    public void endGroup() {
+        add(END_GROUP, 0, null);
+    }
+
+    @Override
+    public void addInteger(int value) {
+        add(INTEGER, value, null);
+    }
+
+    @Override
+    public void addLong(long value) {
+        add(LONG, value, null);
+    }
+
+    @Override
+    public void addBoolean(boolean value) {
+        add(BOOLEAN, value ? 1 : 0, null);
+    }
+
+    @Override
+    public void addBinary(Binary value) {
+        add(BINARY, 0, value);
+    }
+
+    @Override
+    public void addFloat(float value) {
+        add(FLOAT, Float.floatToRawIntBits(value), null);
+    }
+
+    @Override
+    public void addDouble(double value) {
+        add(DOUBLE, Double.doubleToRawLongBits(value), null);
+    }
+
+    private void add(byte event, long value, Object object) {
+        if (! inMessage) {
+            throw new ParquetEncodingException("Values can only be added within a message");
+        }
+        if (size == events.length) {
+            int capacity = size * 2;
+            events = Arrays.copyOf(events, capacity);
+            values = Arrays.copyOf(values, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+        }
+        events[size] = event;
+        values[size] = value;
+        objects[size] = object;
+        size++;
+        emptyField = false;
+    }
+}
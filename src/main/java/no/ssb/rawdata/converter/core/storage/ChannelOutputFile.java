@@ -0,0 +1,90 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parquet {@link OutputFile} that writes to a channel. The position is tracked by counting written bytes, so the
+ * channel does not need to support positioning (which is the case for e.g. GCS write channels).
+ */
+class ChannelOutputFile implements OutputFile {
+
+    private final WritableByteChannel channel;
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private volatile Runnable closeListener = () -> {};
+
+    ChannelOutputFile(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * @return the number of bytes written to the underlying channel
+     */
+    long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * Register a callback that is invoked when the output stream (and thus the channel) is closed
+     */
+    void onClose(Runnable closeListener) {
+        this.closeListener = closeListener;
+    }
+
+    @Override
+    public PositionOutputStream create(long blockSizeHint) {
+        return new ChannelPositionOutputStream();
+    }
+
+    @Override
+    public PositionOutputStream createOrOverwrite(long blockSizeHint) {
+        return new ChannelPositionOutputStream();
+    }
+
+    @Override
+    public boolean supportsBlockSize() {
+        return false;
+    }
+
+    @Override
+    public long defaultBlockSize() {
+        return 0;
+    }
+
+    private class ChannelPositionOutputStream extends PositionOutputStream {
+
+        @Override
+        public long getPos() {
+            return bytesWritten.get();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            bytesWritten.addAndGet(len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            }
+            finally {
+                closeListener.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import no.ssb.rawdata.converter.core.convert.ColumnarRecord;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.avro.AvroSchemaConverter;
+import org.apache.parquet.avro.AvroWriteSupport;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.api.RecordConsumer;
+
+/**
+ * <p>Parquet {@link WriteSupport} that writes {@link ColumnarRecord}s directly to the parquet columns, and all
+ * other records using the parquet Avro writer. Files are written with the same schema and metadata as files
+ * written by the parquet Avro writer, so the two kinds of records can be mixed within a dataset (and a file).</p>
+ *
+ * <p>Records are written through a {@link BufferedRecordConsumer}, so a record that fails to be written leaves
+ * no trace in the file, and writing can go on with the next record.</p>
+ */
+class ColumnarWriteSupport extends WriteSupport<GenericRecord> {
+
+    private final Schema avroSchema;
+    private final AvroWriteSupport<GenericRecord> avroWriteSupport;
+    private ParquetColumnWriter columnWriter;
+
+    ColumnarWriteSupport(Schema avroSchema, Configuration conf) {
+        this.avroSchema = avroSchema;
+        this.avroWriteSupport = new AvroWriteSupport<>(new AvroSchemaConverter(conf).convert(avroSchema), avroSchema, GenericData.get());
+    }
+
+    @Override
+    public WriteContext init(Configuration configuration) {
+        return avroWriteSupport.init(configuration);
+    }
+
+    @Override
+    public void prepareForWrite(RecordConsumer recordConsumer) {
+        BufferedRecordConsumer bufferedRecordConsumer = new BufferedRecordConsumer(recordConsumer);
+        avroWriteSupport.prepareForWrite(bufferedRecordConsumer);
+        this.columnWriter = new ParquetColumnWriter(bufferedRecordConsumer, avroSchema);
+    }
+
+    @Override
+    public void write(GenericRecord record) {
+        if (record instanceof ColumnarRecord) {
+            columnWriter.write((ColumnarRecord) record);
+        }
+        else {
+            avroWriteSupport.write(record);
+        }
+    }
+
+    @Override
+    public FinalizedWriteContext finalizeWrite() {
+        return avroWriteSupport.finalizeWrite();
+    }
+
+    static Builder builder(OutputFile outputFile) {
+        return new Builder(outputFile);
+    }
+
+    /**
+     * Builder of parquet writers that write {@link GenericRecord}s (including {@link ColumnarRecord}s) using
+     * {@link ColumnarWriteSupport}
+     */
+    static class Builder extends ParquetWriter.Builder<GenericRecord, Builder> {
+        private Schema schema;
+
+        private Builder(OutputFile outputFile) {
+            super(outputFile);
+        }
+
+        Builder withSchema(Schema schema) {
+            this.schema = schema;
+            return this;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @Override
+        protected WriteSupport<GenericRecord> getWriteSupport(Configuration conf) {
+            return new ColumnarWriteSupport(schema, conf);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+import lombok.Data;
+
+@Data
+@ConfigurationProperties(DatasetCompactionConfig.PREFIX)
+public class DatasetCompactionConfig {
+
+    public static final String PREFIX = "rawdata.converter.compaction";
+
+    /**
+     * If true, the datasets of active converter jobs are periodically compacted.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Parquet files smaller than this (in bytes) are candidates for compaction.
+     */
+    private long smallFileThresholdBytes = 16 * 1024 * 1024;
+
+    /**
+     * The approximate max size (in bytes) of a compacted parquet file.
+     */
+    private long targetFileSizeBytes = 128 * 1024 * 1024;
+
+    /**
+     * The min number of consecutive small files that are merged into one file. Fewer files are left as is.
+     */
+    private int minFilesPerCompaction = 4;
+
+    /**
+     * Files modified more recently than this are left alone, so that compaction does not interfere with files
+     * that are being written or that are likely to be read by the converter (e.g. when resolving the LAST position).
+     */
+    private long minFileAgeSeconds = 600;
+
+    /**
+     * The max number of bytes per second that compaction is allowed to read and write, across all datasets.
+     */
+    private long maxBytesPerSecond = 10 * 1024 * 1024;
+
+}
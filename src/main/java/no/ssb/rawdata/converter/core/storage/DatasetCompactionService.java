@@ -0,0 +1,311 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import com.google.common.util.concurrent.RateLimiter;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.scheduling.annotation.Scheduled;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import no.ssb.dapla.dataset.uri.DatasetUri;
+import no.ssb.dapla.storage.client.ParquetProvider;
+import no.ssb.dapla.storage.client.backend.BinaryBackend;
+import no.ssb.dapla.storage.client.backend.FileInfo;
+import no.ssb.rawdata.converter.core.exception.RawdataConverterException;
+import no.ssb.rawdata.converter.core.job.ConverterJob;
+import no.ssb.rawdata.converter.core.job.ConverterJobConfig;
+import no.ssb.rawdata.converter.core.job.ConverterJobScheduler;
+import no.ssb.rawdata.converter.util.DatasetUriBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Merges small parquet files of the datasets written by active converter jobs into fewer, larger files.</p>
+ *
+ * <p>Only consecutive runs of small files are merged, and the records are written in file order, so the ULID
+ * ordering of the dataset is preserved. The merged file replaces the last file of the run (thus keeping its name)
+ * and the other files of the run are deleted afterwards. The steps are recorded in a journal file, so that an
+ * interrupted compaction is completed the next time the dataset is compacted. Until the source files have been
+ * deleted, readers might see records of the compacted files twice.</p>
+ *
+ * <p>Compaction is enabled by setting rawdata.converter.compaction.enabled=true, and runs every
+ * rawdata.converter.compaction.interval (default 10m).</p>
+ */
+@Singleton
+@Requires(property = DatasetCompactionConfig.PREFIX + ".enabled", value = "true")
+@Slf4j
+public class DatasetCompactionService {
+
+    private static final Pattern DATA_FILE_PATTERN = Pattern.compile("^\\d+\\.parquet$");
+    private static final String JOURNAL_FILE_NAME = ".compaction-journal";
+    private static final String COMPACTING_SUFFIX = ".compacting";
+
+    private final DatasetCompactionConfig config;
+    private final BinaryBackendFactory binaryBackendFactory;
+    private final ConverterJobScheduler jobScheduler;
+
+    /**
+     * Limits the rate (bytes per second) that compaction reads and writes data, so that compaction does not
+     * compete too much with converter jobs for I/O.
+     */
+    private final RateLimiter ioBudget;
+
+    public DatasetCompactionService(DatasetCompactionConfig config, BinaryBackendFactory binaryBackendFactory, ConverterJobScheduler jobScheduler) {
+        this.config = config;
+        this.binaryBackendFactory = binaryBackendFactory;
+        this.jobScheduler = jobScheduler;
+        this.ioBudget = RateLimiter.create(config.getMaxBytesPerSecond());
+    }
+
+    @Scheduled(fixedDelay = "${rawdata.converter.compaction.interval:10m}", initialDelay = "${rawdata.converter.compaction.interval:10m}")
+    void compactActiveDatasets() {
+        Map<String, ConverterJobConfig.TargetStorage> targetStorages = new LinkedHashMap<>();
+        jobScheduler.getJobs().values().stream()
+          .map(ConverterJob::getJobConfig)
+          .filter(jobConfig -> ! jobConfig.getDebug().isDryrun())
+          .map(ConverterJobConfig::getTargetStorage)
+          .forEach(targetStorage -> targetStorages.putIfAbsent(datasetUriOf(targetStorage).toString(), targetStorage));
+
+        targetStorages.forEach((datasetPath, targetStorage) -> {
+            try {
+                compact(targetStorage);
+            }
+            catch (Exception e) {
+                log.error("Error compacting dataset " + datasetPath, e);
+            }
+        });
+    }
+
+    /**
+     * Compact the small files of a dataset
+     */
+    public void compact(ConverterJobConfig.TargetStorage targetStorage) throws IOException {
+        String datasetPath = datasetUriOf(targetStorage).toString();
+        try (BinaryBackendLease backendLease = binaryBackendFactory.lease(StorageType.of(targetStorage.getRoot()), targetStorage.getSaKeyFile())) {
+            compact(backendLease.getBackend(), datasetPath, new TunedParquetProvider(ParquetWriterSettings.of(targetStorage)));
+        }
+    }
+
+    void compact(BinaryBackend backend, String datasetPath, ParquetProvider parquetProvider) throws IOException {
+        List<FileInfo> allFiles = backend.list(datasetPath).toList().blockingGet();
+        Set<String> fileNames = allFiles.stream().map(f -> fileNameOf(f.getPath())).collect(Collectors.toSet());
+        if (recoverInterruptedCompaction(backend, datasetPath, fileNames)) {
+            return; // the file listing is stale, so wait for the next run
+        }
+
+        List<DataFile> dataFiles = allFiles.stream()
+          .map(f -> new DataFile(fileNameOf(f.getPath()), f.getSize(), f.getLastModified()))
+          .filter(f -> DATA_FILE_PATTERN.matcher(f.getName()).matches())
+          .sorted(Comparator.comparing(DataFile::getName))
+          .collect(Collectors.toList());
+
+        long modifiedBefore = Instant.now().minusSeconds(config.getMinFileAgeSeconds()).toEpochMilli();
+        List<List<DataFile>> groups = compactionGroupsOf(dataFiles, config.getSmallFileThresholdBytes(), config.getTargetFileSizeBytes(), config.getMinFilesPerCompaction(), modifiedBefore);
+        for (List<DataFile> group : groups) {
+            compactGroup(backend, parquetProvider, datasetPath, group);
+        }
+    }
+
+    /**
+     * Divide a list of data files (sorted by name) into groups of consecutive small files to be merged.
+     */
+    static List<List<DataFile>> compactionGroupsOf(List<DataFile> files, long smallFileThreshold, long targetFileSize, int minFiles, long modifiedBefore) {
+        List<List<DataFile>> groups = new ArrayList<>();
+        List<DataFile> current = new ArrayList<>();
+        long currentSize = 0;
+
+        for (DataFile file : files) {
+            boolean eligible = file.getSize() < smallFileThreshold && file.getLastModified() < modifiedBefore;
+            if (! eligible || currentSize + file.getSize() > targetFileSize) {
+                if (current.size() >= minFiles) {
+                    groups.add(current);
+                }
+                current = new ArrayList<>();
+                currentSize = 0;
+            }
+            if (eligible) {
+                current.add(file);
+                currentSize += file.getSize();
+            }
+        }
+        if (current.size() >= minFiles) {
+            groups.add(current);
+        }
+
+        return groups;
+    }
+
+    private void compactGroup(BinaryBackend backend, ParquetProvider parquetProvider, String datasetPath, List<DataFile> group) throws IOException {
+        DataFile target = group.get(group.size() - 1);
+        String tmpName = "." + target.getName() + COMPACTING_SUFFIX;
+        long recordCount = mergeFiles(backend, parquetProvider, datasetPath, group, datasetPath + "/" + tmpName);
+
+        List<String> journal = new ArrayList<>();
+        journal.add(target.getName());
+        journal.add(tmpName);
+        group.forEach(f -> journal.add(f.getName()));
+        writeBytes(backend, datasetPath + "/" + JOURNAL_FILE_NAME, String.join("\n", journal).getBytes(StandardCharsets.UTF_8));
+
+        completeCompaction(backend, datasetPath, journal, Set.of(tmpName));
+        updateIndex(backend, datasetPath, sourceNamesOf(journal), target.getName());
+        log.info("Compacted {} files ({} records) of {} into {}", group.size(), recordCount, datasetPath, target.getName());
+    }
+
+    private long mergeFiles(BinaryBackend backend, ParquetProvider parquetProvider, String datasetPath, List<DataFile> sources, String targetPath) throws IOException {
+        ParquetWriter<GenericRecord> writer = null;
+        long recordCount = 0;
+        try {
+            for (DataFile source : sources) {
+                ioBudget.acquire(permitsOf(source.getSize() * 2)); // read + write
+                try (ParquetReader<GenericRecord> reader = AvroParquetReader.<GenericRecord>builder(new ChannelInputFile(backend.read(datasetPath + "/" + source.getName())))
+                  .withDataModel(GenericData.get())
+                  .build()) {
+                    GenericRecord record;
+                    while ((record = reader.read()) != null) {
+                        if (writer == null) {
+                            writer = parquetProvider.getWriter(backend.write(targetPath), record.getSchema());
+                        }
+                        writer.write(record);
+                        recordCount++;
+                    }
+                }
+            }
+            if (writer != null) {
+                writer.close();
+            }
+            return recordCount;
+        }
+        catch (IOException | RuntimeException e) {
+            try {
+                if (writer != null) {
+                    writer.close();
+                }
+                backend.delete(targetPath);
+            }
+            catch (Exception cleanupException) {
+                e.addSuppressed(cleanupException);
+            }
+            throw new DatasetCompactionException("Error merging files into " + targetPath, e);
+        }
+    }
+
+    private void updateIndex(BinaryBackend backend, String datasetPath, Set<String> mergedFileNames, String targetName) {
+        try {
+            DatasetIndex.update(backend, datasetPath, index -> index.replace(mergedFileNames, targetName));
+        }
+        catch (Exception e) {
+            log.warn("Unable to update ULID index of " + datasetPath, e);
+        }
+    }
+
+    /**
+     * Complete a compaction described by a journal: move the merged file into place (unless already done), delete
+     * the source files and finally the journal.
+     */
+    private void completeCompaction(BinaryBackend backend, String datasetPath, List<String> journal, Set<String> existingFileNames) throws IOException {
+        String targetName = journal.get(0);
+        String tmpName = journal.get(1);
+        if (existingFileNames.contains(tmpName)) {
+            backend.move(datasetPath + "/" + tmpName, datasetPath + "/" + targetName);
+        }
+        for (String sourceName : sourceNamesOf(journal)) {
+            if (! sourceName.equals(targetName)) {
+                backend.delete(datasetPath + "/" + sourceName);
+            }
+        }
+        backend.delete(datasetPath + "/" + JOURNAL_FILE_NAME);
+    }
+
+    /**
+     * Complete a compaction that was interrupted after the merged file was written, or discard merged files
+     * of compactions that were interrupted before that.
+     *
+     * @return true if any files were changed
+     */
+    private boolean recoverInterruptedCompaction(BinaryBackend backend, String datasetPath, Set<String> fileNames) throws IOException {
+        boolean recovered = false;
+        if (fileNames.contains(JOURNAL_FILE_NAME)) {
+            List<String> journal;
+            try (InputStream in = Channels.newInputStream(backend.read(datasetPath + "/" + JOURNAL_FILE_NAME))) {
+                journal = Arrays.asList(new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n"));
+            }
+            log.info("Completing interrupted compaction of {} into {}", datasetPath, journal.get(0));
+            completeCompaction(backend, datasetPath, journal, fileNames);
+            updateIndex(backend, datasetPath, sourceNamesOf(journal), journal.get(0));
+            return true;
+        }
+
+        for (String name : fileNames) {
+            if (name.endsWith(COMPACTING_SUFFIX)) {
+                log.info("Discarding incomplete compaction file {}/{}", datasetPath, name);
+                backend.delete(datasetPath + "/" + name);
+                recovered = true;
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * @return the names of the source files of a compaction journal
+     */
+    private static Set<String> sourceNamesOf(List<String> journal) {
+        return Set.copyOf(journal.subList(2, journal.size()));
+    }
+
+    private static void writeBytes(BinaryBackend backend, String path, byte[] bytes) throws IOException {
+        try (SeekableByteChannel channel = backend.write(path)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static int permitsOf(long bytes) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes));
+    }
+
+    private static String fileNameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static DatasetUri datasetUriOf(ConverterJobConfig.TargetStorage storage) {
+        return DatasetUriBuilder.of()
+          .root(storage.getRoot())
+          .path(storage.getPath())
+          .version(storage.getVersion())
+          .build();
+    }
+
+    @Value
+    static class DataFile {
+        private final String name;
+        private final long size;
+        private final long lastModified;
+    }
+
+    public static class DatasetCompactionException extends RawdataConverterException {
+        public DatasetCompactionException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import de.huxhorn.sulky.ulid.ULID;
+import lombok.extern.slf4j.Slf4j;
+import no.ssb.dapla.storage.client.backend.BinaryBackend;
+import no.ssb.dapla.storage.client.backend.FileInfo;
+import no.ssb.rawdata.converter.core.exception.RawdataConverterException;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.convert.GroupRecordConverter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.io.ColumnIOFactory;
+import org.apache.parquet.io.MessageColumnIO;
+import org.apache.parquet.io.RecordReader;
+import org.apache.parquet.schema.MessageType;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Membership index of the rawdata message ULIDs that have already been converted to a dataset, used to skip
+ * messages that would otherwise be converted twice (e.g. when re-converting from the FIRST position, or when
+ * resuming after a partial failure).</p>
+ *
+ * <p>The index consists of a bloom filter holding all converted ULIDs and the exact ULID range of each data file.
+ * A message is only considered converted if the bloom filter might contain it and it falls within the range of
+ * a data file. This is then confirmed against the actual ULIDs of the data files whose ranges cover it (ranges
+ * may overlap), so that bloom filter false positives never cause messages to be dropped. Since re-converted
+ * messages arrive in ULID order, data files are read only when needed, and the ULIDs of the most recently read
+ * files are kept.</p>
+ *
+ * <p>The index is persisted next to the data files, and is brought up to date by reading only the data files
+ * that have been added or rewritten (e.g. by compaction) since it was last saved. If a data file turns out to be
+ * gone when confirming a match (e.g. merged into another file by compaction while the index is in use), the
+ * index is refreshed and the match is confirmed against the current data files.</p>
+ */
+@Slf4j
+public class DatasetDedupIndex implements AutoCloseable {
+
+    static final String DEDUP_FILE_NAME = ".ulid-dedup";
+    private static final int FORMAT_VERSION = 1;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final long MIN_EXPECTED_INSERTIONS = 1_000_000;
+    private static final String[] ULID_PATH = {"manifest", "collector", "ulid"};
+    private static final int MAX_CACHED_FILES = 4;
+
+    private final BinaryBackendLease backendLease;
+    private final BinaryBackend binaryBackend;
+    private final String datasetPath;
+    private final Map<String, IndexedFile> indexedFiles = new HashMap<>();
+    private final DatasetIndex ranges = new DatasetIndex();
+    private BloomFilter<CharSequence> bloomFilter;
+    private long expectedInsertions;
+
+    /**
+     * ULIDs (sorted) of the data files most recently read to confirm a bloom filter match, by file name
+     */
+    private final Map<String, ULID.Value[]> cachedUlids = new LinkedHashMap<>(MAX_CACHED_FILES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ULID.Value[]> eldest) {
+            return size() > MAX_CACHED_FILES;
+        }
+    };
+
+    private DatasetDedupIndex(BinaryBackendLease backendLease, String datasetPath) {
+        this.backendLease = backendLease;
+        this.binaryBackend = backendLease.getBackend();
+        this.datasetPath = datasetPath;
+    }
+
+    /**
+     * Load the index of a dataset, reading any data files that are not covered by the stored index, and save
+     * the updated index.
+     */
+    public static DatasetDedupIndex of(BinaryBackendLease backendLease, String datasetPath) {
+        DatasetDedupIndex index = new DatasetDedupIndex(backendLease, datasetPath);
+        try {
+            index.refresh();
+        }
+        catch (IOException e) {
+            backendLease.close();
+            throw new DatasetDedupIndexException("Error building ULID dedup index of " + datasetPath, e);
+        }
+        return index;
+    }
+
+    /**
+     * @return true if a rawdata message with the given ULID has already been converted to the dataset
+     */
+    public synchronized boolean isConverted(ULID.Value ulid) throws IOException {
+        if (! bloomFilter.mightContain(ulid.toString())) {
+            return false;
+        }
+
+        try {
+            return isInDataFile(ulid);
+        }
+        catch (IOException | RuntimeException e) {
+            if (! BinaryBackendFiles.isNotFound(e)) {
+                throw e;
+            }
+            // a data file has been removed since the index was refreshed, e.g. merged into another file by compaction
+            log.info("Data file of {} is gone. Refreshing dedup index.", datasetPath);
+            refresh();
+            return bloomFilter.mightContain(ulid.toString()) && isInDataFile(ulid);
+        }
+    }
+
+    /**
+     * @return true if the ULID is one of the ULIDs of the data files whose ranges cover it
+     */
+    private boolean isInDataFile(ULID.Value ulid) throws IOException {
+        for (DatasetIndex.Entry file : ranges.findAll(ulid)) {
+            if (Arrays.binarySearch(ulidsOf(file.getFileName()), ulid) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the ULIDs (sorted) of a data file
+     */
+    private ULID.Value[] ulidsOf(String fileName) throws IOException {
+        ULID.Value[] ulids = cachedUlids.get(fileName);
+        if (ulids == null) {
+            List<ULID.Value> fileUlids = new ArrayList<>();
+            readUlids(datasetPath + "/" + fileName, s -> fileUlids.add(ULID.parseULID(s)));
+            ulids = fileUlids.stream().sorted().toArray(ULID.Value[]::new);
+            cachedUlids.put(fileName, ulids);
+        }
+        return ulids;
+    }
+
+    public synchronized long getIndexedFileCount() {
+        return indexedFiles.size();
+    }
+
+    private void refresh() throws IOException {
+        Map<String, Long> dataFiles = binaryBackend.list(datasetPath)
+          .filter(f -> {
+              String name = fileNameOf(f.getPath());
+              return name.endsWith(".parquet") && ! name.startsWith(".");
+          })
+          .toList()
+          .blockingGet()
+          .stream()
+          .collect(Collectors.toMap(f -> fileNameOf(f.getPath()), FileInfo::getSize, (a, b) -> b));
+
+        // the stored index is only loaded initially, later refreshes start from the index held in memory
+        boolean loaded = bloomFilter != null || load();
+        boolean changed = indexedFiles.keySet().retainAll(dataFiles.keySet());
+        List<String> unindexedFiles = dataFiles.entrySet().stream()
+          .filter(f -> ! indexedFiles.containsKey(f.getKey()) || indexedFiles.get(f.getKey()).size != f.getValue())
+          .map(Map.Entry::getKey)
+          .sorted()
+          .collect(Collectors.toList());
+
+        long indexedRowCount = indexedFiles.values().stream().mapToLong(f -> f.rowCount).sum();
+        long estimatedRowCount = indexedRowCount + unindexedFiles.size() * Math.max(1, indexedRowCount / Math.max(1, indexedFiles.size()));
+        if (! loaded || estimatedRowCount > expectedInsertions) {
+            // (re)create the bloom filter, leaving room for the dataset to grow
+            expectedInsertions = Math.max(MIN_EXPECTED_INSERTIONS, estimatedRowCount * 2);
+            bloomFilter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, FALSE_POSITIVE_RATE);
+            indexedFiles.clear();
+            unindexedFiles = dataFiles.keySet().stream().sorted().collect(Collectors.toList());
+        }
+
+        for (String fileName : unindexedFiles) {
+            log.info("Adding ULIDs of {}/{} to dedup index", datasetPath, fileName);
+            indexedFiles.put(fileName, indexFile(fileName, dataFiles.get(fileName)));
+            changed = true;
+        }
+
+        ranges.setFiles(indexedFiles.values().stream()
+          .map(IndexedFile::toEntry)
+          .flatMap(Optional::stream)
+          .sorted(Comparator.comparing(DatasetIndex.Entry::getUlidMin))
+          .collect(Collectors.toList()));
+        cachedUlids.clear();
+        if (changed || ! loaded) {
+            save();
+        }
+        log.info("Dedup index of {} covers {} data files", datasetPath, indexedFiles.size());
+    }
+
+    private IndexedFile indexFile(String fileName, long size) throws IOException {
+        IndexedFile indexedFile = new IndexedFile(fileName, size);
+        readUlids(datasetPath + "/" + fileName, ulid -> {
+            bloomFilter.put(ulid);
+            indexedFile.add(ulid);
+        });
+        return indexedFile;
+    }
+
+    /**
+     * Read the source rawdata message ULIDs of all records of a data file, using a projection of the ULID column
+     */
+    private void readUlids(String path, Consumer<String> ulidConsumer) throws IOException {
+        try (ParquetFileReader reader = ParquetFileReader.open(new ChannelInputFile(binaryBackend.read(path)))) {
+            MessageType fileSchema = reader.getFooter().getFileMetaData().getSchema();
+            if (! fileSchema.containsPath(ULID_PATH)) {
+                log.warn("{} has no {} column. It is not covered by the dedup index.", path, String.join(".", ULID_PATH));
+                return;
+            }
+
+            reader.setRequestedSchema(UlidVisitor.ULID_PROJECTION_SCHEMA);
+            MessageColumnIO columnIO = new ColumnIOFactory().getColumnIO(UlidVisitor.ULID_PROJECTION_SCHEMA, fileSchema);
+            PageReadStore rowGroup;
+            while ((rowGroup = reader.readNextRowGroup()) != null) {
+                RecordReader<Group> recordReader = columnIO.getRecordReader(rowGroup, new GroupRecordConverter(UlidVisitor.ULID_PROJECTION_SCHEMA));
+                for (long i = 0; i < rowGroup.getRowCount(); i++) {
+                    String ulid = ulidOf(recordReader.read());
+                    if (ulid != null) {
+                        ulidConsumer.accept(ulid);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String ulidOf(Group record) {
+        if (record.getFieldRepetitionCount(0) == 0) {
+            return null;
+        }
+        Group manifest = record.getGroup(0, 0);
+        if (manifest.getFieldRepetitionCount(0) == 0) {
+            return null;
+        }
+        return manifest.getGroup(0, 0).getValueToString(0, 0);
+    }
+
+    /**
+     * @return true if a stored index was loaded
+     */
+    private boolean load() throws IOException {
+        Optional<byte[]> stored = BinaryBackendFiles.readIfExists(binaryBackend, dedupPathOf(datasetPath));
+        if (stored.isEmpty()) {
+            return false;
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(stored.get()))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                log.info("Discarding dedup index of {} with unknown format", datasetPath);
+                return false;
+            }
+            expectedInsertions = in.readLong();
+            int fileCount = in.readInt();
+            for (int i = 0; i < fileCount; i++) {
+                IndexedFile f = new IndexedFile(in.readUTF(), in.readLong());
+                f.ulidMin = Strings.emptyToNull(in.readUTF());
+                f.ulidMax = Strings.emptyToNull(in.readUTF());
+                f.rowCount = in.readLong();
+                indexedFiles.put(f.fileName, f);
+            }
+            bloomFilter = BloomFilter.readFrom(in, Funnels.stringFunnel(StandardCharsets.UTF_8));
+            return true;
+        }
+        catch (IOException | RuntimeException e) {
+            log.warn("Unable to read dedup index of " + datasetPath + ". Rebuilding it.", e);
+            indexedFiles.clear();
+            return false;
+        }
+    }
+
+    /**
+     * Atomically replace the stored index (written to a temporary file that is then moved into place)
+     */
+    private void save() throws IOException {
+        String dedupPath = dedupPathOf(datasetPath);
+        String tmpPath = dedupPath + ".tmp";
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(binaryBackend.write(tmpPath))))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(expectedInsertions);
+            out.writeInt(indexedFiles.size());
+            for (IndexedFile f : indexedFiles.values()) {
+                out.writeUTF(f.fileName);
+                out.writeLong(f.size);
+                out.writeUTF(Strings.nullToEmpty(f.ulidMin));
+                out.writeUTF(Strings.nullToEmpty(f.ulidMax));
+                out.writeLong(f.rowCount);
+            }
+            bloomFilter.writeTo(out);
+        }
+        binaryBackend.move(tmpPath, dedupPath);
+    }
+
+    static String dedupPathOf(String datasetPath) {
+        return datasetPath + "/" + DEDUP_FILE_NAME;
+    }
+
+    private static String fileNameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    @Override
+    public synchronized void close() {
+        cachedUlids.clear();
+        backendLease.close();
+    }
+
+    /**
+     * A data file covered by the index. The file size is used to detect files that have been rewritten.
+     */
+    private static class IndexedFile {
+        private final String fileName;
+        private final long size;
+        private String ulidMin;
+        private String ulidMax;
+        private long rowCount;
+
+        IndexedFile(String fileName, long size) {
+            this.fileName = fileName;
+            this.size = size;
+        }
+
+        void add(String ulid) {
+            rowCount++;
+            if (ulidMin == null || ulid.compareTo(ulidMin) < 0) {
+                ulidMin = ulid;
+            }
+            if (ulidMax == null || ulid.compareTo(ulidMax) > 0) {
+                ulidMax = ulid;
+            }
+        }
+
+        Optional<DatasetIndex.Entry> toEntry() {
+            if (ulidMin == null) {
+                return Optional.empty();
+            }
+            return Optional.of(new DatasetIndex.Entry(fileName, ulidMin, ulidMax,
+              ULID.parseULID(ulidMin).timestamp(), ULID.parseULID(ulidMax).timestamp(), rowCount));
+        }
+    }
+
+    public static class DatasetDedupIndexException extends RawdataConverterException {
+        public DatasetDedupIndexException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
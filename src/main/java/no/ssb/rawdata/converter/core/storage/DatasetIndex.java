@@ -0,0 +1,291 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import de.huxhorn.sulky.ulid.ULID;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import no.ssb.dapla.storage.client.backend.BinaryBackend;
+import no.ssb.rawdata.converter.core.convert.ColumnarRecord;
+import no.ssb.rawdata.converter.util.Json;
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Sidecar index of the data files of a dataset version, recording the ULID range, timestamp range and row
+ * count of each file. The index is stored as JSON next to the data files, and makes it possible to find the
+ * file holding a given ULID (e.g. for duplicate detection or targeted reprocessing) without reading the files.</p>
+ *
+ * <p>The index is rewritten atomically (written to a temporary file that is then moved into place) whenever
+ * files are added or merged. It is advisory: files written by other means (or by writers that crashed before updating
+ * the index) are not covered, so users of the index should verify that it is consistent with the data files
+ * they care about.</p>
+ */
+@Data
+@NoArgsConstructor
+public class DatasetIndex {
+
+    static final String INDEX_FILE_NAME = ".ulid-index.json";
+
+    /**
+     * Locks serializing updates of the stored index, per dataset path
+     */
+    private static final Map<String, Object> UPDATE_LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * Index entries sorted by ULID
+     */
+    private List<Entry> files = new ArrayList<>();
+
+    /**
+     * The greatest ulidMax of the entries up to and including each position of {@link #files}, used to find
+     * all entries covering a ULID. Computed when needed, and reset when the entries change.
+     */
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private String[] maxUlidMaxUpTo;
+
+    /**
+     * Load the index of a dataset, or create a new, empty index if the dataset has no index.
+     */
+    public static DatasetIndex load(BinaryBackend binaryBackend, String datasetPath) throws IOException {
+        return BinaryBackendFiles.readIfExists(binaryBackend, indexPathOf(datasetPath))
+          .map(json -> Json.toObject(DatasetIndex.class, new String(json, StandardCharsets.UTF_8)))
+          .orElseGet(DatasetIndex::new);
+    }
+
+    /**
+     * <p>Apply a change to the stored index of a dataset: the index is loaded, changed and saved.</p>
+     *
+     * <p>The index is shared by the writer of the dataset and by compaction, so the stored index is always
+     * reloaded before it is changed, and updates of the same dataset are serialized. This way, the changes of
+     * one do not undo the changes of the other, as saving a copy of the index held since before the other's
+     * change would.</p>
+     */
+    public static void update(BinaryBackend binaryBackend, String datasetPath, Consumer<DatasetIndex> change) throws IOException {
+        synchronized (UPDATE_LOCKS.computeIfAbsent(datasetPath, p -> new Object())) {
+            DatasetIndex index = load(binaryBackend, datasetPath);
+            change.accept(index);
+            index.save(binaryBackend, datasetPath);
+        }
+    }
+
+    /**
+     * Atomically replace the stored index of a dataset with this index
+     */
+    public synchronized void save(BinaryBackend binaryBackend, String datasetPath) throws IOException {
+        String indexPath = indexPathOf(datasetPath);
+        String tmpPath = indexPath + ".tmp";
+        try (SeekableByteChannel channel = binaryBackend.write(tmpPath)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Json.from(this).getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        binaryBackend.move(tmpPath, indexPath);
+    }
+
+    /**
+     * Add an entry, replacing any existing entry for the same file
+     */
+    public synchronized void add(Entry entry) {
+        files.removeIf(e -> e.getFileName().equals(entry.getFileName()));
+        files.add(entry);
+        files.sort(Comparator.comparing(Entry::getUlidMin));
+        maxUlidMaxUpTo = null;
+    }
+
+    public synchronized void setFiles(List<Entry> files) {
+        this.files = files;
+        maxUlidMaxUpTo = null;
+    }
+
+    /**
+     * Replace the entries of a set of files with a single entry covering all of them, e.g. after the files have
+     * been merged into one.
+     */
+    public synchronized void replace(Set<String> replacedFileNames, String fileName) {
+        List<Entry> replaced = files.stream()
+          .filter(e -> replacedFileNames.contains(e.getFileName()))
+          .collect(Collectors.toList());
+        if (replaced.isEmpty()) {
+            return;
+        }
+        files.removeAll(replaced);
+        add(Entry.merged(fileName, replaced)); // also resets maxUlidMaxUpTo
+    }
+
+    /**
+     * @return the entry with the greatest ULID
+     */
+    @JsonIgnore
+    public synchronized Optional<Entry> getLast() {
+        return files.isEmpty() ? Optional.empty() : Optional.of(files.get(files.size() - 1));
+    }
+
+    /**
+     * Find the entry of a file whose ULID range covers a given ULID. If the ranges of several files cover the
+     * ULID, the one with the lowest ulidMin is returned. Use {@link #findAll(ULID.Value)} to get all of them.
+     *
+     * @return the entry of a file whose ULID range covers the given ULID, or empty if no such file is indexed
+     */
+    public synchronized Optional<Entry> find(ULID.Value ulid) {
+        List<Entry> entries = findAll(ulid);
+        return entries.isEmpty() ? Optional.empty() : Optional.of(entries.get(0));
+    }
+
+    /**
+     * <p>Find the entries of all files whose ULID range covers a given ULID.</p>
+     *
+     * <p>The ranges of files may overlap, e.g. when the same rawdata has been converted more than once, or when
+     * messages arrive out of ULID order. The entries starting at or before the ULID are found using binary search,
+     * and are then scanned backwards only as long as some of the remaining entries may still reach the ULID.</p>
+     *
+     * @return the entries (sorted by ulidMin) of the files whose ULID range covers the given ULID
+     */
+    public synchronized List<Entry> findAll(ULID.Value ulid) {
+        String ulidString = ulid.toString();
+        int low = 0;
+        int high = files.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (files.get(mid).getUlidMin().compareTo(ulidString) <= 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+
+        String[] maxUlidMax = maxUlidMaxUpTo();
+        List<Entry> found = new ArrayList<>();
+        for (int i = low - 1; i >= 0 && maxUlidMax[i].compareTo(ulidString) >= 0; i--) {
+            if (files.get(i).getUlidMax().compareTo(ulidString) >= 0) {
+                found.add(files.get(i));
+            }
+        }
+        Collections.reverse(found);
+        return found;
+    }
+
+    private String[] maxUlidMaxUpTo() {
+        if (maxUlidMaxUpTo == null) {
+            String[] maxUlidMax = new String[files.size()];
+            for (int i = 0; i < files.size(); i++) {
+                String ulidMax = files.get(i).getUlidMax();
+                maxUlidMax[i] = (i == 0 || ulidMax.compareTo(maxUlidMax[i - 1]) > 0) ? ulidMax : maxUlidMax[i - 1];
+            }
+            maxUlidMaxUpTo = maxUlidMax;
+        }
+        return maxUlidMaxUpTo;
+    }
+
+    static String indexPathOf(String datasetPath) {
+        return datasetPath + "/" + INDEX_FILE_NAME;
+    }
+
+    /**
+     * @return the source rawdata message ULID (manifest.collector.ulid) of a converted record, or null if the
+     * record does not hold this information
+     */
+    static String ulidOf(GenericRecord record) {
+        if (record instanceof ColumnarRecord) {
+            return ((ColumnarRecord) record).getUlid().toString();
+        }
+
+        Object value = record;
+        for (String field : new String[] {"manifest", "collector", "ulid"}) {
+            if (! (value instanceof GenericRecord) || ((GenericRecord) value).getSchema().getField(field) == null) {
+                return null;
+            }
+            value = ((GenericRecord) value).get(field);
+        }
+        return value == null ? null : value.toString();
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Entry {
+        private String fileName;
+        private String ulidMin;
+        private String ulidMax;
+
+        /**
+         * Timestamp (millis since epoch) of the earliest ULID
+         */
+        private long timestampMin;
+
+        /**
+         * Timestamp (millis since epoch) of the latest ULID
+         */
+        private long timestampMax;
+        private long rowCount;
+
+        static Entry merged(String fileName, Collection<Entry> entries) {
+            return new Entry(fileName,
+              entries.stream().map(Entry::getUlidMin).min(Comparator.naturalOrder()).orElse(null),
+              entries.stream().map(Entry::getUlidMax).max(Comparator.naturalOrder()).orElse(null),
+              entries.stream().mapToLong(Entry::getTimestampMin).min().orElse(0),
+              entries.stream().mapToLong(Entry::getTimestampMax).max().orElse(0),
+              entries.stream().mapToLong(Entry::getRowCount).sum());
+        }
+    }
+
+    /**
+     * Collects the ULID range and row count of records as they are written to a file
+     */
+    static class EntryCollector {
+        private String ulidMin;
+        private String ulidMax;
+        private long rowCount;
+
+        void add(GenericRecord record) {
+            rowCount++;
+            String ulid = ulidOf(record);
+            if (ulid == null) {
+                return;
+            }
+            if (ulidMin == null || ulid.compareTo(ulidMin) < 0) {
+                ulidMin = ulid;
+            }
+            if (ulidMax == null || ulid.compareTo(ulidMax) > 0) {
+                ulidMax = ulid;
+            }
+        }
+
+        /**
+         * @return the index entry of the collected records, or empty if no records with ULIDs were collected
+         */
+        Optional<Entry> toEntry(String fileName) {
+            if (ulidMin == null) {
+                return Optional.empty();
+            }
+            return Optional.of(new Entry(fileName, ulidMin, ulidMax,
+              ULID.parseULID(ulidMin).timestamp(), ULID.parseULID(ulidMax).timestamp(), rowCount));
+        }
+    }
+}
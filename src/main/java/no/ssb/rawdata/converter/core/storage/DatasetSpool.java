@@ -0,0 +1,314 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import no.ssb.dapla.storage.client.backend.BinaryBackend;
+import no.ssb.dapla.storage.client.backend.FileInfo;
+import no.ssb.rawdata.converter.core.exception.RawdataConverterException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>Local directory where completed parquet files are stored before being uploaded to the dataset storage.</p>
+ *
+ * <p>Files are written to a temporary file and atomically renamed when complete, so that the spool directory
+ * only ever holds complete files (or temporary files that are discarded). A background thread uploads the
+ * spooled files one by one in the order they were completed. Failed uploads are retried with exponential
+ * backoff until they succeed, so that intermittent storage failures do not stop the conversion. Each file is
+ * uploaded to a temporary object that is moved into place when complete, so that an upload failing halfway
+ * never leaves a truncated parquet file in the dataset. Temporary objects are hidden (named
+ * <code>.&lt;file name&gt;.uploading</code>) so that readers of the dataset skip them, and any left behind by
+ * an interrupted run are deleted when the uploader starts.</p>
+ *
+ * <p>The size of the spool directory is bounded. If the spool is full (e.g. because the storage has been
+ * unavailable for a while), new files are not accepted until uploads have made room for them.</p>
+ *
+ * <p>Files left in the spool directory by a previous run are uploaded when the spool is created.</p>
+ */
+@Slf4j
+public class DatasetSpool implements AutoCloseable {
+
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String UPLOADING_SUFFIX = ".uploading";
+    private static final Duration INITIAL_BACKOFF = Duration.ofSeconds(1);
+    private static final Duration MAX_BACKOFF = Duration.ofMinutes(5);
+    private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+
+    private final Path spoolDir;
+    private final String targetPathPrefix;
+    private final BinaryBackend binaryBackend;
+    private final long maxSizeBytes;
+    private final ConcurrentLinkedDeque<Path> pendingFiles = new ConcurrentLinkedDeque<>();
+    private final Thread uploaderThread;
+    private long spoolSizeBytes;
+    private volatile long uploadFailureCount;
+    private volatile Consumer<String> uploadListener = fileName -> {};
+    private volatile boolean running = true;
+
+    /**
+     * @param spoolDir local directory to spool files in. Should be dedicated to the target dataset.
+     * @param targetPathPrefix the path of the target dataset that spooled files are uploaded to
+     * @param binaryBackend the storage to upload spooled files to
+     * @param maxSizeBytes the max total size of spooled files
+     */
+    public DatasetSpool(Path spoolDir, String targetPathPrefix, BinaryBackend binaryBackend, long maxSizeBytes) {
+        this.spoolDir = spoolDir;
+        this.targetPathPrefix = targetPathPrefix;
+        this.binaryBackend = binaryBackend;
+        this.maxSizeBytes = maxSizeBytes;
+
+        recoverSpooledFiles();
+        this.uploaderThread = new Thread(this::uploadLoop, "dataset-spool-uploader");
+        this.uploaderThread.setDaemon(true);
+        this.uploaderThread.start();
+    }
+
+    private void recoverSpooledFiles() {
+        try {
+            Files.createDirectories(spoolDir);
+            List<Path> files;
+            try (Stream<Path> stream = Files.list(spoolDir)) {
+                files = stream.sorted().collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                if (file.getFileName().toString().endsWith(TMP_SUFFIX)) {
+                    log.info("Discard incomplete spool file {}", file);
+                    Files.delete(file);
+                }
+                else {
+                    spoolSizeBytes += Files.size(file);
+                    pendingFiles.add(file);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new DatasetSpoolException("Error initializing spool directory " + spoolDir, e);
+        }
+
+        if (! pendingFiles.isEmpty()) {
+            log.info("Found {} files ({} bytes) from a previous run in spool directory {}", pendingFiles.size(), spoolSizeBytes, spoolDir);
+        }
+    }
+
+    /**
+     * Open a new spool file for writing. The file is not visible to the uploader before it is committed.
+     */
+    public SeekableByteChannel create(String fileName) throws IOException {
+        return Files.newByteChannel(tmpFileOf(fileName), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Mark a spool file as complete, making it eligible for upload
+     */
+    public void commit(String fileName) throws IOException {
+        Path file = spoolDir.resolve(fileName);
+        Files.move(tmpFileOf(fileName), file, StandardCopyOption.ATOMIC_MOVE);
+        synchronized (this) {
+            spoolSizeBytes += Files.size(file);
+        }
+        pendingFiles.add(file);
+    }
+
+    /**
+     * Discard an uncommitted spool file
+     */
+    public void discard(String fileName) throws IOException {
+        Files.deleteIfExists(tmpFileOf(fileName));
+    }
+
+    /**
+     * Block until the spool has room for more files
+     */
+    public synchronized void awaitCapacity() throws InterruptedException {
+        while (spoolSizeBytes >= maxSizeBytes) {
+            log.warn("Spool directory {} is full ({} bytes). Waiting for uploads to complete.", spoolDir, spoolSizeBytes);
+            wait(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    /**
+     * Block until all committed files have been uploaded, or until the timeout has elapsed
+     *
+     * @return true if all committed files were uploaded, false if the timeout elapsed first
+     */
+    public synchronized boolean awaitEmpty(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (! pendingFiles.isEmpty()) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) {
+                return false;
+            }
+            wait(Math.min(remainingMillis, TimeUnit.SECONDS.toMillis(10)));
+        }
+        return true;
+    }
+
+    /**
+     * Register a callback that is invoked with the file name of each spooled file that has been uploaded
+     */
+    public void setUploadListener(Consumer<String> uploadListener) {
+        this.uploadListener = uploadListener;
+    }
+
+    public synchronized long getSpoolSizeBytes() {
+        return spoolSizeBytes;
+    }
+
+    public int getPendingFileCount() {
+        return pendingFiles.size();
+    }
+
+    public long getUploadFailureCount() {
+        return uploadFailureCount;
+    }
+
+    private void uploadLoop() {
+        discardIncompleteUploads();
+        Duration backoff = INITIAL_BACKOFF;
+        while (running) {
+            Path file = pendingFiles.peekFirst();
+            try {
+                if (file == null) {
+                    TimeUnit.MILLISECONDS.sleep(200);
+                    continue;
+                }
+
+                long size = Files.size(file);
+                upload(file);
+                Files.delete(file);
+                notifyUploaded(file.getFileName().toString());
+                pendingFiles.removeFirst();
+                synchronized (this) {
+                    spoolSizeBytes -= size;
+                    notifyAll();
+                }
+                backoff = INITIAL_BACKOFF;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (Exception e) {
+                uploadFailureCount++;
+                log.warn("Error uploading spooled file {}. Retrying in {} seconds", file, backoff.toSeconds(), e);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(backoff.toMillis());
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoff = backoff.multipliedBy(2).compareTo(MAX_BACKOFF) > 0 ? MAX_BACKOFF : backoff.multipliedBy(2);
+            }
+        }
+    }
+
+    private void notifyUploaded(String fileName) {
+        try {
+            uploadListener.accept(fileName);
+        }
+        catch (Exception e) {
+            log.warn("Error notifying upload of spooled file " + fileName, e);
+        }
+    }
+
+    /**
+     * Delete temporary objects of uploads that were interrupted (e.g. by the process being killed) before they
+     * were moved into place. The spooled files of these uploads are still in the spool directory, and are
+     * uploaded again.
+     */
+    private void discardIncompleteUploads() {
+        try {
+            List<String> incompleteUploads = binaryBackend.list(targetPathPrefix)
+              .map(FileInfo::getPath)
+              .filter(path -> {
+                  String name = path.substring(path.lastIndexOf('/') + 1);
+                  return name.startsWith(".") && name.endsWith(UPLOADING_SUFFIX);
+              })
+              .toList()
+              .blockingGet();
+            for (String path : incompleteUploads) {
+                log.info("Discard incomplete upload {}", path);
+                deleteQuietly(path);
+            }
+        }
+        catch (Exception e) {
+            log.warn("Unable to look for incomplete uploads in " + targetPathPrefix, e);
+        }
+    }
+
+    /**
+     * Upload a spooled file to a temporary object, and move it into place once the upload is complete. The
+     * temporary object of a failed upload is deleted (or overwritten by the next attempt).
+     */
+    private void upload(Path file) throws IOException {
+        String fileName = file.getFileName().toString();
+        String targetPath = targetPathPrefix + "/" + fileName;
+        String tmpPath = targetPathPrefix + "/." + fileName + UPLOADING_SUFFIX;
+        ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        try {
+            try (SeekableByteChannel in = Files.newByteChannel(file);
+                 SeekableByteChannel out = binaryBackend.write(tmpPath)) {
+                while (in.read(buffer) != -1 || buffer.position() > 0) {
+                    buffer.flip();
+                    out.write(buffer);
+                    buffer.compact();
+                }
+            }
+            binaryBackend.move(tmpPath, targetPath);
+        }
+        catch (IOException | RuntimeException e) {
+            deleteQuietly(tmpPath);
+            throw e;
+        }
+        log.debug("Uploaded spooled file {} to {}", file, targetPath);
+    }
+
+    private void deleteQuietly(String path) {
+        try {
+            binaryBackend.delete(path);
+        }
+        catch (Exception e) {
+            log.debug("Unable to delete " + path, e);
+        }
+    }
+
+    private Path tmpFileOf(String fileName) {
+        return spoolDir.resolve(fileName + TMP_SUFFIX);
+    }
+
+    /**
+     * Stop uploading. Files that have not been uploaded are kept in the spool directory, and will be uploaded
+     * the next time a spool is created for the same directory.
+     */
+    @Override
+    public void close() {
+        running = false;
+        uploaderThread.interrupt();
+        if (! pendingFiles.isEmpty()) {
+            log.warn("Closing spool directory {} with {} files not yet uploaded", spoolDir, pendingFiles.size());
+        }
+    }
+
+    public static class DatasetSpoolException extends RawdataConverterException {
+        public DatasetSpoolException(String message) {
+            super(message);
+        }
+
+        public DatasetSpoolException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -3,14 +3,12 @@ package no.ssb.rawdata.converter.core.storage;
 import io.micronaut.context.annotation.Factory;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import no.ssb.dapla.storage.client.DatasetStorage;
-import no.ssb.dapla.storage.client.ParquetProvider;
-import no.ssb.dapla.storage.client.WriteExceptionHandler;
-import org.apache.avro.generic.GenericRecord;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import no.ssb.dapla.dataset.uri.DatasetUri;
+import no.ssb.dapla.storage.client.backend.BinaryBackend;
+import no.ssb.rawdata.converter.core.job.ConverterJobConfig;
+import no.ssb.rawdata.converter.util.DatasetUriBuilder;
 
-import java.util.Optional;
+import java.nio.file.Path;
 
 @Factory
 @RequiredArgsConstructor
@@ -19,35 +17,89 @@ public class DatasetStorageFactory {
 
     private final BinaryBackendFactory binaryBackendFactory;
 
-    public DatasetStorage datasetStorageOf(StorageType storageType, String saKeyFile) {
-        int parquetRowGroupSize = 64 * 1024 * 1024;
-        int parquetPageSize = 8 * 1024 * 1024;
+    /**
+     * Create a LastPositionFinder for datasets in the given storage
+     */
+    public LastPositionFinder lastPositionFinderOf(StorageType storageType, String saKeyFile) {
+        return new LastPositionFinder(binaryBackendFactory.lease(storageType, saKeyFile));
+    }
 
-        return DatasetStorage.builder()
-          .withParquetProvider(new ParquetProvider(parquetRowGroupSize, parquetPageSize))
-          .withBinaryBackend(binaryBackendFactory.binaryBackendOf(storageType, saKeyFile))
-          //.withWriteExceptionHandler(new CustomWriteExceptionHandler())
+    /**
+     * Create a DatasetDedupIndex of the target dataset, bringing the stored index up to date with the data files
+     * of the dataset
+     */
+    public DatasetDedupIndex datasetDedupIndexOf(ConverterJobConfig.TargetStorage targetStorage) {
+        DatasetUri datasetUri = DatasetUriBuilder.of()
+          .root(targetStorage.getRoot())
+          .path(targetStorage.getPath())
+          .version(targetStorage.getVersion())
           .build();
+        return DatasetDedupIndex.of(binaryBackendFactory.lease(StorageType.of(targetStorage.getRoot()), targetStorage.getSaKeyFile()), datasetUri.toString());
     }
 
-    // TODO: Remove this?
-    static class CustomWriteExceptionHandler implements WriteExceptionHandler {
+    /**
+     * Create a DatasetWriter that writes parquet files to the target storage, closing and uploading each
+     * completed file in the background
+     */
+    public DatasetWriter datasetWriterOf(ConverterJobConfig jobConfig, TunedParquetProvider parquetProvider) {
+        ConverterJobConfig.TargetStorage targetStorage = jobConfig.getTargetStorage();
+        ConverterJobConfig.ConverterSettings converterSettings = jobConfig.getConverterSettings();
+        BinaryBackendLease backendLease = binaryBackendFactory.lease(StorageType.of(targetStorage.getRoot()), targetStorage.getSaKeyFile());
 
-        private static final Logger log = LoggerFactory.getLogger(CustomWriteExceptionHandler.class);
+        return DatasetWriter.builder()
+          .backendLease(backendLease)
+          .parquetProvider(parquetProvider)
+          .maxInFlightUploads(converterSettings.getMaxInFlightUploads())
+          .spool((targetStorage.getSpoolPath() == null) ? null : datasetSpoolOf(targetStorage, backendLease.getBackend()))
+          .uploadTimeout(targetStorage.uploadTimeoutOrDefault())
+          .deadLetterEnabled(converterSettings.getWriteExceptionPolicy() == ConverterJobConfig.ConverterSettings.WriteExceptionPolicy.DEAD_LETTER)
+          .maxDeadLetterRecords(converterSettings.getMaxDeadLetterRecords())
+          .build();
+    }
 
-        @Override
-        public Optional<GenericRecord> handleException(Exception e, GenericRecord record) {
-            String exceptionMsg = Optional.ofNullable(e.getMessage()).orElse("");
+    /**
+     * Create a DatasetSpool for the target dataset. Files that were spooled but not uploaded by a previous run
+     * are uploaded before this method returns, so that they are taken into account when resolving the position
+     * to resume conversion from. Fails if the files have not been uploaded within the upload timeout.
+     */
+    private DatasetSpool datasetSpoolOf(ConverterJobConfig.TargetStorage targetStorage, BinaryBackend binaryBackend) {
+        DatasetUri datasetUri = DatasetUriBuilder.of()
+          .root(targetStorage.getRoot())
+          .path(targetStorage.getPath())
+          .version(targetStorage.getVersion())
+          .build();
+        Path spoolDir = Path.of(targetStorage.getSpoolPath()).resolve(datasetUri.toString().replaceAll("[^A-Za-z0-9._-]", "_"));
+        log.info("Spool parquet files for {} in {}", datasetUri, spoolDir);
+        DatasetSpool spool = new DatasetSpool(spoolDir, datasetUri.toString(), binaryBackend, targetStorage.spoolMaxSizeBytesOrDefault());
 
-            if (exceptionMsg.contains("Array contains a null element at")) {
-                log.warn("Error writing record with array containing null elements:\n" + record, e);
+        if (spool.getPendingFileCount() > 0) {
+            log.info("Uploading {} spooled files from a previous run", spool.getPendingFileCount());
+            try {
+                if (! spool.awaitEmpty(targetStorage.uploadTimeoutOrDefault())) {
+                    int pendingFileCount = spool.getPendingFileCount();
+                    spool.close();
+                    throw new DatasetSpool.DatasetSpoolException(String.format(
+                      "Timed out after %s uploading spooled files from a previous run to %s. %d files are still pending in %s",
+                      targetStorage.uploadTimeoutOrDefault(), datasetUri, pendingFileCount, spoolDir));
+                }
             }
-            else if (e instanceof RuntimeException) {
-                log.warn("Error writing record:\n" + record, e);
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                spool.close();
+                throw new DatasetSpool.DatasetSpoolException("Interrupted while uploading spooled files", e);
             }
-
-            return Optional.empty();
         }
+
+        return spool;
+    }
+
+    /**
+     * Create a ParquetProvider with the effective parquet writer settings of a target storage config
+     */
+    public TunedParquetProvider parquetProviderOf(ConverterJobConfig.TargetStorage targetStorage) {
+        ParquetWriterSettings settings = ParquetWriterSettings.of(targetStorage);
+        log.info("Parquet writer settings for {}: {}", targetStorage.getPath(), settings);
+        return new TunedParquetProvider(settings);
     }
 
 }
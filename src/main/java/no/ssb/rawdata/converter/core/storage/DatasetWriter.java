@@ -0,0 +1,396 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import no.ssb.dapla.dataset.uri.DatasetUri;
+import no.ssb.dapla.storage.client.backend.BinaryBackend;
+import no.ssb.rawdata.converter.core.convert.ColumnarRecord;
+import no.ssb.rawdata.converter.core.exception.RawdataConverterException;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.parquet.hadoop.ParquetWriter;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>Writes an unbounded stream of records to a dataset as a sequence of parquet files, one file per window.</p>
+ *
+ * <p>Windows are double buffered: when a window is complete, its parquet writer is closed (which flushes the
+ * last row group and finalizes the upload) on a separate I/O thread, while the records of the next window are
+ * written to a fresh parquet writer. Windows are closed one by one in the order they were written, so a file
+ * is never completed before the files preceding it.</p>
+ *
+ * <p>If a {@link DatasetSpool} is used, files are written to a local spool directory and uploaded to the dataset
+ * storage by the spool. Otherwise files are written directly to the dataset storage.</p>
+ *
+ * <p>If dead-lettering is enabled, records that do not conform to the schema or that otherwise fail to be written
+ * are stored in a dead-letter avro file next to the parquet file of the window, and the window is kept going.
+ * This relies on the parquet writers of the {@link TunedParquetProvider}, that only pass complete records on to
+ * the columns of the file, so a record that fails halfway through being written does not corrupt the file. If
+ * the number of dead-lettered records exceeds the configured max, the record stream is failed.</p>
+ *
+ * <p>A {@link DatasetIndex} of the dataset is updated with the ULID range of each file once the file has been
+ * stored.</p>
+ *
+ * <p>The number of windows waiting to be closed is bounded. When the limit is reached, the writing thread blocks
+ * before opening the next window, thus applying backpressure to the conversion. Errors that occur while closing
+ * a window are reported by failing the record stream.</p>
+ */
+@Slf4j
+public class DatasetWriter implements AutoCloseable {
+
+    /**
+     * Hidden directory (ignored by parquet readers) within the dataset that holds dead-lettered records
+     */
+    static final String DEAD_LETTER_DIR = ".dead-letter";
+
+    private static final Duration DEFAULT_UPLOAD_TIMEOUT = Duration.ofHours(1);
+
+    private final BinaryBackendLease backendLease;
+    private final BinaryBackend binaryBackend;
+    private final TunedParquetProvider parquetProvider;
+    private final DatasetSpool spool;
+    private final boolean deadLetterEnabled;
+    private final long maxDeadLetterRecords;
+    private final AtomicLong deadLetterCount = new AtomicLong();
+    private final int maxPendingWindows;
+    private final Duration uploadTimeout;
+
+    /**
+     * Permits for open or pending windows. The window currently being written holds one permit, and each window
+     * waiting to be closed holds one permit until it is closed.
+     */
+    private final Semaphore windowPermits;
+    private final ExecutorService uploadExecutor;
+    private final AtomicReference<Throwable> uploadError = new AtomicReference<>();
+    private final AtomicLong lastFileTimestamp = new AtomicLong();
+
+    /**
+     * Index entries of spooled files, added to the index once the spool has uploaded them
+     */
+    private final Map<String, DatasetIndex.Entry> entriesAwaitingUpload = new ConcurrentHashMap<>();
+    private volatile String datasetPath;
+
+    /**
+     * @param spool local spool to write files to before they are uploaded, or null to write directly to storage
+     * @param deadLetterEnabled if true, records that fail to be written are dead-lettered instead of failing the stream
+     * @param maxDeadLetterRecords the max number of records that can be dead-lettered before failing the stream
+     * @param uploadTimeout the max time to wait for the last files to be uploaded when the records are complete.
+     *                      Defaults to 1 hour.
+     */
+    @Builder
+    private DatasetWriter(@NonNull BinaryBackendLease backendLease, @NonNull TunedParquetProvider parquetProvider, int maxInFlightUploads,
+                          DatasetSpool spool, boolean deadLetterEnabled, long maxDeadLetterRecords, Duration uploadTimeout) {
+        if (maxInFlightUploads < 1) {
+            throw new IllegalArgumentException("maxInFlightUploads must be at least 1, but was " + maxInFlightUploads);
+        }
+        this.backendLease = backendLease;
+        this.binaryBackend = backendLease.getBackend();
+        this.parquetProvider = parquetProvider;
+        this.spool = spool;
+        this.deadLetterEnabled = deadLetterEnabled;
+        this.maxDeadLetterRecords = maxDeadLetterRecords;
+        this.uploadTimeout = Optional.ofNullable(uploadTimeout).orElse(DEFAULT_UPLOAD_TIMEOUT);
+        this.maxPendingWindows = maxInFlightUploads + 1;
+        this.windowPermits = new Semaphore(maxPendingWindows);
+        this.uploadExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "dataset-writer-upload");
+            t.setDaemon(true);
+            return t;
+        });
+        if (spool != null) {
+            spool.setUploadListener(fileName -> Optional.ofNullable(entriesAwaitingUpload.remove(fileName)).ifPresent(this::updateIndex));
+        }
+    }
+
+    /**
+     * Write records to the dataset, starting a new parquet file whenever the time or count window is exceeded.
+     *
+     * @return a Flowable that emits the path of each parquet file that is handed off for upload, and that
+     * completes when all files have been uploaded
+     */
+    public Flowable<String> writeDataUnbounded(DatasetUri datasetUri, Schema schema, Flowable<GenericRecord> records,
+                                               long timeWindow, TimeUnit unit, long countWindow) {
+        return Completable.fromAction(() -> datasetPath = datasetUri.toString())
+          .andThen(records
+            .window(timeWindow, unit, countWindow, true)
+            .concatMapMaybe(window -> writeWindow(datasetUri, schema, window)))
+          .concatWith(Completable.fromAction(this::awaitUploads));
+    }
+
+    /**
+     * Add an entry to the dataset index. The index is advisory, so failing to update it does not fail the write.
+     */
+    private void updateIndex(DatasetIndex.Entry entry) {
+        try {
+            DatasetIndex.update(binaryBackend, datasetPath, index -> index.add(entry));
+        }
+        catch (Exception e) {
+            log.warn("Unable to update ULID index of " + datasetPath, e);
+        }
+    }
+
+    private Maybe<String> writeWindow(DatasetUri datasetUri, Schema schema, Flowable<GenericRecord> window) {
+        return Maybe.defer(() -> {
+            WindowFile windowFile = new WindowFile(datasetUri, schema);
+            return window
+              .doOnNext(windowFile::write)
+              .doOnError(e -> windowFile.abort())
+              .ignoreElements()
+              .andThen(Maybe.defer(() -> closeAsync(windowFile)));
+        });
+    }
+
+    private Maybe<String> closeAsync(WindowFile windowFile) {
+        if (! windowFile.isOpen()) {
+            return Maybe.empty();
+        }
+
+        uploadExecutor.execute(() -> {
+            try {
+                windowFile.close();
+                log.debug("Wrote {} records to {}", windowFile.recordCount, windowFile.path);
+            }
+            catch (Exception e) {
+                log.error("Error closing parquet file " + windowFile.path, e);
+                uploadError.compareAndSet(null, new DatasetWriterException("Error closing parquet file " + windowFile.path, e));
+            }
+            finally {
+                windowPermits.release();
+            }
+        });
+
+        return Maybe.just(windowFile.path);
+    }
+
+    /**
+     * Block until all pending windows have been closed and uploaded, failing if this takes longer than the
+     * upload timeout
+     */
+    void awaitUploads() throws InterruptedException {
+        long deadline = System.nanoTime() + uploadTimeout.toNanos();
+        if (! windowPermits.tryAcquire(maxPendingWindows, uploadTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+            throw new DatasetWriterException("Timed out after " + uploadTimeout + " waiting for parquet files of " + datasetPath + " to be closed and uploaded");
+        }
+        windowPermits.release(maxPendingWindows);
+        checkUploadError();
+        if (spool != null && ! spool.awaitEmpty(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())))) {
+            throw new DatasetWriterException("Timed out after " + uploadTimeout + " waiting for " + spool.getPendingFileCount()
+              + " spooled parquet files to be uploaded to " + datasetPath);
+        }
+    }
+
+    private void checkUploadError() {
+        Throwable e = uploadError.getAndSet(null);
+        if (e != null) {
+            throw (e instanceof DatasetWriterException) ? (DatasetWriterException) e : new DatasetWriterException("Error uploading parquet file", e);
+        }
+    }
+
+    /**
+     * @return a file name (millis since epoch) that is unique and increasing for this writer
+     */
+    private String nextFileName() {
+        return lastFileTimestamp.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis())) + ".parquet";
+    }
+
+    /**
+     * @return the number of records that have been dead-lettered
+     */
+    public long getDeadLetterCount() {
+        return deadLetterCount.get();
+    }
+
+    public Optional<DatasetSpool> getSpool() {
+        return Optional.ofNullable(spool);
+    }
+
+    /**
+     * Close the writer. Windows that are still being written or waiting to be closed are completed first, so that
+     * the last file of a record stream that is completing while the writer is closed is not lost.
+     */
+    @Override
+    public void close() {
+        try {
+            if (windowPermits.tryAcquire(maxPendingWindows, 5, TimeUnit.MINUTES)) {
+                windowPermits.release(maxPendingWindows);
+            }
+            else {
+                log.warn("Timed out waiting for pending parquet files to be completed");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        uploadExecutor.shutdown();
+        try {
+            if (! uploadExecutor.awaitTermination(5, TimeUnit.MINUTES)) {
+                log.warn("Timed out waiting for pending parquet uploads to complete");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (spool != null) {
+            spool.close();
+        }
+        backendLease.close();
+    }
+
+    private class WindowFile {
+        private final DatasetUri datasetUri;
+        private final Schema schema;
+        private String fileName;
+        private String path;
+        private SeekableByteChannel channel;
+        private ParquetWriter<GenericRecord> writer;
+        private DeadLetterFile deadLetterFile;
+        private final DatasetIndex.EntryCollector indexEntry = new DatasetIndex.EntryCollector();
+        private long recordCount;
+
+        WindowFile(DatasetUri datasetUri, Schema schema) {
+            this.datasetUri = datasetUri;
+            this.schema = schema;
+        }
+
+        boolean isOpen() {
+            return writer != null;
+        }
+
+        void write(GenericRecord record) throws IOException, InterruptedException {
+            if (writer == null) {
+                open();
+            }
+            if (! deadLetterEnabled) {
+                writeRecord(record);
+                return;
+            }
+
+            String error = null;
+            if (! (record instanceof ColumnarRecord)) { // checked as they are written, validating would materialize them
+                try {
+                    error = GenericData.get().validate(schema, record) ? null : "Record does not conform to schema";
+                }
+                catch (RuntimeException e) {
+                    error = e.toString();
+                }
+            }
+            if (error == null) {
+                try {
+                    writeRecord(record);
+                    return;
+                }
+                catch (RuntimeException e) {
+                    error = e.toString();
+                }
+            }
+            deadLetter(record, error);
+        }
+
+        private void writeRecord(GenericRecord record) throws IOException {
+            writer.write(record);
+            recordCount++;
+            indexEntry.add(record);
+        }
+
+        private void deadLetter(GenericRecord record, String error) throws IOException {
+            long count = deadLetterCount.incrementAndGet();
+            if (count > maxDeadLetterRecords) {
+                throw new DatasetWriterException("Max number of dead-lettered records (" + maxDeadLetterRecords + ") exceeded. Last error: " + error);
+            }
+            if (deadLetterFile == null) {
+                deadLetterFile = new DeadLetterFile(binaryBackend, datasetUri.toString() + "/" + DEAD_LETTER_DIR + "/" + fileName.replace(".parquet", ".avro"));
+            }
+            deadLetterFile.append(record, error);
+            log.warn("Dead-lettered record {} ({}/{}) to {}: {}", DatasetIndex.ulidOf(record), count, maxDeadLetterRecords, deadLetterFile.getPath(), error);
+        }
+
+        private void open() throws IOException, InterruptedException {
+            checkUploadError();
+            if (spool != null) {
+                spool.awaitCapacity();
+            }
+            windowPermits.acquire();
+            try {
+                fileName = nextFileName();
+                path = datasetUri.toString() + "/" + fileName;
+                channel = (spool != null) ? spool.create(fileName) : binaryBackend.write(path);
+                writer = parquetProvider.getWriter(channel, schema);
+            }
+            catch (IOException | RuntimeException e) {
+                windowPermits.release();
+                throw e;
+            }
+        }
+
+        void close() throws IOException {
+            if (deadLetterFile != null) {
+                deadLetterFile.close();
+            }
+            writer.close();
+            Optional<DatasetIndex.Entry> entry = indexEntry.toEntry(fileName);
+            if (spool != null) {
+                entry.ifPresent(e -> entriesAwaitingUpload.put(fileName, e));
+                spool.commit(fileName);
+            }
+            else {
+                entry.ifPresent(DatasetWriter.this::updateIndex);
+            }
+        }
+
+        /**
+         * Discard a window that could not be completed. The partially written file is deleted, so that the
+         * records of the window will be converted again when the job is resumed.
+         */
+        void abort() {
+            if (! isOpen()) {
+                return;
+            }
+            try {
+                if (deadLetterFile != null) {
+                    deadLetterFile.close();
+                }
+                channel.close();
+                if (spool != null) {
+                    spool.discard(fileName);
+                }
+                else {
+                    binaryBackend.delete(path);
+                }
+            }
+            catch (Exception e) {
+                log.warn("Unable to clean up aborted parquet file " + path, e);
+            }
+            finally {
+                writer = null;
+                windowPermits.release();
+            }
+        }
+    }
+
+    public static class DatasetWriterException extends RawdataConverterException {
+        public DatasetWriterException(String message) {
+            super(message);
+        }
+
+        public DatasetWriterException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import no.ssb.dapla.storage.client.backend.BinaryBackend;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+/**
+ * <p>Avro file holding records that could not be written to a parquet file, along with the source ULID and the
+ * reason for the failure.</p>
+ *
+ * <p>Failed records do not necessarily conform to their schema, so they are stored as their JSON representation
+ * rather than in binary form.</p>
+ */
+class DeadLetterFile implements Closeable {
+
+    static final Schema DEAD_LETTER_SCHEMA = SchemaBuilder.record("DeadLetterRecord").namespace("no.ssb.rawdata.converter")
+      .fields()
+      .optionalString("ulid")
+      .requiredString("error")
+      .requiredString("record")
+      .endRecord();
+
+    private final BinaryBackend binaryBackend;
+    private final String path;
+    private DataFileWriter<GenericRecord> fileWriter;
+
+    DeadLetterFile(BinaryBackend binaryBackend, String path) {
+        this.binaryBackend = binaryBackend;
+        this.path = path;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    void append(GenericRecord record, String error) throws IOException {
+        if (fileWriter == null) {
+            fileWriter = new DataFileWriter<GenericRecord>(new GenericDatumWriter<>(DEAD_LETTER_SCHEMA))
+              .setCodec(CodecFactory.deflateCodec(CodecFactory.DEFAULT_DEFLATE_LEVEL));
+            fileWriter.create(DEAD_LETTER_SCHEMA, Channels.newOutputStream(binaryBackend.write(path)));
+        }
+
+        GenericRecord deadLetter = new GenericData.Record(DEAD_LETTER_SCHEMA);
+        deadLetter.put("ulid", DatasetIndex.ulidOf(record));
+        deadLetter.put("error", error);
+        deadLetter.put("record", jsonOf(record));
+        fileWriter.append(deadLetter);
+    }
+
+    /**
+     * @return the JSON representation of the record, or a placeholder if the record cannot produce its values
+     * (e.g. a ColumnarRecord whose write function fails)
+     */
+    private static String jsonOf(GenericRecord record) {
+        try {
+            return String.valueOf(record);
+        }
+        catch (RuntimeException e) {
+            return "<unavailable: " + e + ">";
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileWriter != null) {
+            fileWriter.close();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import de.huxhorn.sulky.ulid.ULID;
+import lombok.extern.slf4j.Slf4j;
+import no.ssb.dapla.dataset.uri.DatasetUri;
+import no.ssb.dapla.storage.client.backend.BinaryBackend;
+import no.ssb.dapla.storage.client.backend.FileInfo;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.column.statistics.Statistics;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroup;
+import org.apache.parquet.example.data.simple.convert.GroupRecordConverter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.io.ColumnIOFactory;
+import org.apache.parquet.io.MessageColumnIO;
+import org.apache.parquet.io.RecordReader;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.MessageType;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Finds the ULID of the last rawdata message that has been converted to a dataset.</p>
+ *
+ * <p>The last data file of the dataset is determined by file name (files are named by creation time), falling
+ * back to modification time for files not following this naming. Within the file, the max ULID is read from the
+ * column statistics in the parquet footer, so that the file contents do not need to be read. ULIDs are fixed
+ * length base32 strings that sort lexicographically, so the max value of the statistics is the latest ULID.
+ * If the statistics are missing (e.g. for files written by older writers), only the final row group of the file
+ * is read.</p>
+ *
+ * <p>If the {@link DatasetIndex} of the dataset covers the last data file, the ULID is taken from the index.</p>
+ *
+ * <p>Note that parquet writers record min/max statistics for every column chunk by default, and that the
+ * ULID values are far below the size at which binary statistics are omitted.</p>
+ */
+@Slf4j
+public class LastPositionFinder implements AutoCloseable {
+
+    static final String ULID_COLUMN_PATH = "manifest.collector.ulid";
+    private static final Pattern TIMESTAMP_NAMED_FILE = Pattern.compile("^\\d+\\.parquet$");
+
+    private final BinaryBackendLease backendLease;
+    private final BinaryBackend binaryBackend;
+
+    public LastPositionFinder(BinaryBackendLease backendLease) {
+        this.backendLease = backendLease;
+        this.binaryBackend = backendLease.getBackend();
+    }
+
+    /**
+     * @return the latest ULID found in the dataset, or empty if the dataset has no data files
+     */
+    public Optional<ULID.Value> findLastPosition(DatasetUri datasetUri) throws IOException {
+        Optional<FileInfo> lastFile = lastDataFileOf(datasetUri.toString());
+        if (lastFile.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Optional<ULID.Value> indexedLastUlid = lastUlidFromIndex(datasetUri.toString(), fileNameOf(lastFile.get().getPath()));
+        return indexedLastUlid.isPresent() ? indexedLastUlid : lastUlidOf(lastFile.get().getPath());
+    }
+
+    /**
+     * @return the latest ULID recorded by the dataset index, provided that the index covers the last data file
+     */
+    private Optional<ULID.Value> lastUlidFromIndex(String datasetPath, String lastFileName) {
+        try {
+            return DatasetIndex.load(binaryBackend, datasetPath).getLast()
+              .filter(entry -> entry.getFileName().equals(lastFileName))
+              .map(entry -> ULID.parseULID(entry.getUlidMax()));
+        }
+        catch (Exception e) {
+            log.warn("Unable to read ULID index of " + datasetPath, e);
+            return Optional.empty();
+        }
+    }
+
+    private Optional<FileInfo> lastDataFileOf(String datasetPath) {
+        List<FileInfo> dataFiles = binaryBackend.list(datasetPath)
+          .filter(f -> {
+              String name = fileNameOf(f.getPath());
+              return name.endsWith(".parquet") && ! name.startsWith(".");
+          })
+          .toList()
+          .blockingGet();
+
+        Optional<FileInfo> lastTimestampNamedFile = dataFiles.stream()
+          .filter(f -> TIMESTAMP_NAMED_FILE.matcher(fileNameOf(f.getPath())).matches())
+          .max(Comparator.comparing(f -> Long.parseLong(fileNameOf(f.getPath()).replace(".parquet", ""))));
+
+        return lastTimestampNamedFile.isPresent()
+          ? lastTimestampNamedFile
+          : dataFiles.stream().max(Comparator.comparing(FileInfo::getLastModified));
+    }
+
+    /**
+     * @return the latest ULID of a parquet file
+     */
+    Optional<ULID.Value> lastUlidOf(String path) throws IOException {
+        try (ParquetFileReader reader = ParquetFileReader.open(new ChannelInputFile(binaryBackend.read(path)))) {
+            List<BlockMetaData> rowGroups = reader.getFooter().getBlocks();
+            if (rowGroups.isEmpty()) {
+                return Optional.empty();
+            }
+
+            Optional<String> maxUlid = maxUlidFromStatistics(rowGroups);
+            if (maxUlid.isPresent()) {
+                log.debug("Found last ULID {} from column statistics of {}", maxUlid.get(), path);
+                return maxUlid.map(ULID::parseULID);
+            }
+
+            log.info("No ULID column statistics found in {}. Reading final row group.", path);
+            return Optional.ofNullable(lastUlidOfFinalRowGroup(reader, rowGroups.size()));
+        }
+    }
+
+    private static Optional<String> maxUlidFromStatistics(List<BlockMetaData> rowGroups) {
+        String max = null;
+        for (BlockMetaData rowGroup : rowGroups) {
+            ColumnChunkMetaData ulidColumn = rowGroup.getColumns().stream()
+              .filter(c -> ULID_COLUMN_PATH.equals(c.getPath().toDotString()))
+              .findFirst()
+              .orElse(null);
+            Statistics<?> stats = (ulidColumn == null) ? null : ulidColumn.getStatistics();
+            if (stats == null || stats.isEmpty() || ! stats.hasNonNullValue()) {
+                return Optional.empty(); // incomplete statistics can not be trusted
+            }
+
+            String rowGroupMax = ((Binary) stats.genericGetMax()).toStringUsingUTF8();
+            if (max == null || rowGroupMax.compareTo(max) > 0) {
+                max = rowGroupMax;
+            }
+        }
+        return Optional.ofNullable(max);
+    }
+
+    private static ULID.Value lastUlidOfFinalRowGroup(ParquetFileReader reader, int rowGroupCount) throws IOException {
+        MessageType fileSchema = reader.getFooter().getFileMetaData().getSchema();
+        reader.setRequestedSchema(UlidVisitor.ULID_PROJECTION_SCHEMA);
+        for (int i = 0; i < rowGroupCount - 1; i++) {
+            reader.skipNextRowGroup();
+        }
+
+        PageReadStore rowGroup = reader.readNextRowGroup();
+        MessageColumnIO columnIO = new ColumnIOFactory().getColumnIO(UlidVisitor.ULID_PROJECTION_SCHEMA, fileSchema);
+        RecordReader<Group> recordReader = columnIO.getRecordReader(rowGroup, new GroupRecordConverter(UlidVisitor.ULID_PROJECTION_SCHEMA));
+        UlidVisitor ulidVisitor = new UlidVisitor();
+        for (long i = 0; i < rowGroup.getRowCount(); i++) {
+            ulidVisitor.visit((SimpleGroup) recordReader.read());
+        }
+        return ulidVisitor.getLatest();
+    }
+
+    private static String fileNameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    @Override
+    public void close() {
+        backendLease.close();
+    }
+}
@@ -0,0 +1,225 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import no.ssb.rawdata.converter.core.convert.ColumnWriter;
+import no.ssb.rawdata.converter.core.convert.ColumnarRecord;
+import org.apache.avro.Schema;
+import org.apache.parquet.io.api.Binary;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static no.ssb.rawdata.converter.util.AvroSchemaUtil.nonNullTypeOf;
+
+/**
+ * <p>{@link ColumnWriter} that writes values straight to a parquet
+ * {@link org.apache.parquet.io.api.RecordConsumer}, producing the same column layout as the parquet Avro writer
+ * does for the Avro schema of the record.</p>
+ *
+ * <p>Arrays are written using the (default) two-level list structure of the parquet Avro writer, where the
+ * elements of an array are repeated values of a single field named "array".</p>
+ */
+class ParquetColumnWriter implements ColumnWriter {
+
+    private static final String ARRAY_ELEMENT_FIELD = "array";
+
+    private final BufferedRecordConsumer recordConsumer;
+    private final Schema schema;
+    private final Deque<Frame> frames = new ArrayDeque<>();
+
+    ParquetColumnWriter(BufferedRecordConsumer recordConsumer, Schema schema) {
+        this.recordConsumer = recordConsumer;
+        this.schema = schema;
+    }
+
+    /**
+     * Write a record as a parquet message. The write function of the record may fail halfway through the
+     * record, so values are written to a {@link BufferedRecordConsumer}, that only passes complete messages on
+     * to the column writers.
+     */
+    void write(ColumnarRecord record) {
+        frames.clear();
+        frames.push(new Frame(schema));
+        recordConsumer.startMessage();
+        record.writeTo(this);
+        if (frames.size() != 1) {
+            throw new IllegalStateException("Unbalanced start/end calls: " + (frames.size() - 1) + " records or arrays were not ended");
+        }
+        recordConsumer.endMessage();
+    }
+
+    @Override
+    public ColumnWriter string(String field, CharSequence value) {
+        if (value != null) {
+            Frame frame = startValue(field, Schema.Type.STRING);
+            recordConsumer.addBinary(Binary.fromString(value.toString()));
+            frame.endValue();
+        }
+        return this;
+    }
+
+    @Override
+    public ColumnWriter int32(String field, int value) {
+        Frame frame = startValue(field, Schema.Type.INT);
+        recordConsumer.addInteger(value);
+        frame.endValue();
+        return this;
+    }
+
+    @Override
+    public ColumnWriter int64(String field, long value) {
+        Frame frame = startValue(field, Schema.Type.LONG);
+        recordConsumer.addLong(value);
+        frame.endValue();
+        return this;
+    }
+
+    @Override
+    public ColumnWriter float32(String field, float value) {
+        Frame frame = startValue(field, Schema.Type.FLOAT);
+        recordConsumer.addFloat(value);
+        frame.endValue();
+        return this;
+    }
+
+    @Override
+    public ColumnWriter float64(String field, double value) {
+        Frame frame = startValue(field, Schema.Type.DOUBLE);
+        recordConsumer.addDouble(value);
+        frame.endValue();
+        return this;
+    }
+
+    @Override
+    public ColumnWriter bool(String field, boolean value) {
+        Frame frame = startValue(field, Schema.Type.BOOLEAN);
+        recordConsumer.addBoolean(value);
+        frame.endValue();
+        return this;
+    }
+
+    @Override
+    public ColumnWriter bytes(String field, byte[] value) {
+        if (value != null) {
+            Frame frame = startValue(field, Schema.Type.BYTES, Schema.Type.FIXED);
+            recordConsumer.addBinary(Binary.fromConstantByteArray(value));
+            frame.endValue();
+        }
+        return this;
+    }
+
+    @Override
+    public ColumnWriter symbol(String field, String value) {
+        if (value != null) {
+            Frame frame = startValue(field, Schema.Type.ENUM);
+            recordConsumer.addBinary(Binary.fromString(value));
+            frame.endValue();
+        }
+        return this;
+    }
+
+    @Override
+    public ColumnWriter startRecord(String field) {
+        Frame parent = frames.peek();
+        Schema recordSchema = parent.startValue(field, Schema.Type.RECORD);
+        recordConsumer.startGroup();
+        frames.push(new Frame(recordSchema));
+        return this;
+    }
+
+    @Override
+    public ColumnWriter endRecord() {
+        end(Schema.Type.RECORD);
+        return this;
+    }
+
+    @Override
+    public ColumnWriter startArray(String field) {
+        Frame parent = frames.peek();
+        Schema arraySchema = parent.startValue(field, Schema.Type.ARRAY);
+        recordConsumer.startGroup();
+        frames.push(new Frame(arraySchema));
+        return this;
+    }
+
+    @Override
+    public ColumnWriter endArray() {
+        end(Schema.Type.ARRAY);
+        return this;
+    }
+
+    private Frame startValue(String field, Schema.Type... expectedTypes) {
+        Frame frame = frames.peek();
+        frame.startValue(field, expectedTypes);
+        return frame;
+    }
+
+    private void end(Schema.Type type) {
+        if (frames.size() == 1 || frames.peek().schema.getType() != type) {
+            throw new IllegalStateException("end" + (type == Schema.Type.RECORD ? "Record" : "Array") + " does not match a preceding start call");
+        }
+        Frame frame = frames.pop();
+        if (frame.elementsStarted) {
+            recordConsumer.endField(ARRAY_ELEMENT_FIELD, 0);
+        }
+        recordConsumer.endGroup();
+        frames.peek().endValue();
+    }
+
+    /**
+     * A record or array that is being written
+     */
+    private class Frame {
+        private final Schema schema;
+        private Schema.Field currentField;
+        private boolean elementsStarted;
+
+        Frame(Schema schema) {
+            this.schema = schema;
+        }
+
+        /**
+         * Start writing a value of a field (or an element, if this is an array)
+         *
+         * @return the (non-null) schema of the value
+         */
+        Schema startValue(String field, Schema.Type... expectedTypes) {
+            Schema valueSchema;
+            if (schema.getType() == Schema.Type.ARRAY) {
+                valueSchema = nonNullTypeOf(schema.getElementType());
+                if (! elementsStarted) {
+                    recordConsumer.startField(ARRAY_ELEMENT_FIELD, 0);
+                    elementsStarted = true;
+                }
+            }
+            else {
+                currentField = schema.getField(field);
+                if (currentField == null) {
+                    throw new IllegalArgumentException("No field named '" + field + "' in " + schema.getFullName());
+                }
+                valueSchema = nonNullTypeOf(currentField.schema());
+            }
+
+            checkType(field, valueSchema, expectedTypes);
+            if (currentField != null && schema.getType() == Schema.Type.RECORD) {
+                recordConsumer.startField(currentField.name(), currentField.pos());
+            }
+            return valueSchema;
+        }
+
+        void endValue() {
+            if (schema.getType() == Schema.Type.RECORD) {
+                recordConsumer.endField(currentField.name(), currentField.pos());
+                currentField = null;
+            }
+        }
+    }
+
+    private static void checkType(String field, Schema valueSchema, Schema.Type... expectedTypes) {
+        for (Schema.Type expectedType : expectedTypes) {
+            if (valueSchema.getType() == expectedType) {
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Field '" + field + "' is of type " + valueSchema.getType() + ", not " + expectedTypes[0]);
+    }
+}
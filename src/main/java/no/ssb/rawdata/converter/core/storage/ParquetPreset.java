@@ -0,0 +1,53 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+
+/**
+ * Predefined parquet writer settings for common dataset characteristics. Individual settings can be overridden
+ * per job, see {@link no.ssb.rawdata.converter.core.job.ConverterJobConfig.TargetStorage}.
+ */
+public enum ParquetPreset {
+
+    /**
+     * The settings used before presets were introduced
+     */
+    DEFAULT(64 * 1024 * 1024, 8 * 1024 * 1024, CompressionCodecName.SNAPPY, true),
+
+    /**
+     * Large row groups and cheap compression. For narrow, high volume datasets where write throughput matters most.
+     */
+    THROUGHPUT(128 * 1024 * 1024, 1024 * 1024, CompressionCodecName.SNAPPY, true),
+
+    /**
+     * Large row groups and high compression ratio. For datasets where storage footprint and read performance
+     * matter more than write throughput. Requires the zstd codec to be available at runtime.
+     */
+    STORAGE(128 * 1024 * 1024, 1024 * 1024, CompressionCodecName.ZSTD, true),
+
+    /**
+     * Small row groups and pages. For wide (e.g. XML based) datasets with many sparsely populated columns. The
+     * parquet writer holds page buffers for every column, so smaller sizes keeps writer memory in check.
+     */
+    WIDE_SPARSE(16 * 1024 * 1024, 64 * 1024, CompressionCodecName.SNAPPY, true);
+
+    private final int rowGroupSize;
+    private final int pageSize;
+    private final CompressionCodecName compressionCodec;
+    private final boolean dictionaryEncoding;
+
+    ParquetPreset(int rowGroupSize, int pageSize, CompressionCodecName compressionCodec, boolean dictionaryEncoding) {
+        this.rowGroupSize = rowGroupSize;
+        this.pageSize = pageSize;
+        this.compressionCodec = compressionCodec;
+        this.dictionaryEncoding = dictionaryEncoding;
+    }
+
+    public ParquetWriterSettings toSettings() {
+        return ParquetWriterSettings.builder()
+          .rowGroupSize(rowGroupSize)
+          .pageSize(pageSize)
+          .compressionCodec(compressionCodec)
+          .dictionaryEncoding(dictionaryEncoding)
+          .build();
+    }
+}
@@ -0,0 +1,34 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import lombok.Builder;
+import lombok.Value;
+import no.ssb.rawdata.converter.core.job.ConverterJobConfig;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+
+import java.util.Optional;
+
+/**
+ * Effective settings for the parquet writer of a converter job
+ */
+@Value
+@Builder(toBuilder = true)
+public class ParquetWriterSettings {
+    private final int rowGroupSize;
+    private final int pageSize;
+    private final CompressionCodecName compressionCodec;
+    private final boolean dictionaryEncoding;
+
+    /**
+     * Resolve effective parquet writer settings from a target storage config. Settings that are not explicitly
+     * specified are taken from the configured preset (or {@link ParquetPreset#DEFAULT} if no preset is specified).
+     */
+    public static ParquetWriterSettings of(ConverterJobConfig.TargetStorage targetStorage) {
+        ParquetWriterSettings preset = Optional.ofNullable(targetStorage.getParquetPreset()).orElse(ParquetPreset.DEFAULT).toSettings();
+        return preset.toBuilder()
+          .rowGroupSize(Optional.ofNullable(targetStorage.getParquetRowGroupSize()).orElse(preset.getRowGroupSize()))
+          .pageSize(Optional.ofNullable(targetStorage.getParquetPageSize()).orElse(preset.getPageSize()))
+          .compressionCodec(Optional.ofNullable(targetStorage.getParquetCompressionCodec()).orElse(preset.getCompressionCodec()))
+          .dictionaryEncoding(Optional.ofNullable(targetStorage.getParquetDictionaryEncoding()).orElse(preset.isDictionaryEncoding()))
+          .build();
+    }
+}
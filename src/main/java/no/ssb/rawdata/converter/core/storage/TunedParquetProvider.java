@@ -0,0 +1,73 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import no.ssb.dapla.storage.client.ParquetProvider;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link ParquetProvider} that applies the {@link ParquetWriterSettings} of a converter job, and keeps track of
+ * the memory used by the parquet writers it has opened. The writers accept both Avro records and
+ * {@link no.ssb.rawdata.converter.core.convert.ColumnarRecord}s.
+ */
+public class TunedParquetProvider extends ParquetProvider {
+
+    private final ParquetWriterSettings settings;
+    private final Map<ParquetWriter<GenericRecord>, ChannelOutputFile> openWriters = new ConcurrentHashMap<>();
+
+    public TunedParquetProvider(ParquetWriterSettings settings) {
+        super(settings.getRowGroupSize(), settings.getPageSize());
+        this.settings = settings;
+    }
+
+    public ParquetWriterSettings getSettings() {
+        return settings;
+    }
+
+    @Override
+    public ParquetWriter<GenericRecord> getWriter(SeekableByteChannel output, Schema schema) throws IOException {
+        ChannelOutputFile outputFile = new ChannelOutputFile(output);
+        ParquetWriter<GenericRecord> writer = ColumnarWriteSupport.builder(outputFile)
+          .withSchema(schema)
+          .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+          .withCompressionCodec(settings.getCompressionCodec())
+          .withRowGroupSize(settings.getRowGroupSize())
+          .withPageSize(settings.getPageSize())
+          .withDictionaryEncoding(settings.isDictionaryEncoding())
+          .build();
+
+        openWriters.put(writer, outputFile);
+        outputFile.onClose(() -> openWriters.remove(writer));
+        return writer;
+    }
+
+    /**
+     * @return the number of parquet writers that are currently open
+     */
+    public int getOpenWriterCount() {
+        return openWriters.size();
+    }
+
+    /**
+     * @return an estimate of the number of bytes currently buffered in memory by the open parquet writers,
+     * that is: data that has been added to the writers but not yet written to the output
+     */
+    public long getBufferedBytes() {
+        long bufferedBytes = 0;
+        for (Map.Entry<ParquetWriter<GenericRecord>, ChannelOutputFile> e : openWriters.entrySet()) {
+            try {
+                bufferedBytes += Math.max(0, e.getKey().getDataSize() - e.getValue().getBytesWritten());
+            }
+            catch (RuntimeException ignored) {
+                // the writer might be closing concurrently
+            }
+        }
+        return bufferedBytes;
+    }
+}
@@ -0,0 +1,233 @@
+package no.ssb.rawdata.converter.core.xml;
+
+import no.ssb.avro.convert.core.ValueInterceptor;
+import no.ssb.rawdata.converter.core.convert.SchemaGuidedRecordBuilder;
+import no.ssb.rawdata.converter.core.convert.SchemaGuidedRecordBuilder.Kind;
+import no.ssb.rawdata.converter.core.exception.RawdataConverterException;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Converts XML documents to Avro records in a single streaming pass, guided by the target schema. This is an
+ * alternative to mapping the document with {@link no.ssb.rawdata.converter.util.Xml#toGenericMap(String)} and
+ * converting the map, that never holds more of the document than the elements that are being read.</p>
+ *
+ * <p>The document is mapped the same way as with the map conversion:</p>
+ * <ul>
+ *   <li>The root element corresponds to the target schema</li>
+ *   <li>Attributes and child elements are set as the fields with the same (local) name. Repeated elements
+ *   are appended to array fields.</li>
+ *   <li>The text of elements that are records is set as the "value" field, if the record has one</li>
+ *   <li>Elements and attributes that are not part of the schema are skipped</li>
+ * </ul>
+ *
+ * <p>Leaf values are passed through the {@link ValueInterceptor} (e.g. for pseudonymization), with the path of
+ * the field (like /person/address/street) as field descriptor.</p>
+ *
+ * <p>A reader holds the state of the document being read, and is not thread safe.</p>
+ */
+public class XmlRecordReader {
+
+    private static final String VALUE_FIELD = "value";
+    private static final XMLInputFactory XML_INPUT_FACTORY = xmlInputFactory();
+
+    private final SchemaGuidedRecordBuilder recordBuilder;
+    private final List<ElementFrame> frames = new ArrayList<>();
+
+    public XmlRecordReader(Schema schema, ValueInterceptor valueInterceptor) {
+        this.recordBuilder = new SchemaGuidedRecordBuilder(schema, valueInterceptor);
+    }
+
+    private static XMLInputFactory xmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Convert an XML document to a record of the target schema. The encoding is detected from the document.
+     */
+    public GenericRecord read(byte[] xml) {
+        return read(new ByteArrayInputStream(xml));
+    }
+
+    /**
+     * Convert an XML document to a record of the target schema. The encoding is detected from the document.
+     * The stream is not closed.
+     */
+    public GenericRecord read(InputStream xml) {
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(xml);
+            return read(reader);
+        }
+        catch (XMLStreamException e) {
+            throw new XmlRecordReaderException("Error converting XML to " + recordBuilder.getSchema().getFullName() + " record", e);
+        }
+        finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                }
+                catch (XMLStreamException ignored) {
+                    // nothing more to read
+                }
+            }
+        }
+    }
+
+    private GenericRecord read(XMLStreamReader reader) throws XMLStreamException {
+        int depth = -1;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (depth < 0) {
+                        recordBuilder.start();
+                        startRecord(reader, ++depth);
+                        break;
+                    }
+                    ElementFrame parent = frames.get(depth);
+                    if (parent.kind != Kind.RECORD) {
+                        // a leaf value should not have child elements
+                        skipElement(reader);
+                        break;
+                    }
+
+                    String name = reader.getLocalName();
+                    Kind kind = recordBuilder.kindOf(name);
+                    if (kind == Kind.RECORD) {
+                        recordBuilder.startRecord(name);
+                        startRecord(reader, ++depth);
+                    }
+                    else if (kind == Kind.VALUE) {
+                        frameAt(++depth).reset(Kind.VALUE, name, true);
+                    }
+                    else {
+                        skipElement(reader);
+                    }
+                    break;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    if (depth >= 0) {
+                        frames.get(depth).appendText(reader, event);
+                    }
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    ElementFrame element = frames.get(depth--);
+                    if (element.kind == Kind.VALUE) {
+                        recordBuilder.value(element.name, element.text.toString());
+                    }
+                    else {
+                        if (element.collectText && ! isBlank(element.text)) {
+                            recordBuilder.value(VALUE_FIELD, element.text.toString());
+                        }
+                        if (depth < 0) {
+                            return recordBuilder.build();
+                        }
+                        recordBuilder.endRecord();
+                    }
+                    break;
+
+                default:
+                    // comments, processing instructions and document events do not contribute to the record
+            }
+        }
+        throw new XMLStreamException("Unexpected end of XML document");
+    }
+
+    /**
+     * The current element is a record (that has been started in the record builder). Set its attributes.
+     */
+    private void startRecord(XMLStreamReader reader, int depth) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String name = reader.getAttributeLocalName(i);
+            if (recordBuilder.kindOf(name) == Kind.VALUE) {
+                recordBuilder.value(name, reader.getAttributeValue(i));
+            }
+        }
+        frameAt(depth).reset(Kind.RECORD, reader.getLocalName(), recordBuilder.kindOf(VALUE_FIELD) == Kind.VALUE);
+    }
+
+    /**
+     * Skip the current element, including its children
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private ElementFrame frameAt(int depth) {
+        if (depth == frames.size()) {
+            frames.add(new ElementFrame());
+        }
+        return frames.get(depth);
+    }
+
+    private static boolean isBlank(CharSequence s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (! Character.isWhitespace(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * An element that is being read. Frames are reused for elements at the same depth.
+     */
+    private static class ElementFrame {
+        private final StringBuilder text = new StringBuilder();
+        private Kind kind;
+        private String name;
+        private boolean collectText;
+
+        void reset(Kind kind, String name, boolean collectText) {
+            this.kind = kind;
+            this.name = name;
+            this.collectText = collectText;
+            text.setLength(0);
+        }
+
+        void appendText(XMLStreamReader reader, int event) {
+            if (! collectText) {
+                return;
+            }
+            if (event == XMLStreamConstants.ENTITY_REFERENCE) {
+                text.append(reader.getText());
+            }
+            else {
+                text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+        }
+    }
+
+    public static class XmlRecordReaderException extends RawdataConverterException {
+        public XmlRecordReaderException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
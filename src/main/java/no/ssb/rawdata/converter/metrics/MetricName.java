@@ -7,7 +7,30 @@ public final class MetricName {
 
     public static final String JOB_INFO = "converter.job.info";
     public static final String RAWDATA_MESSAGE_SIZE_BYTES = "converter.rawdata.message.size.bytes";
+    public static final String RAWDATA_MESSAGE_CONVERSION_LATENCY = "converter.rawdata.message.conversion.latency";
+    public static final String RAWDATA_MESSAGE_CONVERSION_LATENCY_BY_SIZE = "converter.rawdata.message.conversion.latency.by.size";
+    public static final String RAWDATA_MESSAGE_END_TO_END_LATENCY = "converter.rawdata.message.end.to.end.latency";
     public static final String RAWDATA_MESSAGES_TOTAL = "converter.rawdata.messages.total";
+    public static final String RAWDATA_EVENT_TIME_LAG_SECONDS = "converter.rawdata.event.time.lag.seconds";
+    public static final String RAWDATA_THROUGHPUT_MESSAGES = "converter.rawdata.throughput.messages.per.second";
+    public static final String RAWDATA_THROUGHPUT_BYTES = "converter.rawdata.throughput.bytes.per.second";
+    public static final String JOB_ETA_SECONDS = "converter.job.eta.seconds";
+    public static final String PARQUET_WRITER_BUFFERED_BYTES = "converter.parquet.writer.buffered.bytes";
+    public static final String PARQUET_WRITERS_OPEN = "converter.parquet.writers.open";
+    public static final String SPOOL_SIZE_BYTES = "converter.spool.size.bytes";
+    public static final String SPOOL_FILES_PENDING = "converter.spool.files.pending";
+    public static final String SPOOL_UPLOAD_FAILURES = "converter.spool.upload.failures";
+    public static final String DEAD_LETTER_RECORDS = "converter.dead.letter.records";
+    public static final String STORAGE_BACKENDS_CREATED_TOTAL = "converter.storage.backends.created.total";
+    public static final String STORAGE_BACKENDS_POOLED = "converter.storage.backends.pooled";
+    public static final String STORAGE_BACKEND_LEASES = "converter.storage.backend.leases";
+    public static final String LOCAL_STORAGE_EVENTS_TOTAL = "converter.local.storage.events.total";
+    public static final String LOCAL_STORAGE_BYTES_TOTAL = "converter.local.storage.bytes.total";
+    public static final String LOCAL_STORAGE_QUEUE_SIZE = "converter.local.storage.queue.size";
+    public static final String PSEUDO_CACHE_REQUESTS_TOTAL = "converter.pseudo.cache.requests.total";
+    public static final String PSEUDO_CACHE_EVICTIONS_TOTAL = "converter.pseudo.cache.evictions.total";
+    public static final String PSEUDO_CACHE_SIZE = "converter.pseudo.cache.size";
+    public static final String PSEUDO_CACHE_HIT_RATIO = "converter.pseudo.cache.hit.ratio";
     public static final String RAWDATA_RECORDS_TOTAL = "converter.rawdata.records.total";
     public static final String RAWDATA_FIELDS_TOTAL = "converter.rawdata.records.total";
 
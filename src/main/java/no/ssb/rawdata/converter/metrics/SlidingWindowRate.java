@@ -0,0 +1,76 @@
+package no.ssb.rawdata.converter.metrics;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * <p>Rolling rate (amount per second) computed over a sliding time window. The window is divided into a fixed
+ * number of buckets, so that memory usage is constant regardless of the amount of recorded events.</p>
+ *
+ * <p>Before a full window has elapsed, the rate is computed over the time passed since the first recorded
+ * event.</p>
+ */
+public class SlidingWindowRate {
+
+    private final long bucketMillis;
+    private final long[] bucketAmounts;
+    private final long[] bucketIds;
+    private final LongSupplier clock;
+    private long firstRecordedAt = -1;
+
+    public SlidingWindowRate(Duration window, int bucketCount) {
+        this(window, bucketCount, System::currentTimeMillis);
+    }
+
+    SlidingWindowRate(Duration window, int bucketCount, LongSupplier clock) {
+        if (bucketCount < 1 || window.toMillis() < bucketCount) {
+            throw new IllegalArgumentException("Invalid sliding window: window=" + window + ", buckets=" + bucketCount);
+        }
+        this.bucketMillis = window.toMillis() / bucketCount;
+        this.bucketAmounts = new long[bucketCount];
+        this.bucketIds = new long[bucketCount];
+        this.clock = clock;
+    }
+
+    /**
+     * Record an amount (e.g. a number of messages or bytes) at the current time
+     */
+    public synchronized void add(long amount) {
+        long now = clock.getAsLong();
+        if (firstRecordedAt < 0) {
+            firstRecordedAt = now;
+        }
+
+        long bucketId = now / bucketMillis;
+        int idx = (int) (bucketId % bucketAmounts.length);
+        if (bucketIds[idx] != bucketId) {
+            bucketIds[idx] = bucketId;
+            bucketAmounts[idx] = 0;
+        }
+        bucketAmounts[idx] += amount;
+    }
+
+    /**
+     * @return the average amount per second over the sliding window, or 0 if nothing has been recorded
+     */
+    public synchronized double ratePerSecond() {
+        if (firstRecordedAt < 0) {
+            return 0;
+        }
+
+        long now = clock.getAsLong();
+        long currentBucketId = now / bucketMillis;
+        long oldestBucketId = currentBucketId - bucketAmounts.length + 1;
+        long sum = 0;
+        for (int i = 0; i < bucketAmounts.length; i++) {
+            if (bucketIds[i] >= oldestBucketId && bucketIds[i] <= currentBucketId) {
+                sum += bucketAmounts[i];
+            }
+        }
+
+        long windowMillis = bucketMillis * bucketAmounts.length;
+        long elapsedMillis = Math.min(windowMillis, now - firstRecordedAt + bucketMillis);
+        return sum * 1000d / elapsedMillis;
+    }
+
+}
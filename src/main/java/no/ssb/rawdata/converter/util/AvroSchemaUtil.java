@@ -15,4 +15,25 @@ public class AvroSchemaUtil {
         }
     }
 
+    /**
+     * @return the non-null type of a nullable (union with null) schema, or the schema itself if it is not a union
+     * @throws IllegalArgumentException if the schema is a union of more than one non-null type
+     */
+    public static Schema nonNullTypeOf(Schema schema) {
+        if (schema.getType() != Schema.Type.UNION) {
+            return schema;
+        }
+
+        Schema nonNullType = null;
+        for (Schema type : schema.getTypes()) {
+            if (type.getType() != Schema.Type.NULL) {
+                if (nonNullType != null) {
+                    throw new IllegalArgumentException("Unions of more than one non-null type are not supported: " + schema);
+                }
+                nonNullType = type;
+            }
+        }
+        return nonNullType;
+    }
+
 }
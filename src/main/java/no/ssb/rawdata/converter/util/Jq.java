@@ -1,41 +1,64 @@
 package no.ssb.rawdata.converter.util;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import lombok.experimental.UtilityClass;
 import net.thisptr.jackson.jq.BuiltinFunctionLoader;
 import net.thisptr.jackson.jq.JsonQuery;
 import net.thisptr.jackson.jq.Scope;
 import net.thisptr.jackson.jq.Versions;
+import net.thisptr.jackson.jq.exception.JsonQueryException;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
 
 @UtilityClass
 public class Jq {
 
     private static final Scope ROOT_JQ_SCOPE;
     private static final ObjectMapper OBJECT_MAPPER;
+    private static final int COMPILED_QUERIES_MAX_SIZE = 512;
+
+    /**
+     * Compiled queries by jq expression. Converters typically use a handful of expressions for every message.
+     */
+    private static final Cache<String, JsonQuery> COMPILED_QUERIES = CacheBuilder.newBuilder()
+      .maximumSize(COMPILED_QUERIES_MAX_SIZE)
+      .build();
 
     static {
         ROOT_JQ_SCOPE = Scope.newEmptyScope();
         BuiltinFunctionLoader.getInstance().loadFunctions(Versions.JQ_1_6, ROOT_JQ_SCOPE);
 
-        OBJECT_MAPPER = new ObjectMapper();
-        OBJECT_MAPPER.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        OBJECT_MAPPER = ObjectMappers.jsonMapper();
     }
 
     public static List<JsonNode> query(String jqExpression, String json) {
+        return query(jqExpression, parse(() -> OBJECT_MAPPER.readTree(json), jqExpression));
+    }
+
+    public static List<JsonNode> query(String jqExpression, byte[] json) {
+        return query(jqExpression, parse(() -> OBJECT_MAPPER.readTree(json), jqExpression));
+    }
+
+    /**
+     * Query an already parsed JSON document. Use this when querying the same document with several expressions.
+     */
+    public static List<JsonNode> query(String jqExpression, JsonNode json) {
         Scope childScope = Scope.newChildScope(ROOT_JQ_SCOPE);
         List<JsonNode> out = new ArrayList<>();
         try {
-            JsonNode in = OBJECT_MAPPER.readTree(json);
-            JsonQuery jq = JsonQuery.compile(jqExpression, Versions.JQ_1_6);
-
-            jq.apply(childScope, in, out::add);
+            compiledQueryOf(jqExpression).apply(childScope, json, out::add);
         }
         catch (Exception e) {
             throw new JqException("jq query error for jqExpression=" + jqExpression, e);
@@ -44,7 +67,52 @@ public class Jq {
     }
 
     public static <T> Optional<T> queryOne(String jqPath, String json, Class<T> clazz) {
-        List<JsonNode> nodes = query(jqPath, json);
+        return queryOne(jqPath, parse(() -> OBJECT_MAPPER.readTree(json), jqPath), clazz);
+    }
+
+    public static <T> Optional<T> queryOne(String jqPath, byte[] json, Class<T> clazz) {
+        return queryOne(jqPath, parse(() -> OBJECT_MAPPER.readTree(json), jqPath), clazz);
+    }
+
+    public static <T> Optional<T> queryOne(String jqPath, JsonNode json, Class<T> clazz) {
+        return singleResultOf(query(jqPath, json)).map(node -> {
+            if (clazz == String.class && node.isTextual()) {
+                return clazz.cast(node.textValue());
+            }
+            else if (clazz.isInstance(node)) {
+                return clazz.cast(node);
+            }
+            return treeToValue(node, OBJECT_MAPPER.constructType(clazz));
+        });
+    }
+
+    public static <T> Optional<T> queryOne(String jqPath, String json, TypeReference<T> type) {
+        return queryOne(jqPath, parse(() -> OBJECT_MAPPER.readTree(json), jqPath), type);
+    }
+
+    public static <T> Optional<T> queryOne(String jqPath, byte[] json, TypeReference<T> type) {
+        return queryOne(jqPath, parse(() -> OBJECT_MAPPER.readTree(json), jqPath), type);
+    }
+
+    public static <T> Optional<T> queryOne(String jqPath, JsonNode json, TypeReference<T> type) {
+        return singleResultOf(query(jqPath, json)).map(node -> treeToValue(node, OBJECT_MAPPER.getTypeFactory().constructType(type)));
+    }
+
+    /**
+     * @return the compiled query of a jq expression. Compiled queries are immutable and thus shared.
+     */
+    static JsonQuery compiledQueryOf(String jqExpression) throws JsonQueryException {
+        try {
+            return COMPILED_QUERIES.get(jqExpression, () -> JsonQuery.compile(jqExpression, Versions.JQ_1_6));
+        }
+        catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), JsonQueryException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new JqException("Error compiling jqExpression=" + jqExpression, e.getCause());
+        }
+    }
+
+    private static Optional<JsonNode> singleResultOf(List<JsonNode> nodes) {
         if (nodes.size() == 0) {
             return Optional.empty();
         }
@@ -52,23 +120,38 @@ public class Jq {
             throw new JqException("Expected JQ expression to match a single value, but multiple matches was found: " + nodes);
         }
         else {
-            return Optional.ofNullable(OBJECT_MAPPER.convertValue(nodes.get(0), clazz));
+            return Optional.of(nodes.get(0));
         }
     }
 
-    public static <T> Optional<T> queryOne(String jqPath, String json, TypeReference<T> type) {
-        List<JsonNode> nodes = query(jqPath, json);
-        if (nodes.size() == 0) {
-            return Optional.empty();
+    /**
+     * Bind a JSON node to a value, reading the tree directly instead of serializing it first (as convertValue does)
+     */
+    private static <T> T treeToValue(JsonNode node, JavaType type) {
+        if (node.isNull() || node.isMissingNode()) {
+            return null;
         }
-        else if (nodes.size() > 1) {
-            throw new JqException("Expected JQ expression to match a single value, but multiple matches was found: " + nodes);
+        try (JsonParser parser = OBJECT_MAPPER.treeAsTokens(node)) {
+            return OBJECT_MAPPER.readValue(parser, type);
         }
-        else {
-            return Optional.ofNullable(OBJECT_MAPPER.convertValue(nodes.get(0), type));
+        catch (IOException e) {
+            throw new IllegalArgumentException("Unable to convert " + node + " to " + type, e);
         }
     }
 
+    private static JsonNode parse(JsonParseFunction parseFunction, String jqExpression) {
+        try {
+            return parseFunction.parse();
+        }
+        catch (IOException e) {
+            throw new JqException("jq query error for jqExpression=" + jqExpression, e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface JsonParseFunction {
+        JsonNode parse() throws IOException;
+    }
 
     public static class JqException extends RuntimeException {
         public JqException(String message) {
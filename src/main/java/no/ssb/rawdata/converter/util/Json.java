@@ -1,36 +1,29 @@
 package no.ssb.rawdata.converter.util;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.JsonSerializer;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializerProvider;
-import com.fasterxml.jackson.databind.module.SimpleModule;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.TextNode;
 import lombok.experimental.UtilityClass;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 @UtilityClass
 public class Json {
-    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
-
-    static {
-        OBJECT_MAPPER.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-    }
+    private static final String SCRAMBLED_VALUE = "***";
 
     /**
      * Convert JSON to Object
      */
     public static <T> T toObject(Class<T> type, String json) {
         try {
-            return OBJECT_MAPPER.readValue(json, type);
+            return ObjectMappers.jsonReaderFor(type).readValue(json);
         }
         catch (IOException e) {
             throw new JsonException("Error mapping JSON to " + type.getSimpleName() + " object", e);
@@ -44,7 +37,21 @@ public class Json {
      */
     public static <T> T toObject(TypeReference<T> type, String json) {
         try {
-            return OBJECT_MAPPER.readValue(json, type);
+            return ObjectMappers.jsonReaderFor(type).readValue(json);
+        }
+        catch (IOException e) {
+            throw new JsonException("Error mapping JSON to " + type.getType() + " object", e);
+        }
+    }
+
+    /**
+     * Convert JSON (encoded as UTF-8, UTF-16 or UTF-32) to Object, without decoding it to a String first
+     *
+     * Use with generics, like new TypeReference<HashMap<MyPair, String>>() {}
+     */
+    public static <T> T toObject(TypeReference<T> type, byte[] json) {
+        try {
+            return ObjectMappers.jsonReaderFor(type).readValue(json);
         }
         catch (IOException e) {
             throw new JsonException("Error mapping JSON to " + type.getType() + " object", e);
@@ -55,7 +62,12 @@ public class Json {
      * Convert JSON to String->Object map
      */
     public static Map<String, Object> toGenericMap(String json) {
-        return toObject(new TypeReference<Map<String, Object>>() {}, json);
+        try {
+            return ObjectMappers.JSON_MAP_READER.readValue(json);
+        }
+        catch (IOException e) {
+            throw new JsonException("Error mapping JSON to Map<String,Object>", e);
+        }
     }
 
     /**
@@ -63,7 +75,7 @@ public class Json {
      */
     public static String from(Object object) {
         try {
-            return OBJECT_MAPPER.writeValueAsString(object);
+            return ObjectMappers.JSON_WRITER.writeValueAsString(object);
         } catch (JsonProcessingException e) {
             throw new JsonException("Error mapping " +  object.getClass().getSimpleName() + " object to JSON", e);
         }
@@ -74,7 +86,7 @@ public class Json {
      */
     public static String prettyFrom(Object object) {
         try {
-            return OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(object);
+            return ObjectMappers.JSON_PRETTY_WRITER.writeValueAsString(object);
         } catch (JsonProcessingException e) {
             throw new JsonException("Error mapping " +  object.getClass().getSimpleName() + " object to JSON", e);
         }
@@ -88,47 +100,45 @@ public class Json {
     }
 
     /**
-     * Scramble values of specified properties from a JSON structure.
+     * <p>Scramble values of specified properties from a JSON structure.</p>
+     *
+     * <p>The document is copied token by token in a single pass, replacing the values (including objects and
+     * arrays) of properties with any of the specified names by "***". The output is compact (not indented).</p>
      */
     public static byte[] withScrambledProps(byte[] json, Iterable<String> propsToScramble) {
-        try {
-            JsonNode jsonNode = OBJECT_MAPPER.readTree(json);
-            for (String propName : propsToScramble) {
-                jsonNode.findParents(propName)
-                  .forEach(n -> ((ObjectNode) n).replace(propName, new TextNode("***")));
+        Set<String> propNames = new HashSet<>();
+        propsToScramble.forEach(propNames::add);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+        try (JsonParser parser = ObjectMappers.jsonMapper().getFactory().createParser(json);
+             JsonGenerator generator = ObjectMappers.jsonMapper().getFactory().createGenerator(out)) {
+            for (JsonToken token = parser.nextToken(); token != null; token = parser.nextToken()) {
+                generator.copyCurrentEvent(parser);
+                if (token == JsonToken.FIELD_NAME && propNames.contains(parser.getCurrentName())) {
+                    parser.nextToken();
+                    parser.skipChildren();
+                    generator.writeString(SCRAMBLED_VALUE);
+                }
             }
-            return OBJECT_MAPPER.writeValueAsBytes(jsonNode);
         } catch (Exception e) {
             throw new JsonException("Error scrambling JSON properties " + propsToScramble, e);
         }
+        return out.toByteArray();
     }
 
     /**
      * Scramble values of specified properties from a JSON structure.
      */
     public static String withScrambledProps(String json, Iterable<String> propsToScramble) {
-        return new String(withScrambledProps(json.getBytes(StandardCharsets.UTF_8), propsToScramble));
+        return new String(withScrambledProps(json.getBytes(StandardCharsets.UTF_8), propsToScramble), StandardCharsets.UTF_8);
     }
 
     /**
      * Convert all property keys of the specified JSON to camelCase
      */
     public static String withCamelCasedKeys(String json) {
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.registerModule(new SimpleModule()
-          .addKeySerializer(String.class, new JsonSerializer<>() {
-              @Override
-              public void serialize(String value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
-                  String key = WordUtil.toCamelCase(value);
-                  gen.writeFieldName(key);
-              }
-          })
-        );
-
         try {
-            Map<String, Object> jsonMap = objectMapper.readValue(json, new TypeReference<>() {
-            });
-            return objectMapper.writeValueAsString(jsonMap);
+            Map<String, Object> jsonMap = ObjectMappers.JSON_MAP_READER.readValue(json);
+            return ObjectMappers.JSON_CAMEL_CASED_KEYS_WRITER.writeValueAsString(jsonMap);
         } catch (Exception e) {
             throw new JsonException("Error transforming JSON", e);
         }
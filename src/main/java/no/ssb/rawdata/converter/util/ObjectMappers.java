@@ -0,0 +1,105 @@
+package no.ssb.rawdata.converter.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import lombok.experimental.UtilityClass;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Shared, pre-configured Jackson mappers, and the immutable {@link ObjectReader}s and {@link ObjectWriter}s
+ * derived from them. Readers and writers are thread safe and hold their resolved (de)serializers, so reusing them
+ * avoids resolving types and looking up (de)serializers on every call.</p>
+ *
+ * <p>Setting the system property {@value #AFTERBURNER_PROPERTY} to true registers the Jackson Afterburner
+ * module with the JSON mapper, replacing reflection with generated bytecode when binding POJOs.</p>
+ */
+@UtilityClass
+public class ObjectMappers {
+
+    public static final String AFTERBURNER_PROPERTY = "rawdata.converter.jackson.afterburner";
+
+    private static final ObjectMapper JSON_MAPPER = newJsonMapper();
+    private static final XmlMapper XML_MAPPER = newXmlMapper();
+    private static final Map<Type, ObjectReader> JSON_READERS = new ConcurrentHashMap<>();
+    private static final Map<Type, ObjectReader> XML_READERS = new ConcurrentHashMap<>();
+
+    public static final ObjectReader JSON_MAP_READER = jsonReaderFor(new TypeReference<Map<String, Object>>() {});
+    public static final ObjectReader JSON_MAP_LIST_READER = jsonReaderFor(new TypeReference<List<Map<String, Object>>>() {});
+    public static final ObjectWriter JSON_WRITER = JSON_MAPPER.writer();
+    public static final ObjectWriter JSON_PRETTY_WRITER = JSON_MAPPER.writerWithDefaultPrettyPrinter();
+    public static final ObjectWriter JSON_CAMEL_CASED_KEYS_WRITER = newCamelCasedKeysMapper().writer();
+    public static final ObjectWriter XML_WRITER = XML_MAPPER.writer();
+    public static final ObjectWriter XML_PRETTY_WRITER = XML_MAPPER.writerWithDefaultPrettyPrinter();
+
+    private static ObjectMapper newJsonMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        if (Boolean.getBoolean(AFTERBURNER_PROPERTY)) {
+            mapper.registerModule(new AfterburnerModule());
+        }
+        return mapper;
+    }
+
+    private static XmlMapper newXmlMapper() {
+        XmlMapper mapper = new XmlMapper();
+        mapper.registerModule(new SimpleModule().addDeserializer(Object.class, new Xml.FixedUntypedObjectDeserializer()));
+        return mapper;
+    }
+
+    private static ObjectMapper newCamelCasedKeysMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new SimpleModule()
+          .addKeySerializer(String.class, new JsonSerializer<>() {
+              @Override
+              public void serialize(String value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+                  gen.writeFieldName(WordUtil.toCamelCase(value));
+              }
+          })
+        );
+        return mapper;
+    }
+
+    /**
+     * @return the shared JSON mapper. Do not reconfigure it - derive readers and writers instead.
+     */
+    public static ObjectMapper jsonMapper() {
+        return JSON_MAPPER;
+    }
+
+    /**
+     * @return the shared XML mapper. Do not reconfigure it - derive readers and writers instead.
+     */
+    public static XmlMapper xmlMapper() {
+        return XML_MAPPER;
+    }
+
+    public static ObjectReader jsonReaderFor(Class<?> type) {
+        return JSON_READERS.computeIfAbsent(type, t -> JSON_MAPPER.readerFor(type));
+    }
+
+    public static ObjectReader jsonReaderFor(TypeReference<?> type) {
+        return JSON_READERS.computeIfAbsent(type.getType(), t -> JSON_MAPPER.readerFor(type));
+    }
+
+    public static ObjectReader xmlReaderFor(Class<?> type) {
+        return XML_READERS.computeIfAbsent(type, t -> XML_MAPPER.readerFor(type));
+    }
+
+    public static ObjectReader xmlReaderFor(TypeReference<?> type) {
+        return XML_READERS.computeIfAbsent(type.getType(), t -> XML_MAPPER.readerFor(type));
+    }
+}
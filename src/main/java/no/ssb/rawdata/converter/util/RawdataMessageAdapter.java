@@ -1,11 +1,18 @@
 package no.ssb.rawdata.converter.util;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.Sets;
 import de.huxhorn.sulky.ulid.ULID;
 import no.ssb.rawdata.api.RawdataMessage;
+import no.ssb.rawdata.converter.core.csv.CsvFormat;
+import no.ssb.rawdata.converter.core.csv.CsvParser;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
@@ -22,6 +29,7 @@ import java.util.stream.Collectors;
  */
 public class RawdataMessageAdapter {
     private final static String MANIFEST_ITEM_NAME = "manifest.json";
+    private final static TypeReference<List<Map<String,Object>>> MANIFEST_ITEMS_TYPE = new TypeReference<>() {};
 
     private final RawdataMessage message;
 
@@ -61,12 +69,7 @@ public class RawdataMessageAdapter {
     }
 
     public Optional<String> findItemAsString(String itemName) {
-        try {
-            return Optional.of(getItemAsString(itemName));
-        }
-        catch (NoRawdataMessageItemFoundException e) {
-            return Optional.empty();
-        }
+        return findItem(itemName).map(bytes -> new String(bytes, StandardCharsets.UTF_8));
     }
 
    public byte[] getItem(String itemName) {
@@ -74,8 +77,82 @@ public class RawdataMessageAdapter {
           .orElseThrow(() -> new NoRawdataMessageItemFoundException(itemName, message));
     }
 
+    /**
+     * @return the item decoded as UTF-8
+     */
     public String getItemAsString(String itemName) {
-        return new String(getItem(itemName));
+        return new String(getItem(itemName), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a stream reading the item bytes directly (without copying them)
+     */
+    public InputStream getItemAsInputStream(String itemName) {
+        return new ByteArrayInputStream(getItem(itemName));
+    }
+
+    /**
+     * @return a read-only buffer view of the item bytes (without copying them)
+     */
+    public ByteBuffer getItemAsByteBuffer(String itemName) {
+        return ByteBuffer.wrap(getItem(itemName)).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the item decoded as UTF-8 into a read-only character buffer, that can be consumed without
+     * creating an (additional) String copy of the item
+     */
+    public CharSequence getItemAsCharSequence(String itemName) {
+        return StandardCharsets.UTF_8.decode(ByteBuffer.wrap(getItem(itemName))).asReadOnlyBuffer();
+    }
+
+    /**
+     * Parse a JSON item directly from its bytes
+     */
+    public JsonNode parseJson(String itemName) {
+        try {
+            return ObjectMappers.jsonMapper().readTree(getItem(itemName));
+        }
+        catch (IOException e) {
+            throw new Json.JsonException("Error parsing JSON item " + itemName + " of RawdataMessage " + message.ulid(), e);
+        }
+    }
+
+    /**
+     * Parse an XML item directly from its bytes, to a map as described by {@link Xml#toGenericMap(String)}
+     */
+    public Map<String, Object> parseXml(String itemName) {
+        return Xml.toGenericMap(getItemAsInputStream(itemName));
+    }
+
+    /**
+     * Parse a (UTF-8 encoded) CSV item directly from its bytes. The returned parser reads one row at a time.
+     */
+    public CsvParser parseCsv(String itemName, CsvFormat format) {
+        return CsvParser.of(getItem(itemName), format);
+    }
+
+    /**
+     * Parse an item according to the content type given by the manifest
+     *
+     * @return a JsonNode for JSON items, a String-&gt;Object map for XML items or a {@link CsvParser} (using the
+     * default format) for CSV items
+     * @throws UnsupportedContentTypeException if the item has no metadata or is of any other content type
+     */
+    public Object parse(String itemName) {
+        String contentType = findItemMetadata(itemName)
+          .map(ItemMetadata::getContentType)
+          .orElseThrow(() -> new UnsupportedContentTypeException(itemName, "unknown", message));
+        if (contentType.contains("json")) {
+            return parseJson(itemName);
+        }
+        else if (contentType.contains("xml")) {
+            return parseXml(itemName);
+        }
+        else if (contentType.contains("csv")) {
+            return parseCsv(itemName, CsvFormat.DEFAULT);
+        }
+        throw new UnsupportedContentTypeException(itemName, contentType, message);
     }
 
     public Optional<byte[]> findManifest() {
@@ -217,12 +294,12 @@ public class RawdataMessageAdapter {
      * @return all metadata items or empty Map if no manifest found. Never null.
      */
     public Map<String, ItemMetadata> getAllItemMetadata() {
-        String manifestJson = findItemAsString(MANIFEST_ITEM_NAME).orElse(null);
+        byte[] manifestJson = findItem(MANIFEST_ITEM_NAME).orElse(null);
         if (manifestJson == null) {
             return Collections.EMPTY_MAP;
         }
 
-        List<Map<String,Object>> manifestItems = Json.toObject(new TypeReference<List<Map<String,Object>>>() {}, manifestJson);
+        List<Map<String,Object>> manifestItems = Json.toObject(MANIFEST_ITEMS_TYPE, manifestJson);
 
         return manifestItems.stream()
           .map(ItemMetadata::new)
@@ -243,6 +320,12 @@ public class RawdataMessageAdapter {
         }
     }
 
+    public static class UnsupportedContentTypeException extends RuntimeException {
+        public UnsupportedContentTypeException(String itemName, String contentType, RawdataMessage msg) {
+            super("Unable to parse item " + itemName + " of content type " + contentType + " in RawdataMessage " + msg.ulid());
+        }
+    }
+
     /**
      * Metadata associated with a RawdataMessage item
      */
@@ -5,16 +5,18 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationContext;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.deser.std.UntypedObjectDeserializer;
-import com.fasterxml.jackson.databind.module.SimpleModule;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -24,12 +26,6 @@ import java.util.Set;
 // TODO: Move this to a separate rawdata-converter-xml lib?
 
 public class Xml {
-    private static final XmlMapper MAPPER = new XmlMapper();
-
-    static {
-        MAPPER.registerModule(new SimpleModule().addDeserializer(Object.class, new FixedUntypedObjectDeserializer()));
-    }
-
     private Xml() {}
 
     /**
@@ -37,7 +33,7 @@ public class Xml {
      */
     public static <T> T toObject(Class<T> type, String xml) {
         try {
-            return MAPPER.readValue(xml, type);
+            return ObjectMappers.xmlReaderFor(type).readValue(xml);
         } catch (IOException e) {
             throw new XmlMappingException("Error mapping XML to " + type.getSimpleName() + " object", e);
         }
@@ -50,45 +46,209 @@ public class Xml {
      */
     public static <T> T toObject(TypeReference<T> type, String xml) {
         try {
-            return MAPPER.readValue(xml, type);
+            return ObjectMappers.xmlReaderFor(type).readValue(xml);
         } catch (IOException e) {
             throw new XmlMappingException("Error mapping XML to " + type.getType() + " object", e);
         }
     }
 
     /**
-     * Convert XML to String->Object map
+     * <p>Convert XML to String-&gt;Object map</p>
+     *
+     * <p>The document is converted in a single streaming pass, producing the same structure as mapping the XML
+     * with Jackson (using {@link FixedUntypedObjectDeserializer}) would, except that empty keys are renamed:</p>
+     * <ul>
+     *   <li>The root element is omitted - the map holds its attributes and child elements</li>
+     *   <li>Attributes and child elements become entries keyed by their local name (attributes first)</li>
+     *   <li>Elements without attributes and child elements become String values</li>
+     *   <li>Repeated keys within an element ("implicit arrays") become lists</li>
+     *   <li>The text of elements that also have attributes or child elements is keyed by "value" (unless the
+     *   element has a "value" attribute or child, in which case it is keyed by the empty string)</li>
+     * </ul>
      */
     public static Map<String, Object> toGenericMap(String xml) {
+        return toGenericMap(factory -> factory.createXMLStreamReader(new StringReader(xml)));
+    }
+
+    /**
+     * Convert XML to String-&gt;Object map, like {@link #toGenericMap(String)}, reading the document directly
+     * from a stream. The encoding is detected from the document. The stream is not closed.
+     */
+    public static Map<String, Object> toGenericMap(InputStream xml) {
+        return toGenericMap(factory -> factory.createXMLStreamReader(xml));
+    }
+
+    private static Map<String, Object> toGenericMap(XmlStreamReaderFunction readerFunction) {
+        XMLStreamReader reader = null;
+        try {
+            reader = readerFunction.create(ObjectMappers.xmlMapper().getFactory().getXMLInputFactory());
+            return toGenericMap(reader);
+        }
+        catch (XMLStreamException e) {
+            throw new XmlMappingException("Error mapping XML to Map<String,Object>", e);
+        }
+        finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                }
+                catch (XMLStreamException ignored) {
+                    // nothing more to read
+                }
+            }
+        }
+    }
 
-        /*
-        The following implementation should be revisited when we upgrade to jackson 2.12.
-        Jackson suffers from two issues:
-        1) no proper array detection in xml documents (ref https://github.com/FasterXML/jackson-dataformat-xml/issues/403
-          and https://github.com/FasterXML/jackson-dataformat-xml/issues/205)
+    private static Map<String, Object> toGenericMap(XMLStreamReader reader) throws XMLStreamException {
+        Deque<ElementFrame> frames = new ArrayDeque<>();
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    ElementFrame parent = frames.peek();
+                    if (parent != null) {
+                        parent.startChild();
+                    }
+                    frames.push(new ElementFrame(reader));
+                    break;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    if (! frames.isEmpty()) {
+                        frames.peek().appendText(reader.getText());
+                    }
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    ElementFrame element = frames.pop();
+                    if (frames.isEmpty()) {
+                        return element.toRootMap();
+                    }
+                    frames.peek().addField(element.name, element.toValue());
+                    break;
+
+                default:
+                    // comments, processing instructions and document events do not contribute to the map
+            }
+        }
+        throw new XMLStreamException("Unexpected end of XML document");
+    }
+
+    @FunctionalInterface
+    private interface XmlStreamReaderFunction {
+        XMLStreamReader create(XMLInputFactory factory) throws XMLStreamException;
+    }
+
+    /**
+     * An element that is being converted
+     */
+    private static class ElementFrame {
+        private static final String EMPTY_KEY = "";
+        private static final String VALUE_KEY = "value";
+
+        private final String name;
+        private Map<String, Object> fields;
+        private StringBuilder text;
+
+        ElementFrame(XMLStreamReader reader) {
+            this.name = reader.getLocalName();
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                addField(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            }
+        }
+
+        void appendText(String s) {
+            if (text == null) {
+                text = new StringBuilder(s);
+            }
+            else {
+                text.append(s);
+            }
+        }
 
-        2) Nodes might be initialized with empty key elements, ref:
-        https://stackoverflow.com/questions/62009220/jackson-jsonnode-with-empty-element-key
+        /**
+         * A child element starts. Text preceding it is mixed content, kept only if it is not just whitespace.
          */
+        void startChild() {
+            addMixedText();
+            if (fields == null) {
+                fields = new LinkedHashMap<>();
+            }
+        }
 
-        Map<String, Object> map = toObject(new TypeReference<>() {}, xml);
-        ObjectMapper objectMapper = new ObjectMapper();
-        JsonNode node = objectMapper.valueToTree(map);
-        replaceEmptyKeys(node);
-        return objectMapper.convertValue(node, new TypeReference<Map<String, Object>>() {});
+        private void addMixedText() {
+            if (text != null) {
+                if (! isBlank(text)) {
+                    addField(EMPTY_KEY, text.toString());
+                }
+                text = null;
+            }
+        }
 
-        /*
-        The following should work when we upgrade to jackson 2.12:
-        try {
-            JsonNode node = MAPPER.readTree(xml);
-            replaceEmptyKeys(node);
-            return MAPPER.convertValue(node, new TypeReference<Map<String, Object>>() {});
+        /**
+         * Add a field, turning repeated keys into a list of values
+         */
+        @SuppressWarnings("unchecked")
+        void addField(String key, Object value) {
+            if (fields == null) {
+                fields = new LinkedHashMap<>();
+            }
+            Object existing = fields.get(key);
+            if (existing == null && ! fields.containsKey(key)) {
+                fields.put(key, value);
+            }
+            else if (existing instanceof List) {
+                ((List<Object>) existing).add(value);
+            }
+            else {
+                List<Object> values = new ArrayList<>();
+                values.add(existing);
+                values.add(value);
+                fields.put(key, values);
+            }
+        }
 
+        Object toValue() {
+            if (fields == null) {
+                return (text == null) ? "" : text.toString();
+            }
+            addMixedText();
+            return renameEmptyKey(fields);
         }
-        catch (IOException e) {
-            throw new XmlMappingException("Error mapping XML to Map<String,Object>", e);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> toRootMap() {
+            Object value = toValue();
+            if (value instanceof Map) {
+                return (Map<String, Object>) value;
+            }
+            Map<String, Object> map = new LinkedHashMap<>();
+            if (! ((String) value).isEmpty()) {
+                map.put(VALUE_KEY, value);
+            }
+            return map;
+        }
+
+        /**
+         * Rename the entry with empty key (the text of the element) to "value", unless there already exists
+         * another non-null entry named "value" which would be overwritten
+         */
+        private static Map<String, Object> renameEmptyKey(Map<String, Object> fields) {
+            if (fields.containsKey(EMPTY_KEY) && fields.get(VALUE_KEY) == null) {
+                fields.put(VALUE_KEY, fields.remove(EMPTY_KEY));
+            }
+            return fields;
+        }
+
+        private static boolean isBlank(CharSequence s) {
+            for (int i = 0; i < s.length(); i++) {
+                if (! Character.isWhitespace(s.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
         }
-        */
     }
 
     /**
@@ -96,7 +256,7 @@ public class Xml {
      */
     public static String from(Object object) {
         try {
-            return MAPPER.writeValueAsString(object);
+            return ObjectMappers.XML_WRITER.writeValueAsString(object);
         } catch (JsonProcessingException e) {
             throw new XmlMappingException("Error mapping " + object.getClass().getSimpleName() + " object to XML", e);
         }
@@ -107,7 +267,7 @@ public class Xml {
      */
     public static String prettyFrom(Object object) {
         try {
-            return MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(object);
+            return ObjectMappers.XML_PRETTY_WRITER.writeValueAsString(object);
         } catch (JsonProcessingException e) {
             throw new XmlMappingException("Error mapping " + object.getClass().getSimpleName() + " object to XML", e);
         }
@@ -119,41 +279,6 @@ public class Xml {
         }
     }
 
-    private static void replaceEmptyKeys(JsonNode jsonNode) {
-
-        if (jsonNode.isArray()) {
-            ArrayNode array = (ArrayNode) jsonNode;
-            Iterable<JsonNode> elements = () -> array.elements();
-
-            // recursive post-processing
-            for (JsonNode element : elements) {
-                replaceEmptyKeys(element);
-            }
-        }
-        if (jsonNode.isObject()) {
-            ObjectNode object = (ObjectNode) jsonNode;
-            Iterable<String> fieldNames = () -> object.fieldNames();
-
-            // recursive post-processing
-            for (String fieldName : fieldNames) {
-                replaceEmptyKeys(object.get(fieldName));
-            }
-            // check if an attribute with empty string key exists, and rename it to 'value',
-            // unless there already exists another non-null attribute named 'value' which
-            // would be overwritten.
-            JsonNode emptyKeyValue = object.get("");
-            JsonNode existing = object.get("value");
-            if (emptyKeyValue != null) {
-                if (existing == null || existing.isNull()) {
-                    object.set("value", emptyKeyValue);
-                    object.remove("");
-                } else {
-                    System.err.println("Skipping empty key value as a key named 'value' already exists.");
-                }
-            }
-        }
-    }
-
     /**
      * Jackson Deserializer that will handle xml -> String-Object Maps
      * where we have "implicit arrays", such as:
@@ -0,0 +1,82 @@
+package no.ssb.rawdata.converter.core.csv;
+
+import no.ssb.rawdata.converter.core.convert.SchemaGuidedRecordBuilder.SchemaGuidedConversionException;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CsvRecordReaderTest {
+
+    private static final byte[] SAMPLE_1 = bytes("""
+      name,birth year,zip,score,active
+      "Nordmann, Kari",1979,0155,9.5,true
+      Ola "O" Nordmann,1980,5003,7,false
+      """);
+
+    private static final byte[] SAMPLE_2 = bytes(
+      "name;comment;birth year\r\n" +
+      "\"Per \"\"P\"\" Hansen\";\"multi\r\nline\";1955\r\n" +
+      ";;\r\n"
+    );
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void inferSchema_shouldTypeColumnsBySampleValues() {
+        Schema schema = CsvSchemaInference.inferSchema("person", List.of(SAMPLE_1), CsvFormat.DEFAULT);
+
+        assertThat(schema.getFields()).extracting(Schema.Field::name)
+          .containsExactly("name", "birth_year", "zip", "score", "active");
+        assertThat(schema.getFields()).extracting(f -> f.schema().getTypes().get(1).getType())
+          .containsExactly(Schema.Type.STRING, Schema.Type.LONG, Schema.Type.STRING, Schema.Type.DOUBLE, Schema.Type.BOOLEAN);
+    }
+
+    @Test
+    void forEachRow_shouldConvertQuotedAndMultiLineCells() {
+        CsvFormat format = CsvFormat.builder().delimiter(';').build();
+        Schema schema = CsvSchemaInference.inferSchema("person", List.of(SAMPLE_2), format);
+        CsvRecordReader reader = new CsvRecordReader(schema, format, (field, value) -> value.toUpperCase());
+
+        List<GenericRecord> rows = reader.readRows(SAMPLE_2);
+
+        assertThat(rows).hasSize(2);
+        assertThat(rows.get(0).get("name")).isEqualTo("PER \"P\" HANSEN");
+        assertThat(rows.get(0).get("comment")).isEqualTo("MULTI\r\nLINE");
+        assertThat(rows.get(0).get("birth_year")).isEqualTo(1955L);
+        assertThat(rows.get(1).get("name")).isEqualTo("");
+        assertThat(rows.get(1).get("birth_year")).isNull();
+    }
+
+    @Test
+    void forEachRow_shouldSkipColumnsNotInSchema() {
+        Schema schema = CsvSchemaInference.inferSchema("person", List.of(bytes("name,zip\nKari,0155\n")), CsvFormat.DEFAULT);
+        CsvRecordReader reader = new CsvRecordReader(schema, CsvFormat.DEFAULT, null);
+
+        List<GenericRecord> rows = reader.readRows(SAMPLE_1);
+
+        assertThat(rows).extracting(r -> r.get("name").toString()).containsExactly("Nordmann, Kari", "Ola \"O\" Nordmann");
+        assertThat(rows).extracting(r -> r.get("zip").toString()).containsExactly("0155", "5003");
+        assertThat(rows.get(0).getSchema().getField("score")).isNull();
+    }
+
+    @Test
+    void forEachRow_shouldAcceptBooleansAsTrueFalseOrOneZero() {
+        Schema schema = SchemaBuilder.record("person").fields().optionalString("name").optionalBoolean("active").endRecord();
+        CsvRecordReader reader = new CsvRecordReader(schema, CsvFormat.DEFAULT, null);
+
+        List<GenericRecord> rows = reader.readRows(bytes("name,active\nKari,1\nOla,0\nPer,False\n"));
+
+        assertThat(rows).extracting(r -> r.get("active")).containsExactly(true, false, false);
+        assertThatThrownBy(() -> reader.readRows(bytes("name,active\nKari,yes\n")))
+          .isInstanceOf(SchemaGuidedConversionException.class);
+    }
+}
@@ -0,0 +1,178 @@
+package no.ssb.rawdata.converter.core.job;
+
+import de.huxhorn.sulky.ulid.ULID;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.micronaut.context.event.ApplicationEventPublisher;
+import no.ssb.rawdata.converter.core.job.ConverterJobConfig.Debug.ConvertedStorageFormat;
+import no.ssb.rawdata.converter.core.rawdatasource.RawdataSourceConfig;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConverterJobLocalStorageTest {
+
+    private static final Schema SCHEMA = SchemaBuilder.record("root").fields()
+      .requiredString("ulid")
+      .endRecord();
+
+    private static final ULID ULID_GENERATOR = new ULID();
+
+    private static ConverterJobConfig jobConfigOf(Path localStoragePath, Consumer<ConverterJobConfig.Debug> debugSettings) {
+        ConverterJobConfig partialJobConfig = new ConverterJobConfig("test")
+          .setActiveByDefault(false);
+        partialJobConfig.getRawdataSource()
+          .setName("test-source")
+          .setTopic("test-topic");
+        partialJobConfig.getDebug()
+          .setLocalStoragePath(localStoragePath.toString());
+        debugSettings.accept(partialJobConfig.getDebug());
+        return new ConverterJobConfigFactory(List.of(), List.of(new RawdataSourceConfig("test-source")))
+          .effectiveConverterJobConfigOf(partialJobConfig);
+    }
+
+    private static ConverterJobLocalStorage localStorageOf(ConverterJobConfig jobConfig, ApplicationEventPublisher eventPublisher) {
+        return new ConverterJobLocalStorage(jobConfig, eventPublisher,
+          new ConverterJobMetrics(new PrometheusMeterRegistry(PrometheusConfig.DEFAULT), jobConfig));
+    }
+
+    private static ConverterJobTest.TestRawdataMessage message() {
+        return new ConverterJobTest.TestRawdataMessage(ULID_GENERATOR.nextValue(), "0");
+    }
+
+    private static LocalStorageEvent eventOf(Object event) {
+        return (LocalStorageEvent) event;
+    }
+
+    private static GenericRecord record(ConverterJobTest.TestRawdataMessage message) {
+        return new GenericRecordBuilder(SCHEMA).set("ulid", message.ulid().toString()).build();
+    }
+
+    private static List<Path> filesOf(Path dir, String suffix) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(f -> f.toString().endsWith(suffix)).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static List<String> ulidsOf(Path avroFile) throws IOException {
+        List<String> ulids = new ArrayList<>();
+        try (DataFileReader<GenericRecord> reader = new DataFileReader<>(avroFile.toFile(), new GenericDatumReader<>())) {
+            reader.forEach(r -> ulids.add(r.get("ulid").toString()));
+        }
+        return ulids;
+    }
+
+    @Test
+    void convertedRecordsStoredAfterFlush_shouldNotOverwriteEarlierAvroFile(@TempDir Path tempDir) throws Exception {
+        ConverterJobLocalStorage localStorage = localStorageOf(jobConfigOf(tempDir, debug -> debug.setConvertedStorageFormat(ConvertedStorageFormat.AVRO)), event -> {});
+        ConverterJobTest.TestRawdataMessage message1 = message();
+        ConverterJobTest.TestRawdataMessage message2 = message();
+
+        localStorage.storeConvertedRecord(message1, record(message1));
+        localStorage.flush(); // e.g. when the job is paused
+        localStorage.storeConvertedRecord(message2, record(message2));
+        localStorage.flush();
+
+        List<Path> avroFiles = filesOf(tempDir, ".avro");
+        assertThat(avroFiles).hasSize(2);
+        List<String> storedUlids = new ArrayList<>();
+        for (Path avroFile : avroFiles) {
+            storedUlids.addAll(ulidsOf(avroFile));
+        }
+        assertThat(storedUlids).containsExactlyInAnyOrder(message1.ulid().toString(), message2.ulid().toString());
+    }
+
+    @Test
+    void sampling_shouldSelectSameMessagesForAllContent(@TempDir Path tempDir) {
+        List<LocalStorageEvent> events = new ArrayList<>();
+        ConverterJobLocalStorage localStorage = localStorageOf(jobConfigOf(tempDir, debug -> debug.setLocalStorageSampleRate(4)),
+          event -> events.add(eventOf(event)));
+
+        Set<String> expectedPositions = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            ConverterJobTest.TestRawdataMessage message = new ConverterJobTest.TestRawdataMessage(ULID_GENERATOR.nextValue(), String.valueOf(i));
+            if (Math.floorMod(message.ulid().hashCode(), 4) == 0) {
+                expectedPositions.add(message.position());
+            }
+            localStorage.storeSampledRawdataToFile(message, "rawdata");
+            localStorage.storeSampledToFile(message, "converted", Map.of("converted.json", new byte[10]));
+        }
+
+        assertThat(expectedPositions).isNotEmpty().hasSizeLessThan(200);
+        assertThat(events.stream().filter(e -> e.getPathPrefix().endsWith("rawdata")).map(LocalStorageEvent::getFileGroupName))
+          .containsExactlyInAnyOrderElementsOf(expectedPositions);
+        assertThat(events.stream().filter(e -> e.getPathPrefix().endsWith("converted")).map(LocalStorageEvent::getFileGroupName))
+          .containsExactlyInAnyOrderElementsOf(expectedPositions);
+    }
+
+    @Test
+    void reservoir_shouldHoldBackSampleUntilFlushed(@TempDir Path tempDir) {
+        List<LocalStorageEvent> events = new ArrayList<>();
+        ConverterJobLocalStorage localStorage = localStorageOf(jobConfigOf(tempDir, debug -> debug.setLocalStorageReservoirSize(3)),
+          event -> events.add(eventOf(event)));
+
+        Set<String> positions = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            ConverterJobTest.TestRawdataMessage message = new ConverterJobTest.TestRawdataMessage(ULID_GENERATOR.nextValue(), String.valueOf(i));
+            positions.add(message.position());
+            localStorage.storeSampledRawdataToFile(message, "rawdata");
+        }
+        assertThat(events).isEmpty();
+
+        localStorage.flush();
+        assertThat(events).hasSize(3);
+        assertThat(events).extracting(LocalStorageEvent::getFileGroupName).doesNotHaveDuplicates().isSubsetOf(positions);
+    }
+
+    @Test
+    void quotaExceeded_shouldRotateOldestTimeBucketsBeforeDropping(@TempDir Path tempDir) throws Exception {
+        Path oldEntry = tempDir.resolve("test-topic").resolve("rawdata").resolve("010100").resolve("some-position");
+        Files.createDirectories(oldEntry);
+        Files.write(oldEntry.resolve("entry"), new byte[80]);
+
+        List<LocalStorageEvent> events = new ArrayList<>();
+        ConverterJobLocalStorage localStorage = localStorageOf(jobConfigOf(tempDir, debug -> debug.setLocalStorageQuotaBytes(100L)),
+          event -> events.add(eventOf(event)));
+
+        localStorage.storeToFile("rawdata", "1", Map.of("entry", new byte[50]));
+        assertThat(events).hasSize(1);
+        assertThat(oldEntry).doesNotExist();
+
+        // the current time bucket is never rotated
+        localStorage.storeToFile("rawdata", "2", Map.of("entry", new byte[60]));
+        assertThat(events).hasSize(1);
+    }
+
+    @Test
+    void contentDroppedByLocalStorageService_shouldNotUseQuota(@TempDir Path tempDir) {
+        List<LocalStorageEvent> events = new ArrayList<>();
+        ConverterJobLocalStorage localStorage = localStorageOf(jobConfigOf(tempDir, debug -> debug.setLocalStorageQuotaBytes(100L)),
+          event -> {
+              events.add(eventOf(event));
+              eventOf(event).getOnDropped().run();
+          });
+
+        localStorage.storeToFile("rawdata", "1", Map.of("entry", new byte[60]));
+        localStorage.storeToFile("rawdata", "2", Map.of("entry", new byte[60]));
+        assertThat(events).extracting(LocalStorageEvent::getFileGroupName).containsExactly("1", "2");
+    }
+}
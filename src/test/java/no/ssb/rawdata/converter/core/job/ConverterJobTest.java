@@ -0,0 +1,225 @@
+package no.ssb.rawdata.converter.core.job;
+
+import de.huxhorn.sulky.ulid.ULID;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import no.ssb.dapla.storage.client.backend.local.LocalBackend;
+import no.ssb.rawdata.api.RawdataConsumer;
+import no.ssb.rawdata.api.RawdataMessage;
+import no.ssb.rawdata.converter.core.convert.ConversionResult;
+import no.ssb.rawdata.converter.core.convert.RawdataConverter;
+import no.ssb.rawdata.converter.core.crypto.RawdataDecryptor;
+import no.ssb.rawdata.converter.core.datasetmeta.DatasetType;
+import no.ssb.rawdata.converter.core.rawdatasource.RawdataConsumers;
+import no.ssb.rawdata.converter.core.rawdatasource.RawdataSourceConfig;
+import no.ssb.rawdata.converter.core.storage.BinaryBackendConfig;
+import no.ssb.rawdata.converter.core.storage.BinaryBackendFactory;
+import no.ssb.rawdata.converter.core.storage.DatasetIndex;
+import no.ssb.rawdata.converter.core.storage.DatasetStorageFactory;
+import no.ssb.rawdata.converter.core.storage.DatasetWriter;
+import no.ssb.rawdata.converter.util.DatasetUriBuilder;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConverterJobTest {
+
+    private static final Schema COLLECTOR_SCHEMA = SchemaBuilder.record("collector").fields()
+      .requiredString("ulid")
+      .endRecord();
+
+    private static final Schema MANIFEST_SCHEMA = SchemaBuilder.record("manifest").fields()
+      .name("collector").type(COLLECTOR_SCHEMA).noDefault()
+      .endRecord();
+
+    private static final Schema SCHEMA = SchemaBuilder.record("root").fields()
+      .name("manifest").type(MANIFEST_SCHEMA).noDefault()
+      .endRecord();
+
+    @Test
+    void maxRecordsTotalReached_shouldWriteFinalFileBeforeStopping(@TempDir Path tempDir) throws Exception {
+        ConverterJobConfig partialJobConfig = new ConverterJobConfig("test")
+          .setActiveByDefault(false);
+        partialJobConfig.getRawdataSource()
+          .setName("test-source");
+        partialJobConfig.getTargetStorage()
+          .setRoot("file://" + tempDir)
+          .setPath("/test/dataset")
+          .setVersion("1");
+        partialJobConfig.getTargetDataset()
+          .setType(DatasetType.UNBOUNDED);
+        partialJobConfig.getConverterSettings()
+          .setMaxRecordsTotal(5L)
+          .setMaxRecordsBeforeFlush(1000L)
+          .setMaxSecondsBeforeFlush(3600L)
+          .setRawdataSamples(0);
+        ConverterJobConfig jobConfig = new ConverterJobConfigFactory(List.of(), List.of(new RawdataSourceConfig("test-source")))
+          .effectiveConverterJobConfigOf(partialJobConfig);
+
+        ULID ulid = new ULID();
+        Deque<RawdataMessage> messages = new ArrayDeque<>();
+        for (int i = 0; i < 10; i++) {
+            messages.add(new TestRawdataMessage(ulid.nextValue(), String.valueOf(i)));
+        }
+
+        PrometheusMeterRegistry meterRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        ConverterJobMetrics jobMetrics = new ConverterJobMetrics(meterRegistry, jobConfig);
+        DatasetStorageFactory storageFactory = new DatasetStorageFactory(new BinaryBackendFactory(new BinaryBackendConfig(), meterRegistry));
+        DatasetWriter datasetWriter = storageFactory.datasetWriterOf(jobConfig, storageFactory.parquetProviderOf(jobConfig.getTargetStorage()));
+
+        ConverterJob job = ConverterJob.builder()
+          .jobConfig(jobConfig)
+          .rawdataConverter(new TestRawdataConverter())
+          .rawdataConsumers(RawdataConsumers.builder().mainRawdataConsumer(new TestRawdataConsumer(messages)).build())
+          .rawdataDecryptor(new RawdataDecryptor(null, null))
+          .datasetWriter(datasetWriter)
+          .localStorage(new ConverterJobLocalStorage(jobConfig, event -> {}, jobMetrics))
+          .jobMetrics(jobMetrics)
+          .eventPublisher(event -> {})
+          .build();
+
+        job.start(); // returns when the job has stopped
+
+        assertThat(job.runtime().isStopped()).isTrue();
+        String datasetPath = DatasetUriBuilder.of()
+          .root(jobConfig.getTargetStorage().getRoot())
+          .path(jobConfig.getTargetStorage().getPath())
+          .version(jobConfig.getTargetStorage().getVersion())
+          .build().toString();
+        List<DatasetIndex.Entry> files = DatasetIndex.load(new LocalBackend(), datasetPath).getFiles();
+        assertThat(files).hasSize(1);
+        assertThat(files.get(0).getRowCount()).isEqualTo(5);
+    }
+
+    private static class TestRawdataConverter implements RawdataConverter {
+
+        @Override
+        public void init(Collection<RawdataMessage> sampleRawdataMessages) {
+        }
+
+        @Override
+        public ConversionResult convert(RawdataMessage rawdataMessage) {
+            GenericRecord collector = new GenericRecordBuilder(COLLECTOR_SCHEMA)
+              .set("ulid", rawdataMessage.ulid().toString())
+              .build();
+            return ConversionResult.builder(SCHEMA, rawdataMessage)
+              .withRecord("manifest", new GenericRecordBuilder(MANIFEST_SCHEMA).set("collector", collector).build())
+              .build();
+        }
+
+        @Override
+        public Schema targetAvroSchema() {
+            return SCHEMA;
+        }
+
+        @Override
+        public boolean isConvertible(RawdataMessage rawdataMessage) {
+            return true;
+        }
+    }
+
+    private static class TestRawdataConsumer implements RawdataConsumer {
+        private final Deque<RawdataMessage> messages;
+
+        TestRawdataConsumer(Deque<RawdataMessage> messages) {
+            this.messages = messages;
+        }
+
+        @Override
+        public String topic() {
+            return "test-topic";
+        }
+
+        @Override
+        public RawdataMessage receive(int timeout, TimeUnit unit) {
+            return messages.poll();
+        }
+
+        @Override
+        public CompletableFuture<? extends RawdataMessage> receiveAsync() {
+            return CompletableFuture.completedFuture(messages.poll());
+        }
+
+        @Override
+        public void seek(long timestamp) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    static class TestRawdataMessage implements RawdataMessage {
+        private final ULID.Value ulid;
+        private final String position;
+        private final Map<String, byte[]> data;
+
+        TestRawdataMessage(ULID.Value ulid, String position) {
+            this.ulid = ulid;
+            this.position = position;
+            this.data = Map.of("entry", ("{\"position\": " + position + "}").getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public ULID.Value ulid() {
+            return ulid;
+        }
+
+        @Override
+        public long timestamp() {
+            return ulid.timestamp();
+        }
+
+        @Override
+        public String orderingGroup() {
+            return null;
+        }
+
+        @Override
+        public long sequenceNumber() {
+            return 0;
+        }
+
+        @Override
+        public String position() {
+            return position;
+        }
+
+        @Override
+        public Set<String> keys() {
+            return data.keySet();
+        }
+
+        @Override
+        public byte[] get(String key) {
+            return data.get(key);
+        }
+
+        @Override
+        public Map<String, byte[]> data() {
+            return data;
+        }
+    }
+}
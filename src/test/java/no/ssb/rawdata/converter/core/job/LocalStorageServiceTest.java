@@ -0,0 +1,72 @@
+package no.ssb.rawdata.converter.core.job;
+
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import net.lingala.zip4j.ZipFile;
+import net.lingala.zip4j.model.FileHeader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LocalStorageServiceTest {
+
+    private static final String PASSWORD = "secret";
+    private static final String TIME_BUCKET = "010100";
+
+    @TempDir
+    Path tempDir;
+
+    private LocalStorageService service;
+    private final AtomicInteger storedCount = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        service = new LocalStorageService(new LocalStorageServiceConfig(), new PrometheusMeterRegistry(PrometheusConfig.DEFAULT));
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.close();
+    }
+
+    private LocalStorageEvent archivedEvent(String fileGroupName) {
+        return LocalStorageEvent.builder()
+          .pathPrefix(tempDir)
+          .fileGroupName(fileGroupName)
+          .files(Map.of("message.json", fileGroupName.getBytes(StandardCharsets.UTF_8)))
+          .localStoragePassword(PASSWORD)
+          .timeBucket(TIME_BUCKET)
+          .onStored(storedCount::incrementAndGet)
+          .build();
+    }
+
+    private static List<String> entriesOf(Path archive) throws Exception {
+        ZipFile zipFile = new ZipFile(archive.toFile(), PASSWORD.toCharArray());
+        assertThat(zipFile.isValidZipFile()).isTrue();
+        return zipFile.getFileHeaders().stream().map(FileHeader::getFileName).collect(Collectors.toList());
+    }
+
+    @Test
+    void archives_shouldBeCompletedAtTheEndOfEachBatch() throws Exception {
+        service.processStorageEvents(List.of(archivedEvent("a"), archivedEvent("b")));
+
+        // readable before the service is closed, as it would be after the process was killed
+        assertThat(entriesOf(tempDir.resolve(TIME_BUCKET + ".zip"))).containsExactly("a/message.json", "b/message.json");
+        assertThat(storedCount).hasValue(2);
+
+        service.processStorageEvents(List.of(archivedEvent("c")));
+
+        assertThat(entriesOf(tempDir.resolve(TIME_BUCKET + "-2.zip"))).containsExactly("c/message.json");
+        assertThat(storedCount).hasValue(3);
+    }
+}
@@ -0,0 +1,88 @@
+package no.ssb.rawdata.converter.core.json;
+
+import no.ssb.rawdata.converter.core.convert.SchemaGuidedRecordBuilder.SchemaGuidedConversionException;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JsonRecordReaderTest {
+
+    private static final Schema ADDRESS_SCHEMA = SchemaBuilder.record("address").fields()
+      .optionalString("street")
+      .optionalString("zip")
+      .endRecord();
+
+    private static final Schema PERSON_SCHEMA = SchemaBuilder.record("person").fields()
+      .requiredString("name")
+      .optionalInt("birthYear")
+      .optionalDouble("score")
+      .optionalBoolean("active")
+      .name("address").type().optional().type(ADDRESS_SCHEMA)
+      .name("nicknames").type().nullable().array().items().stringType().noDefault()
+      .name("previousAddresses").type().nullable().array().items(ADDRESS_SCHEMA).noDefault()
+      .endRecord();
+
+    private static final String JSON = """
+      {
+        "name": "Kari Nordmann",
+        "birthYear": 1979,
+        "score": 9.5,
+        "active": true,
+        "unknown": {"name": "skipped", "list": [1, [2, 3]]},
+        "address": {"street": "Storgata 1", "zip": "0155", "country": "NO"},
+        "nicknames": ["Kari", null, ["nested", "arrays", "are", "skipped"], "K"],
+        "previousAddresses": [{"street": "Lillegata 2"}, {"zip": "5003"}]
+      }
+      """;
+
+    @Test
+    void read_shouldFillRecordGuidedBySchema() {
+        GenericRecord record = new JsonRecordReader(PERSON_SCHEMA, null).read(JSON.getBytes(StandardCharsets.UTF_8));
+
+        GenericRecord expected = new GenericRecordBuilder(PERSON_SCHEMA)
+          .set("name", "Kari Nordmann")
+          .set("birthYear", 1979)
+          .set("score", 9.5)
+          .set("active", true)
+          .set("address", new GenericRecordBuilder(ADDRESS_SCHEMA).set("street", "Storgata 1").set("zip", "0155").build())
+          .set("nicknames", List.of("Kari", "K"))
+          .set("previousAddresses", List.of(
+            new GenericRecordBuilder(ADDRESS_SCHEMA).set("street", "Lillegata 2").build(),
+            new GenericRecordBuilder(ADDRESS_SCHEMA).set("zip", "5003").build()))
+          .build();
+        assertThat(record).isEqualTo(expected);
+    }
+
+    @Test
+    void read_shouldPassLeafValuesThroughValueInterceptor() {
+        JsonRecordReader reader = new JsonRecordReader(PERSON_SCHEMA, (field, value) -> value.startsWith("K") ? "***" : value);
+        GenericRecord record = reader.read(JSON.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(record.get("name")).isEqualTo("***");
+        assertThat(record.get("birthYear")).isEqualTo(1979);
+        assertThat(record.get("nicknames")).isEqualTo(List.of("***", "***"));
+    }
+
+    @Test
+    void read_shouldAcceptBooleansAsTrueFalseOrOneZero() {
+        JsonRecordReader reader = new JsonRecordReader(PERSON_SCHEMA, null);
+
+        assertThat(reader.read(bytes("{\"name\": \"Kari\", \"active\": 1}")).get("active")).isEqualTo(true);
+        assertThat(reader.read(bytes("{\"name\": \"Kari\", \"active\": \"0\"}")).get("active")).isEqualTo(false);
+        assertThat(reader.read(bytes("{\"name\": \"Kari\", \"active\": \"False\"}")).get("active")).isEqualTo(false);
+        assertThatThrownBy(() -> reader.read(bytes("{\"name\": \"Kari\", \"active\": \"no\"}")))
+          .isInstanceOf(SchemaGuidedConversionException.class);
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,91 @@
+package no.ssb.rawdata.converter.core.pseudo;
+
+import no.ssb.avro.convert.core.FieldDescriptor;
+import no.ssb.dlp.pseudo.core.FieldPseudonymizer;
+import no.ssb.dlp.pseudo.core.PseudoFuncRule;
+import no.ssb.dlp.pseudo.core.PseudoSecret;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompiledPseudoRulesTest {
+
+    private static final Schema PERSON_SCHEMA = SchemaBuilder.record("person").fields()
+      .requiredString("fnr")
+      .optionalString("name")
+      .name("relations").type().nullable().array().items().record("relation").fields()
+        .optionalString("fnr")
+        .optionalString("type")
+      .endRecord().noDefault()
+      .endRecord();
+
+    private static final List<PseudoFuncRule> RULES = List.of(
+      new PseudoFuncRule("fnr", "**/fnr", "fpe-fnr(secret1)"),
+      new PseudoFuncRule("names", "/name", "fpe-anychar(secret1)")
+    );
+
+    @Test
+    void compile_shouldResolveRulesOfAllLeafFieldsOfSchema() {
+        CompiledPseudoRules rules = CompiledPseudoRules.compile(RULES, PERSON_SCHEMA);
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put("/fnr", "fnr");
+        expected.put("/name", "names");
+        expected.put("/relations/fnr", "fnr");
+        expected.put("/relations/type", null);
+        assertThat(rules.resolvedPaths()).isEqualTo(expected);
+    }
+
+    @Test
+    void ruleOf_shouldResolveUnknownPathsOnFirstUse() {
+        CompiledPseudoRules rules = CompiledPseudoRules.compile(RULES);
+
+        assertThat(rules.ruleOf("/some/other/fnr").map(PseudoFuncRule::getName)).hasValue("fnr");
+        assertThat(rules.ruleOf("/some/other/name")).isEmpty();
+        assertThat(rules.resolvedPaths()).containsOnlyKeys("/some/other/fnr", "/some/other/name");
+    }
+
+    @Test
+    void ruleOf_shouldMatchSameFieldsAsFieldPseudonymizer() {
+        List<PseudoFuncRule> rules = List.of(
+          new PseudoFuncRule("fnr", "**/fnr", "fpe-anychar(secret1)"),
+          new PseudoFuncRule("names", "/name", "fpe-anychar(secret1)"),
+          new PseudoFuncRule("addresses", "/person/*/address", "fpe-anychar(secret1)")
+        );
+        PseudoSecret secret = new PseudoSecret();
+        secret.setId("secret1");
+        secret.setContent(Base64.getEncoder().encodeToString("0123456789abcdef0123456789abcdef".getBytes()));
+        secret.setType("AES256");
+        FieldPseudonymizer fieldPseudonymizer = new FieldPseudonymizer.Builder()
+          .rules(rules)
+          .secrets(List.of(secret))
+          .build();
+        CompiledPseudoRules compiledRules = CompiledPseudoRules.compile(rules, PERSON_SCHEMA);
+
+        String value = "Some value to pseudonymize";
+        for (String path : List.of("/fnr", "/name", "/relations/fnr", "/relations/type", "/some/other/fnr", "/fnr/other",
+          "/name/first", "/other/name", "/person/home/address", "/person/address", "/person/home/other/address")) {
+            boolean pseudonymized = ! value.equals(fieldPseudonymizer.pseudonymize(new FieldDescriptor(path), value));
+            assertThat(compiledRules.ruleOf(path).isPresent()).as(path).isEqualTo(pseudonymized);
+        }
+    }
+
+    @Test
+    void ruleOf_shouldRememberLimitedNumberOfUnknownPaths() {
+        CompiledPseudoRules rules = CompiledPseudoRules.compile(RULES, PERSON_SCHEMA);
+        for (int i = 0; i < CompiledPseudoRules.MAX_LAZILY_RESOLVED_PATHS + 100; i++) {
+            assertThat(rules.ruleOf("/items/" + i + "/fnr").map(PseudoFuncRule::getName)).hasValue("fnr");
+        }
+
+        // the paths of the schema are always kept
+        assertThat(rules.resolvedPaths()).containsKeys("/fnr", "/name", "/relations/fnr", "/relations/type");
+        assertThat(rules.resolvedPaths()).hasSizeLessThanOrEqualTo(CompiledPseudoRules.MAX_LAZILY_RESOLVED_PATHS + 4);
+    }
+}
@@ -0,0 +1,43 @@
+package no.ssb.rawdata.converter.core.pseudo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PseudonymizationCacheTest {
+
+    @Test
+    void pseudonymize_shouldReuseValuesPerRuleAndInput() {
+        PseudonymizationCache cache = new PseudonymizationCache(100, 1024 * 1024);
+        AtomicInteger calls = new AtomicInteger();
+        UnaryOperator<String> pseudonymizer = v -> {
+            calls.incrementAndGet();
+            return "pseudo-" + v;
+        };
+
+        assertThat(cache.pseudonymize("fnr", "123", pseudonymizer)).isEqualTo("pseudo-123");
+        assertThat(cache.pseudonymize("fnr", "123", pseudonymizer)).isEqualTo("pseudo-123");
+        assertThat(cache.pseudonymize("orgnr", "123", pseudonymizer)).isEqualTo("pseudo-123");
+        assertThat(cache.pseudonymize("fnr", null, pseudonymizer)).isNull();
+
+        assertThat(calls).hasValue(2);
+        assertThat(cache.stats().hitCount()).isEqualTo(1);
+        assertThat(cache.stats().missCount()).isEqualTo(2);
+    }
+
+    @Test
+    void cache_shouldBeBoundedByEntriesAndMemory() {
+        PseudonymizationCache byEntries = new PseudonymizationCache(10, 1024 * 1024);
+        PseudonymizationCache byMemory = new PseudonymizationCache(1_000_000, 10 * 1024);
+        for (int i = 0; i < 1000; i++) {
+            byEntries.pseudonymize("rule", "value" + i, UnaryOperator.identity());
+            byMemory.pseudonymize("rule", "value" + i, UnaryOperator.identity());
+        }
+
+        assertThat(byEntries.size()).isLessThanOrEqualTo(10);
+        assertThat(byMemory.size()).isLessThanOrEqualTo(10 * 1024 / 128);
+    }
+}
@@ -0,0 +1,68 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import no.ssb.rawdata.converter.metrics.MetricName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BinaryBackendFactoryTest {
+
+    private final PrometheusMeterRegistry meterRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+    private BinaryBackendFactory factoryWithIdleTimeout(int idleBackendTimeoutSeconds) {
+        BinaryBackendConfig config = new BinaryBackendConfig();
+        config.setIdleBackendTimeoutSeconds(idleBackendTimeoutSeconds);
+        return new BinaryBackendFactory(config, meterRegistry);
+    }
+
+    private double createdCount() {
+        return meterRegistry.counter(MetricName.STORAGE_BACKENDS_CREATED_TOTAL).count();
+    }
+
+    @Test
+    void leasesWithSameKey_shouldShareBackend() {
+        BinaryBackendFactory factory = factoryWithIdleTimeout(300);
+        BinaryBackendLease lease1 = factory.lease(StorageType.FILESYSTEM);
+        BinaryBackendLease lease2 = factory.lease(StorageType.FILESYSTEM);
+
+        assertThat(lease2.getBackend()).isSameAs(lease1.getBackend());
+        assertThat(factory.pooledBackendCount()).isEqualTo(1);
+        assertThat(factory.leaseCount()).isEqualTo(2);
+        assertThat(createdCount()).isEqualTo(1);
+
+        lease1.close();
+        lease1.close(); // closing twice releases only once
+        assertThat(factory.leaseCount()).isEqualTo(1);
+        lease2.close();
+        assertThat(factory.leaseCount()).isEqualTo(0);
+    }
+
+    @Test
+    void unusedBackend_shouldBeReusedWithinIdleTimeout() {
+        BinaryBackendFactory factory = factoryWithIdleTimeout(300);
+        BinaryBackendLease lease = factory.lease(StorageType.FILESYSTEM);
+        lease.close();
+        factory.discardIdleBackends();
+
+        assertThat(factory.pooledBackendCount()).isEqualTo(1);
+        try (BinaryBackendLease newLease = factory.lease(StorageType.FILESYSTEM)) {
+            assertThat(newLease.getBackend()).isSameAs(lease.getBackend());
+        }
+        assertThat(createdCount()).isEqualTo(1);
+    }
+
+    @Test
+    void unusedBackend_shouldBeDiscardedAfterIdleTimeout() {
+        BinaryBackendFactory factory = factoryWithIdleTimeout(0);
+        BinaryBackendLease lease = factory.lease(StorageType.FILESYSTEM);
+        lease.close();
+
+        assertThat(factory.pooledBackendCount()).isEqualTo(0);
+        try (BinaryBackendLease newLease = factory.lease(StorageType.FILESYSTEM)) {
+            assertThat(newLease.getBackend()).isNotSameAs(lease.getBackend());
+        }
+        assertThat(createdCount()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,109 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import de.huxhorn.sulky.ulid.ULID;
+import no.ssb.rawdata.converter.core.convert.ColumnarRecord;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ColumnarWriteSupportTest {
+
+    private static final Schema ITEM_SCHEMA = SchemaBuilder.record("item").fields()
+      .requiredString("code")
+      .optionalDouble("price")
+      .endRecord();
+
+    private static final Schema SCHEMA = SchemaBuilder.record("root").fields()
+      .name("manifest").type().record("manifest").fields()
+        .name("collector").type().record("collector").fields()
+          .requiredString("ulid")
+        .endRecord().noDefault()
+      .endRecord().noDefault()
+      .requiredString("name")
+      .requiredLong("amount")
+      .optionalInt("count")
+      .name("tags").type().array().items().stringType().noDefault()
+      .name("items").type().array().items(ITEM_SCHEMA).noDefault()
+      .endRecord();
+
+    private static final ULID.Value ULID_VALUE = new ULID().nextValue();
+
+    private static GenericRecord avroRecord() {
+        GenericRecord collector = new GenericRecordBuilder(SCHEMA.getField("manifest").schema().getField("collector").schema())
+          .set("ulid", ULID_VALUE.toString())
+          .build();
+        return new GenericRecordBuilder(SCHEMA)
+          .set("manifest", new GenericRecordBuilder(SCHEMA.getField("manifest").schema()).set("collector", collector).build())
+          .set("name", "Kari")
+          .set("amount", 42L)
+          .set("tags", List.of("a", "b"))
+          .set("items", List.of(
+            new GenericRecordBuilder(ITEM_SCHEMA).set("code", "x").set("price", 9.5).build(),
+            new GenericRecordBuilder(ITEM_SCHEMA).set("code", "y").build()))
+          .build();
+    }
+
+    private static ColumnarRecord columnarRecord() {
+        return ColumnarRecord.of(SCHEMA, ULID_VALUE, out -> out
+          .startRecord("manifest")
+            .startRecord("collector")
+              .string("ulid", ULID_VALUE.toString())
+            .endRecord()
+          .endRecord()
+          .string("name", "Kari")
+          .int64("amount", 42L)
+          .startArray("tags")
+            .string(null, "a")
+            .string(null, "b")
+          .endArray()
+          .startArray("items")
+            .startRecord(null).string("code", "x").float64("price", 9.5).endRecord()
+            .startRecord(null).string("code", "y").endRecord()
+          .endArray()
+        );
+    }
+
+    @Test
+    void columnarRecord_shouldMaterializeToEquivalentAvroRecord() {
+        assertThat(columnarRecord().toGenericRecord()).isEqualTo(avroRecord());
+    }
+
+    @Test
+    void columnarAndAvroRecords_shouldBeReadBackIdentically(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("1.parquet");
+        TunedParquetProvider parquetProvider = new TunedParquetProvider(ParquetPreset.DEFAULT.toSettings());
+        try (SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             ParquetWriter<GenericRecord> writer = parquetProvider.getWriter(channel, SCHEMA)) {
+            writer.write(avroRecord());
+            writer.write(columnarRecord());
+        }
+
+        List<String> records = new ArrayList<>();
+        try (SeekableByteChannel channel = Files.newByteChannel(file);
+             ParquetReader<GenericRecord> reader = AvroParquetReader.<GenericRecord>builder(new ChannelInputFile(channel))
+               .withDataModel(GenericData.get())
+               .build()) {
+            for (GenericRecord record = reader.read(); record != null; record = reader.read()) {
+                records.add(record.toString());
+            }
+        }
+
+        assertThat(records).containsExactly(avroRecord().toString(), avroRecord().toString());
+    }
+}
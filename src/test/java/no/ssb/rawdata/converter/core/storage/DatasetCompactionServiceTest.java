@@ -0,0 +1,176 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import de.huxhorn.sulky.ulid.ULID;
+import no.ssb.dapla.dataset.uri.DatasetUri;
+import no.ssb.dapla.storage.client.backend.BinaryBackend;
+import no.ssb.dapla.storage.client.backend.local.LocalBackend;
+import no.ssb.rawdata.converter.core.storage.DatasetCompactionService.DataFile;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class DatasetCompactionServiceTest {
+
+    private static final long NOW = 1_000_000;
+    private static final ULID ULID_GENERATOR = new ULID();
+
+    private final BinaryBackend backend = new LocalBackend();
+    private final TunedParquetProvider parquetProvider = new TunedParquetProvider(ParquetPreset.DEFAULT.toSettings());
+    private DatasetCompactionService compactionService;
+    private String datasetPath;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        DatasetCompactionConfig config = new DatasetCompactionConfig();
+        config.setMinFilesPerCompaction(2);
+        compactionService = new DatasetCompactionService(config, null, null);
+        datasetPath = DatasetUri.of("file://" + tempDir, "/dataset", "1").toString();
+    }
+
+    private static DataFile file(String name, long size) {
+        return new DataFile(name, size, NOW - 1);
+    }
+
+    private static List<List<String>> groupNames(List<List<DataFile>> groups) {
+        return groups.stream()
+          .map(g -> g.stream().map(DataFile::getName).collect(Collectors.toList()))
+          .collect(Collectors.toList());
+    }
+
+    @Test
+    void consecutiveSmallFiles_shouldBeGroupedUpToTargetSize() {
+        List<DataFile> files = List.of(
+          file("1.parquet", 10), file("2.parquet", 10), file("3.parquet", 10), file("4.parquet", 10), file("5.parquet", 10)
+        );
+
+        assertThat(groupNames(DatasetCompactionService.compactionGroupsOf(files, 100, 30, 2, NOW)))
+          .containsExactly(List.of("1.parquet", "2.parquet", "3.parquet"), List.of("4.parquet", "5.parquet"));
+    }
+
+    @Test
+    void largeOrRecentFiles_shouldSplitGroups() {
+        List<DataFile> files = List.of(
+          file("1.parquet", 10), file("2.parquet", 10), file("3.parquet", 500), file("4.parquet", 10),
+          file("5.parquet", 10), file("6.parquet", 10), new DataFile("7.parquet", 10, NOW + 1)
+        );
+
+        assertThat(groupNames(DatasetCompactionService.compactionGroupsOf(files, 100, 1000, 3, NOW)))
+          .containsExactly(List.of("4.parquet", "5.parquet", "6.parquet"));
+    }
+
+    private void writeDataFile(String fileName, ULID.Value... ulids) throws Exception {
+        try (ParquetWriter<GenericRecord> writer = parquetProvider.getWriter(backend.write(datasetPath + "/" + fileName), DatasetWriterTest.SCHEMA)) {
+            for (ULID.Value ulid : ulids) {
+                writer.write(DatasetWriterTest.record(ulid, "tag"));
+            }
+        }
+    }
+
+    private void indexDataFile(String fileName, ULID.Value... ulids) throws Exception {
+        DatasetIndex.update(backend, datasetPath, index -> index.add(new DatasetIndex.Entry(fileName,
+          ulids[0].toString(), ulids[ulids.length - 1].toString(), ulids[0].timestamp(), ulids[ulids.length - 1].timestamp(), ulids.length)));
+    }
+
+    private Path datasetDir() {
+        return tempDir.resolve("dataset").resolve("1");
+    }
+
+    /**
+     * Make the files of the dataset old enough to be compacted
+     */
+    private void ageDatasetFiles() throws Exception {
+        for (Path file : DatasetWriterTest.filesOf(datasetDir(), "")) {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+        }
+    }
+
+    private List<String> datasetFiles() throws Exception {
+        try (Stream<Path> files = Files.list(datasetDir())) {
+            return files.map(f -> f.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private List<String> ulidsOf(String fileName) throws Exception {
+        return DatasetWriterTest.readParquet(datasetDir().resolve(fileName)).stream()
+          .map(DatasetIndex::ulidOf)
+          .collect(Collectors.toList());
+    }
+
+    private static List<String> strings(ULID.Value... ulids) {
+        return Arrays.stream(ulids).map(ULID.Value::toString).collect(Collectors.toList());
+    }
+
+    @Test
+    void compact_shouldMergeSmallFilesInUlidOrder() throws Exception {
+        ULID.Value a1 = ULID_GENERATOR.nextValue(1000), a2 = ULID_GENERATOR.nextValue(2000), b1 = ULID_GENERATOR.nextValue(3000);
+        writeDataFile("1.parquet", a1, a2);
+        writeDataFile("2.parquet", b1);
+        indexDataFile("1.parquet", a1, a2);
+        indexDataFile("2.parquet", b1);
+        ageDatasetFiles();
+
+        compactionService.compact(backend, datasetPath, parquetProvider);
+
+        assertThat(datasetFiles()).containsExactly(DatasetIndex.INDEX_FILE_NAME, "2.parquet");
+        assertThat(ulidsOf("2.parquet")).containsExactlyElementsOf(strings(a1, a2, b1));
+        DatasetIndex index = DatasetIndex.load(backend, datasetPath);
+        assertThat(index.getFiles()).extracting(DatasetIndex.Entry::getFileName, DatasetIndex.Entry::getRowCount)
+          .containsExactly(tuple("2.parquet", 3L));
+    }
+
+    @Test
+    void compact_shouldDiscardIncompleteCompactionFiles() throws Exception {
+        ULID.Value a1 = ULID_GENERATOR.nextValue(1000), b1 = ULID_GENERATOR.nextValue(2000);
+        writeDataFile("1.parquet", a1);
+        writeDataFile("2.parquet", b1);
+        Files.write(datasetDir().resolve(".2.parquet.compacting"), "truncated".getBytes(StandardCharsets.UTF_8));
+        ageDatasetFiles();
+
+        compactionService.compact(backend, datasetPath, parquetProvider);
+
+        // the data files are left for the next run, as the listing is stale
+        assertThat(datasetFiles()).containsExactly("1.parquet", "2.parquet");
+    }
+
+    @Test
+    void compact_shouldCompleteInterruptedCompactionFromJournal() throws Exception {
+        ULID.Value a1 = ULID_GENERATOR.nextValue(1000), b1 = ULID_GENERATOR.nextValue(2000), c1 = ULID_GENERATOR.nextValue(3000);
+        writeDataFile("1.parquet", a1);
+        writeDataFile("2.parquet", b1);
+        writeDataFile("3.parquet", c1);
+        indexDataFile("1.parquet", a1);
+        indexDataFile("2.parquet", b1);
+        indexDataFile("3.parquet", c1);
+
+        // interrupted after the merged file and the journal were written
+        writeDataFile(".2.parquet.compacting", a1, b1);
+        Files.write(datasetDir().resolve(".compaction-journal"),
+          String.join("\n", "2.parquet", ".2.parquet.compacting", "1.parquet", "2.parquet").getBytes(StandardCharsets.UTF_8));
+        ageDatasetFiles();
+
+        compactionService.compact(backend, datasetPath, parquetProvider);
+
+        assertThat(datasetFiles()).containsExactly(DatasetIndex.INDEX_FILE_NAME, "2.parquet", "3.parquet");
+        assertThat(ulidsOf("2.parquet")).containsExactlyElementsOf(strings(a1, b1));
+        DatasetIndex index = DatasetIndex.load(backend, datasetPath);
+        assertThat(index.getFiles()).extracting(DatasetIndex.Entry::getFileName, DatasetIndex.Entry::getRowCount)
+          .containsExactly(tuple("2.parquet", 2L), tuple("3.parquet", 1L));
+    }
+}
@@ -0,0 +1,191 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import de.huxhorn.sulky.ulid.ULID;
+import no.ssb.dapla.dataset.uri.DatasetUri;
+import no.ssb.dapla.storage.client.backend.BinaryBackend;
+import no.ssb.dapla.storage.client.backend.local.LocalBackend;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DatasetDedupIndexTest {
+
+    private static final ULID ULID_GENERATOR = new ULID();
+
+    private final BinaryBackend backend = new LocalBackend();
+    private final TunedParquetProvider parquetProvider = new TunedParquetProvider(ParquetPreset.DEFAULT.toSettings());
+    private String datasetPath;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        datasetPath = DatasetUri.of("file://" + tempDir, "/dataset", "1").toString();
+    }
+
+    private static ULID.Value ulidAt(long timestamp) {
+        return ULID_GENERATOR.nextValue(timestamp);
+    }
+
+    private void writeDataFile(String fileName, ULID.Value... ulids) throws Exception {
+        try (ParquetWriter<GenericRecord> writer = parquetProvider.getWriter(backend.write(datasetPath + "/" + fileName), DatasetWriterTest.SCHEMA)) {
+            for (ULID.Value ulid : ulids) {
+                writer.write(DatasetWriterTest.record(ulid, "tag"));
+            }
+        }
+    }
+
+    private DatasetDedupIndex dedupIndex() {
+        return DatasetDedupIndex.of(new BinaryBackendLease(backend, () -> {}), datasetPath);
+    }
+
+    private Path storedDedupIndex() throws Exception {
+        List<Path> files = DatasetWriterTest.filesOf(tempDir, DatasetDedupIndex.DEDUP_FILE_NAME);
+        assertThat(files).hasSize(1);
+        return files.get(0);
+    }
+
+    @Test
+    void build_shouldCoverUlidsOfAllDataFiles() throws Exception {
+        ULID.Value a1 = ulidAt(1000), a2 = ulidAt(2000), b1 = ulidAt(3000), b2 = ulidAt(4000);
+        writeDataFile("1.parquet", a1, a2);
+        writeDataFile("2.parquet", b1, b2);
+
+        try (DatasetDedupIndex index = dedupIndex()) {
+            assertThat(index.getIndexedFileCount()).isEqualTo(2);
+            assertThat(index.isConverted(a1)).isTrue();
+            assertThat(index.isConverted(a2)).isTrue();
+            assertThat(index.isConverted(b1)).isTrue();
+            assertThat(index.isConverted(b2)).isTrue();
+            assertThat(index.isConverted(ulidAt(1500))).isFalse();
+            assertThat(index.isConverted(ulidAt(5000))).isFalse();
+        }
+        storedDedupIndex();
+    }
+
+    @Test
+    void overlappingFiles_shouldAllBeChecked() throws Exception {
+        ULID.Value a1 = ulidAt(1000), b1 = ulidAt(2000), b2 = ulidAt(3000), a2 = ulidAt(5000);
+        writeDataFile("1.parquet", a1, a2);
+        writeDataFile("2.parquet", b1, b2);
+
+        try (DatasetDedupIndex index = dedupIndex()) {
+            assertThat(index.isConverted(b1)).isTrue();
+            assertThat(index.isConverted(b2)).isTrue();
+            assertThat(index.isConverted(a2)).isTrue();
+            assertThat(index.isConverted(ulidAt(4000))).isFalse();
+        }
+    }
+
+    @Test
+    void refresh_shouldAddNewDataFiles() throws Exception {
+        ULID.Value a1 = ulidAt(1000), b1 = ulidAt(2000);
+        writeDataFile("1.parquet", a1);
+        dedupIndex().close();
+
+        writeDataFile("2.parquet", b1);
+        try (DatasetDedupIndex index = dedupIndex()) {
+            assertThat(index.getIndexedFileCount()).isEqualTo(2);
+            assertThat(index.isConverted(a1)).isTrue();
+            assertThat(index.isConverted(b1)).isTrue();
+        }
+    }
+
+    @Test
+    void refresh_shouldReindexRewrittenDataFiles() throws Exception {
+        ULID.Value a1 = ulidAt(1000), a2 = ulidAt(2000), a3 = ulidAt(3000), a4 = ulidAt(4000);
+        writeDataFile("1.parquet", a1, a2);
+        dedupIndex().close();
+
+        // rewritten with another number of records, and so another size
+        backend.delete(datasetPath + "/1.parquet");
+        writeDataFile("1.parquet", a1, a3, a4);
+        try (DatasetDedupIndex index = dedupIndex()) {
+            assertThat(index.getIndexedFileCount()).isEqualTo(1);
+            assertThat(index.isConverted(a1)).isTrue();
+            assertThat(index.isConverted(a3)).isTrue();
+            assertThat(index.isConverted(a4)).isTrue();
+
+            // the bloom filter (kept when refreshing) still holds a2 and falls within the range of 1.parquet, so
+            // this is a bloom filter false positive that must be rejected by checking the data file
+            assertThat(index.isConverted(a2)).isFalse();
+        }
+    }
+
+    @Test
+    void refresh_shouldForgetDeletedDataFiles() throws Exception {
+        ULID.Value a1 = ulidAt(1000), b1 = ulidAt(2000);
+        writeDataFile("1.parquet", a1);
+        writeDataFile("2.parquet", b1);
+        dedupIndex().close();
+
+        backend.delete(datasetPath + "/2.parquet");
+        try (DatasetDedupIndex index = dedupIndex()) {
+            assertThat(index.getIndexedFileCount()).isEqualTo(1);
+            assertThat(index.isConverted(a1)).isTrue();
+            assertThat(index.isConverted(b1)).isFalse();
+        }
+    }
+
+    @Test
+    void dataFilesMergedWhileIndexIsInUse_shouldBeReindexed() throws Exception {
+        ULID.Value a1 = ulidAt(1000), a2 = ulidAt(2000), b1 = ulidAt(3000);
+        writeDataFile("1.parquet", a1, a2);
+        writeDataFile("2.parquet", b1);
+
+        try (DatasetDedupIndex index = dedupIndex()) {
+            // merged the way compaction does, after the index has been built
+            writeDataFile("3.parquet", a1, a2, b1);
+            backend.delete(datasetPath + "/1.parquet");
+            backend.delete(datasetPath + "/2.parquet");
+
+            assertThat(index.isConverted(a2)).isTrue();
+            assertThat(index.getIndexedFileCount()).isEqualTo(1);
+            assertThat(index.isConverted(a1)).isTrue();
+            assertThat(index.isConverted(b1)).isTrue();
+            assertThat(index.isConverted(ulidAt(1500))).isFalse();
+        }
+    }
+
+    @Test
+    void storedIndex_shouldBeLoadedWithoutRebuilding() throws Exception {
+        ULID.Value a1 = ulidAt(1000), a2 = ulidAt(2000);
+        writeDataFile("1.parquet", a1, a2);
+        dedupIndex().close();
+
+        FileTime storedTime = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(storedDedupIndex(), storedTime);
+        try (DatasetDedupIndex index = dedupIndex()) {
+            assertThat(index.getIndexedFileCount()).isEqualTo(1);
+            assertThat(index.isConverted(a1)).isTrue();
+            assertThat(index.isConverted(a2)).isTrue();
+            assertThat(index.isConverted(ulidAt(1500))).isFalse();
+        }
+
+        // an index that is up to date is not saved again
+        assertThat(Files.getLastModifiedTime(storedDedupIndex())).isEqualTo(storedTime);
+    }
+
+    @Test
+    void corruptStoredIndex_shouldBeRebuilt() throws Exception {
+        ULID.Value a1 = ulidAt(1000);
+        writeDataFile("1.parquet", a1);
+        dedupIndex().close();
+
+        Files.write(storedDedupIndex(), new byte[] {0, 0, 0, 1, 42});
+        try (DatasetDedupIndex index = dedupIndex()) {
+            assertThat(index.getIndexedFileCount()).isEqualTo(1);
+            assertThat(index.isConverted(a1)).isTrue();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import de.huxhorn.sulky.ulid.ULID;
+import no.ssb.dapla.dataset.uri.DatasetUri;
+import no.ssb.dapla.storage.client.backend.BinaryBackend;
+import no.ssb.dapla.storage.client.backend.local.LocalBackend;
+import no.ssb.rawdata.converter.util.Json;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class DatasetIndexTest {
+
+    private static final ULID ULID_GENERATOR = new ULID();
+
+    private static String ulidAt(long timestamp) {
+        return ULID_GENERATOR.nextValue(timestamp).toString();
+    }
+
+    private static DatasetIndex.Entry entry(String fileName, long fromTimestamp, long toTimestamp, long rowCount) {
+        return new DatasetIndex.Entry(fileName, ulidAt(fromTimestamp), ulidAt(toTimestamp), fromTimestamp, toTimestamp, rowCount);
+    }
+
+    @Test
+    void find_shouldReturnEntryCoveringUlid() {
+        DatasetIndex index = new DatasetIndex();
+        index.add(entry("3.parquet", 3000, 3999, 10));
+        index.add(entry("1.parquet", 1000, 1999, 10));
+        index.add(entry("2.parquet", 2000, 2999, 10));
+
+        assertThat(index.find(ULID_GENERATOR.nextValue(2500)).map(DatasetIndex.Entry::getFileName)).hasValue("2.parquet");
+        assertThat(index.find(ULID_GENERATOR.nextValue(4500))).isEmpty();
+        assertThat(index.getLast().map(DatasetIndex.Entry::getFileName)).hasValue("3.parquet");
+    }
+
+    @Test
+    void findAll_shouldReturnAllEntriesWithOverlappingRangesCoveringUlid() {
+        DatasetIndex index = new DatasetIndex();
+        index.add(entry("1.parquet", 1000, 5999, 10));
+        index.add(entry("2.parquet", 2000, 2999, 10));
+        index.add(entry("3.parquet", 3000, 3999, 10));
+        index.add(entry("4.parquet", 7000, 7999, 10));
+
+        assertThat(index.findAll(ULID_GENERATOR.nextValue(3500))).extracting(DatasetIndex.Entry::getFileName)
+          .containsExactly("1.parquet", "3.parquet");
+        assertThat(index.findAll(ULID_GENERATOR.nextValue(4500))).extracting(DatasetIndex.Entry::getFileName)
+          .containsExactly("1.parquet");
+        assertThat(index.findAll(ULID_GENERATOR.nextValue(6500))).isEmpty();
+
+        index.add(entry("5.parquet", 6000, 6999, 10));
+        assertThat(index.findAll(ULID_GENERATOR.nextValue(6500))).extracting(DatasetIndex.Entry::getFileName)
+          .containsExactly("5.parquet");
+    }
+
+    @Test
+    void replace_shouldMergeEntries() {
+        DatasetIndex index = new DatasetIndex();
+        index.add(entry("1.parquet", 1000, 1999, 10));
+        index.add(entry("2.parquet", 2000, 2999, 20));
+        index.add(entry("3.parquet", 3000, 3999, 30));
+
+        index.replace(Set.of("1.parquet", "2.parquet"), "2.parquet");
+
+        assertThat(index.getFiles()).hasSize(2);
+        DatasetIndex.Entry merged = index.getFiles().get(0);
+        assertThat(merged.getFileName()).isEqualTo("2.parquet");
+        assertThat(merged.getTimestampMin()).isEqualTo(1000);
+        assertThat(merged.getTimestampMax()).isEqualTo(2999);
+        assertThat(merged.getRowCount()).isEqualTo(30);
+    }
+
+    @Test
+    void index_shouldSurviveJsonRoundtrip() {
+        DatasetIndex index = new DatasetIndex();
+        index.add(entry("1.parquet", 1000, 1999, 10));
+
+        DatasetIndex deserialized = Json.toObject(DatasetIndex.class, Json.from(index));
+        assertThat(deserialized.getFiles()).isEqualTo(index.getFiles());
+    }
+
+    @Test
+    void load_shouldReturnEmptyIndexIfDatasetHasNoIndex(@TempDir Path tempDir) throws Exception {
+        assertThat(DatasetIndex.load(new LocalBackend(), DatasetUri.of("file://" + tempDir, "/dataset", "1").toString()).getFiles()).isEmpty();
+    }
+
+    @Test
+    void update_shouldKeepChangesMadeByOtherUpdaters(@TempDir Path tempDir) throws Exception {
+        BinaryBackend backend = new LocalBackend();
+        String datasetPath = DatasetUri.of("file://" + tempDir, "/dataset", "1").toString();
+        DatasetIndex.update(backend, datasetPath, index -> index.add(entry("1.parquet", 1000, 1999, 10)));
+        DatasetIndex.update(backend, datasetPath, index -> index.add(entry("2.parquet", 2000, 2999, 20)));
+
+        // compaction merges the files, and the writer then adds a file
+        DatasetIndex.update(backend, datasetPath, index -> index.replace(Set.of("1.parquet", "2.parquet"), "2.parquet"));
+        DatasetIndex.update(backend, datasetPath, index -> index.add(entry("3.parquet", 3000, 3999, 30)));
+
+        assertThat(DatasetIndex.load(backend, datasetPath).getFiles())
+          .extracting(DatasetIndex.Entry::getFileName, DatasetIndex.Entry::getRowCount)
+          .containsExactly(tuple("2.parquet", 30L), tuple("3.parquet", 30L));
+    }
+
+}
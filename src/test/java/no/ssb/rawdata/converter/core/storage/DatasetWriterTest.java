@@ -0,0 +1,157 @@
+package no.ssb.rawdata.converter.core.storage;
+
+import de.huxhorn.sulky.ulid.ULID;
+import io.reactivex.Flowable;
+import no.ssb.dapla.dataset.uri.DatasetUri;
+import no.ssb.dapla.storage.client.backend.local.LocalBackend;
+import no.ssb.rawdata.converter.core.convert.ColumnarRecord;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DatasetWriterTest {
+
+    private static final Schema COLLECTOR_SCHEMA = SchemaBuilder.record("collector").fields()
+      .requiredString("ulid")
+      .endRecord();
+
+    private static final Schema MANIFEST_SCHEMA = SchemaBuilder.record("manifest").fields()
+      .name("collector").type(COLLECTOR_SCHEMA).noDefault()
+      .endRecord();
+
+    static final Schema SCHEMA = SchemaBuilder.record("root").fields()
+      .name("manifest").type(MANIFEST_SCHEMA).noDefault()
+      .name("tags").type().array().items().nullable().stringType().noDefault()
+      .endRecord();
+
+    private static final ULID ULID_GENERATOR = new ULID();
+
+    static GenericRecord record(ULID.Value ulid, String... tags) {
+        GenericRecord collector = new GenericRecordBuilder(COLLECTOR_SCHEMA)
+          .set("ulid", ulid.toString())
+          .build();
+        return new GenericRecordBuilder(SCHEMA)
+          .set("manifest", new GenericRecordBuilder(MANIFEST_SCHEMA).set("collector", collector).build())
+          .set("tags", Arrays.asList(tags))
+          .build();
+    }
+
+    static DatasetWriter deadLetteringWriter() {
+        return DatasetWriter.builder()
+          .backendLease(new BinaryBackendLease(new LocalBackend(), () -> {}))
+          .parquetProvider(new TunedParquetProvider(ParquetPreset.DEFAULT.toSettings()))
+          .maxInFlightUploads(1)
+          .deadLetterEnabled(true)
+          .maxDeadLetterRecords(10)
+          .build();
+    }
+
+    static List<Path> filesOf(Path dir, String suffix) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(f -> f.toString().endsWith(suffix)).collect(Collectors.toList());
+        }
+    }
+
+    static List<GenericRecord> readParquet(Path file) throws IOException {
+        List<GenericRecord> records = new ArrayList<>();
+        try (SeekableByteChannel channel = Files.newByteChannel(file);
+             ParquetReader<GenericRecord> reader = AvroParquetReader.<GenericRecord>builder(new ChannelInputFile(channel))
+               .withDataModel(GenericData.get())
+               .build()) {
+            for (GenericRecord record = reader.read(); record != null; record = reader.read()) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    static List<GenericRecord> readAvro(Path file) throws IOException {
+        List<GenericRecord> records = new ArrayList<>();
+        try (DataFileReader<GenericRecord> reader = new DataFileReader<>(file.toFile(), new GenericDatumReader<>())) {
+            reader.forEach(records::add);
+        }
+        return records;
+    }
+
+    @Test
+    void recordFailingHalfwayThroughWrite_shouldBeDeadLetteredWithoutCorruptingFile(@TempDir Path tempDir) throws Exception {
+        ULID.Value ulid1 = ULID_GENERATOR.nextValue();
+        ULID.Value ulid2 = ULID_GENERATOR.nextValue();
+        ULID.Value ulid3 = ULID_GENERATOR.nextValue();
+
+        // the null element is valid according to the schema, but is rejected by the parquet Avro writer after
+        // the first element has been written
+        List<GenericRecord> records = List.of(record(ulid1, "a", "b"), record(ulid2, "a", null), record(ulid3, "c"));
+
+        try (DatasetWriter writer = deadLetteringWriter()) {
+            writer.writeDataUnbounded(DatasetUri.of("file://" + tempDir, "/dataset", "1"), SCHEMA, Flowable.fromIterable(records), 1, TimeUnit.HOURS, 100)
+              .blockingSubscribe();
+            assertThat(writer.getDeadLetterCount()).isEqualTo(1);
+        }
+
+        List<Path> parquetFiles = filesOf(tempDir, ".parquet");
+        assertThat(parquetFiles).hasSize(1);
+        assertThat(readParquet(parquetFiles.get(0))).extracting(Object::toString)
+          .containsExactly(record(ulid1, "a", "b").toString(), record(ulid3, "c").toString());
+
+        List<Path> deadLetterFiles = filesOf(tempDir, ".avro");
+        assertThat(deadLetterFiles).hasSize(1);
+        assertThat(readAvro(deadLetterFiles.get(0))).extracting(r -> r.get("ulid").toString())
+          .containsExactly(ulid2.toString());
+    }
+
+    @Test
+    void columnarRecordFailingHalfwayThroughWrite_shouldBeDeadLetteredWithoutCorruptingFile(@TempDir Path tempDir) throws Exception {
+        ULID.Value ulid1 = ULID_GENERATOR.nextValue();
+        ULID.Value ulid2 = ULID_GENERATOR.nextValue();
+        ULID.Value ulid3 = ULID_GENERATOR.nextValue();
+        ColumnarRecord failingRecord = ColumnarRecord.of(SCHEMA, ulid2, out -> {
+            out.startRecord("manifest")
+                .startRecord("collector")
+                  .string("ulid", ulid2.toString())
+                .endRecord()
+              .endRecord()
+              .startArray("tags")
+                .string(null, "a");
+            throw new IllegalStateException("Unable to produce the next tag");
+        });
+        List<GenericRecord> records = List.of(record(ulid1, "a"), failingRecord, record(ulid3, "b"));
+
+        try (DatasetWriter writer = deadLetteringWriter()) {
+            writer.writeDataUnbounded(DatasetUri.of("file://" + tempDir, "/dataset", "1"), SCHEMA, Flowable.fromIterable(records), 1, TimeUnit.HOURS, 100)
+              .blockingSubscribe();
+            assertThat(writer.getDeadLetterCount()).isEqualTo(1);
+        }
+
+        List<Path> parquetFiles = filesOf(tempDir, ".parquet");
+        assertThat(parquetFiles).hasSize(1);
+        assertThat(readParquet(parquetFiles.get(0))).extracting(Object::toString)
+          .containsExactly(record(ulid1, "a").toString(), record(ulid3, "b").toString());
+
+        List<Path> deadLetterFiles = filesOf(tempDir, ".avro");
+        assertThat(deadLetterFiles).hasSize(1);
+        assertThat(readAvro(deadLetterFiles.get(0))).extracting(r -> r.get("ulid").toString())
+          .containsExactly(ulid2.toString());
+    }
+}
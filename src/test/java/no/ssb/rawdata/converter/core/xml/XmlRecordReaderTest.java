@@ -0,0 +1,98 @@
+package no.ssb.rawdata.converter.core.xml;
+
+import no.ssb.rawdata.converter.core.convert.SchemaGuidedRecordBuilder.SchemaGuidedConversionException;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class XmlRecordReaderTest {
+
+    private static final Schema AMOUNT_SCHEMA = SchemaBuilder.record("amount").fields()
+      .optionalString("currency")
+      .optionalDouble("value")
+      .endRecord();
+
+    private static final Schema ITEM_SCHEMA = SchemaBuilder.record("item").fields()
+      .requiredString("code")
+      .name("amount").type().optional().type(AMOUNT_SCHEMA)
+      .endRecord();
+
+    private static final Schema SCHEMA = SchemaBuilder.record("order").fields()
+      .requiredString("id")
+      .optionalString("name")
+      .optionalLong("count")
+      .optionalBoolean("paid")
+      .name("tags").type().nullable().array().items().stringType().noDefault()
+      .name("items").type().nullable().array().items(ITEM_SCHEMA).noDefault()
+      .endRecord();
+
+    private static final String XML = """
+      <?xml version="1.0" encoding="UTF-8"?>
+      <order id="o-1" unknownAttribute="x">
+        <name>Kari &amp; Ola</name>
+        <count> 42 </count>
+        <paid/>
+        <tag>ignored, since tags is the field name</tag>
+        <tags>a</tags>
+        <unknown><name>skipped</name></unknown>
+        <items code="x"><amount currency="NOK">9.5</amount></items>
+        <tags><![CDATA[b]]></tags>
+        <items><code>y</code></items>
+      </order>
+      """;
+
+    @Test
+    void read_shouldFillRecordGuidedBySchema() {
+        GenericRecord record = new XmlRecordReader(SCHEMA, null).read(XML.strip().getBytes(StandardCharsets.UTF_8));
+
+        GenericRecord expected = new GenericRecordBuilder(SCHEMA)
+          .set("id", "o-1")
+          .set("name", "Kari & Ola")
+          .set("count", 42L)
+          .set("tags", List.of("a", "b"))
+          .set("items", List.of(
+            new GenericRecordBuilder(ITEM_SCHEMA)
+              .set("code", "x")
+              .set("amount", new GenericRecordBuilder(AMOUNT_SCHEMA).set("currency", "NOK").set("value", 9.5).build())
+              .build(),
+            new GenericRecordBuilder(ITEM_SCHEMA).set("code", "y").build()))
+          .build();
+        assertThat(record).isEqualTo(expected);
+    }
+
+    @Test
+    void read_shouldPassLeafValuesThroughValueInterceptor() {
+        XmlRecordReader reader = new XmlRecordReader(SCHEMA, (field, value) -> value.toUpperCase());
+        GenericRecord record = reader.read(XML.strip().getBytes(StandardCharsets.UTF_8));
+
+        assertThat(record.get("id")).isEqualTo("O-1");
+        assertThat(record.get("tags")).isEqualTo(List.of("A", "B"));
+        assertThat(((GenericRecord) ((List<?>) record.get("items")).get(1)).get("code")).isEqualTo("Y");
+
+        // the reader (and its record builder) can be reused
+        assertThat(reader.read(XML.strip().getBytes(StandardCharsets.UTF_8))).isEqualTo(record);
+    }
+
+    @Test
+    void read_shouldAcceptBooleansAsTrueFalseOrOneZero() {
+        XmlRecordReader reader = new XmlRecordReader(SCHEMA, null);
+
+        assertThat(reader.read(bytes("<order id=\"o-1\"><paid> TRUE </paid></order>")).get("paid")).isEqualTo(true);
+        assertThat(reader.read(bytes("<order id=\"o-1\"><paid>1</paid></order>")).get("paid")).isEqualTo(true);
+        assertThat(reader.read(bytes("<order id=\"o-1\"><paid>0</paid></order>")).get("paid")).isEqualTo(false);
+        assertThatThrownBy(() -> reader.read(bytes("<order id=\"o-1\"><paid>yes</paid></order>")))
+          .isInstanceOf(SchemaGuidedConversionException.class);
+    }
+
+    private static byte[] bytes(String xml) {
+        return xml.getBytes(StandardCharsets.UTF_8);
+    }
+}
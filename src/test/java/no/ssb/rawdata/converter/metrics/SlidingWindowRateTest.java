@@ -0,0 +1,42 @@
+package no.ssb.rawdata.converter.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class SlidingWindowRateTest {
+
+    @Test
+    void noRecordedEvents_shouldReturnZeroRate() {
+        SlidingWindowRate rate = new SlidingWindowRate(Duration.ofSeconds(60), 60);
+        assertThat(rate.ratePerSecond()).isEqualTo(0);
+    }
+
+    @Test
+    void eventsWithinWindow_shouldReturnAverageRate() {
+        AtomicLong clock = new AtomicLong();
+        SlidingWindowRate rate = new SlidingWindowRate(Duration.ofSeconds(10), 10, clock::get);
+
+        for (int i = 0; i < 10; i++) {
+            clock.set(1_000_000 + i * 1000);
+            rate.add(100);
+        }
+        assertThat(rate.ratePerSecond()).isCloseTo(100, within(0.001));
+    }
+
+    @Test
+    void eventsOutsideWindow_shouldBeEvicted() {
+        AtomicLong clock = new AtomicLong(1_000_000);
+        SlidingWindowRate rate = new SlidingWindowRate(Duration.ofSeconds(10), 10, clock::get);
+
+        rate.add(10_000);
+        clock.addAndGet(20_000);
+        rate.add(50);
+        assertThat(rate.ratePerSecond()).isCloseTo(5, within(0.001));
+    }
+
+}
@@ -0,0 +1,107 @@
+package no.ssb.rawdata.converter.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.thisptr.jackson.jq.BuiltinFunctionLoader;
+import net.thisptr.jackson.jq.JsonQuery;
+import net.thisptr.jackson.jq.Scope;
+import net.thisptr.jackson.jq.Versions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Compares querying a message with a few jq expressions the way {@link Jq} used to (compile the expression,
+ * parse the message and convert the result on every call) with the cached and pre-parsed alternatives.</p>
+ *
+ * <p>Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=no.ssb.rawdata.converter.util.JqBenchmark</p>
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JqBenchmark {
+
+    private static final String JSON = """
+    {
+      "id": "f5d5d1a2-6b8e-4a55-8f0e-0c8b8b0ad6c1",
+      "person": {"name": "Kari Nordmann", "birthYear": 1979, "address": {"street": "Storgata 1", "zip": "0155"}},
+      "events": [{"type": "created", "ts": 1600000000000}, {"type": "updated", "ts": 1600000100000}]
+    }
+    """;
+
+    private static final String[] EXPRESSIONS = {".id", ".person.name", ".person.birthYear", ".person.address.zip", ".events[1].type"};
+
+    private ObjectMapper objectMapper;
+    private Scope rootScope;
+    private byte[] jsonBytes;
+
+    @Setup
+    public void setup() {
+        objectMapper = new ObjectMapper();
+        rootScope = Scope.newEmptyScope();
+        BuiltinFunctionLoader.getInstance().loadFunctions(Versions.JQ_1_6, rootScope);
+        jsonBytes = JSON.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compile, parse and convert on every call
+     */
+    @Benchmark
+    public List<String> uncached() throws Exception {
+        List<String> values = new ArrayList<>();
+        for (String expression : EXPRESSIONS) {
+            List<JsonNode> out = new ArrayList<>();
+            JsonNode in = objectMapper.readTree(JSON);
+            JsonQuery jq = JsonQuery.compile(expression, Versions.JQ_1_6);
+            jq.apply(Scope.newChildScope(rootScope), in, out::add);
+            values.add(objectMapper.convertValue(out.get(0), String.class));
+        }
+        return values;
+    }
+
+    /**
+     * Cached compiled queries, parsing the message on every call
+     */
+    @Benchmark
+    public List<String> cachedString() {
+        List<String> values = new ArrayList<>();
+        for (String expression : EXPRESSIONS) {
+            values.add(Jq.queryOne(expression, JSON, String.class).orElse(null));
+        }
+        return values;
+    }
+
+    /**
+     * Cached compiled queries, parsing the message bytes once
+     */
+    @Benchmark
+    public List<String> cachedParsedOnce() throws Exception {
+        JsonNode json = objectMapper.readTree(jsonBytes);
+        List<String> values = new ArrayList<>();
+        for (String expression : EXPRESSIONS) {
+            values.add(Jq.queryOne(expression, json, String.class).orElse(null));
+        }
+        return values;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(JqBenchmark.class.getSimpleName()).build()).run();
+    }
+}
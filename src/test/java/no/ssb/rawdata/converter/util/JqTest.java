@@ -1,9 +1,12 @@
 package no.ssb.rawdata.converter.util;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Data;
 import org.junit.jupiter.api.Test;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Set;
 
@@ -30,6 +33,17 @@ class JqTest {
         assertThat(Jq.queryOne(".someObject.someNestedObject.someBoolean", SOME_JSON, Boolean.class).orElse(null)).isTrue();
     }
 
+    @Test
+    public void queryOne_withParsedOrRawJson_shouldReturnSameAsString() throws Exception {
+        JsonNode json = new ObjectMapper().readTree(SOME_JSON);
+        byte[] jsonBytes = SOME_JSON.getBytes(StandardCharsets.UTF_8);
+        assertThat(Jq.queryOne(".someObject.someString", json, String.class)).hasValue("blahblah");
+        assertThat(Jq.queryOne(".someInteger", jsonBytes, Integer.class)).hasValue(42);
+        assertThat(Jq.queryOne(".someList", json, new TypeReference<List<String>>() {})).hasValue(List.of("uno", "dos", "tres"));
+        assertThat(Jq.queryOne(".someNull", jsonBytes, String.class)).isEmpty();
+        assertThat(Jq.compiledQueryOf(".someString")).isSameAs(Jq.compiledQueryOf(".someString"));
+    }
+
     @Test
     public void queryOne_withNoResult_shouldReturnEmpty() {
         assertThat(Jq.queryOne(".none", SOME_JSON, String.class).orElse(null)).isEqualTo(null);
@@ -0,0 +1,127 @@
+package no.ssb.rawdata.converter.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import lombok.Data;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Compares the hot JSON paths using per-call mappers and type resolution (the way {@link Json} used to) with
+ * the shared readers and writers of {@link ObjectMappers}, and POJO binding with and without Afterburner.</p>
+ *
+ * <p>Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=no.ssb.rawdata.converter.util.JsonBenchmark</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    private static final String MANIFEST_JSON = """
+      [
+        {"contentKey": "entry", "contentType": "application/json", "size": 512, "topic": "events", "schema": {"type": "object"}},
+        {"contentKey": "page", "contentType": "application/xml", "size": 2048, "topic": "events"}
+      ]
+      """;
+
+    private static final String APP_CONFIG_JSON = """
+      {"some-setting": "a", "another_setting": {"nested-setting": 42, "list-setting": ["x", "y"]}}
+      """;
+
+    private static final String PERSON_JSON = """
+      {"name": "Kari Nordmann", "birthYear": 1979, "zip": "0155", "active": true, "score": 9.5}
+      """;
+
+    private ObjectMapper mapper;
+    private ObjectReader personReader;
+    private ObjectReader afterburnerPersonReader;
+    private byte[] personJson;
+
+    @Data
+    public static class Person {
+        private String name;
+        private int birthYear;
+        private String zip;
+        private boolean active;
+        private double score;
+    }
+
+    @Setup
+    public void setup() {
+        mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        personReader = mapper.readerFor(Person.class);
+        afterburnerPersonReader = new ObjectMapper().registerModule(new AfterburnerModule()).readerFor(Person.class);
+        personJson = PERSON_JSON.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> manifestTypeReferencePerCall() throws IOException {
+        return mapper.readValue(MANIFEST_JSON, new TypeReference<List<Map<String, Object>>>() {});
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> manifestSharedReader() throws IOException {
+        return ObjectMappers.JSON_MAP_LIST_READER.readValue(MANIFEST_JSON);
+    }
+
+    @Benchmark
+    public String camelCasedKeysMapperPerCall() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new SimpleModule()
+          .addKeySerializer(String.class, new JsonSerializer<>() {
+              @Override
+              public void serialize(String value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+                  gen.writeFieldName(WordUtil.toCamelCase(value));
+              }
+          })
+        );
+        Map<String, Object> jsonMap = objectMapper.readValue(APP_CONFIG_JSON, new TypeReference<>() {});
+        return objectMapper.writeValueAsString(jsonMap);
+    }
+
+    @Benchmark
+    public String camelCasedKeysSharedWriter() {
+        return Json.withCamelCasedKeys(APP_CONFIG_JSON);
+    }
+
+    @Benchmark
+    public Person pojoReflection() throws IOException {
+        return personReader.readValue(personJson);
+    }
+
+    @Benchmark
+    public Person pojoAfterburner() throws IOException {
+        return afterburnerPersonReader.readValue(personJson);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(JsonBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,28 @@
+package no.ssb.rawdata.converter.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JsonTest {
+
+    @Test
+    void withScrambledProps_shouldReplaceValuesOfPropsAtAnyLevel() {
+        String json = """
+          {
+            "fnr": "01010112345",
+            "name": "Kari",
+            "address": {"street": "Storgata 1", "zip": 155},
+            "relations": [{"fnr": 2020202, "name": "Ola"}, {"name": "Per", "contact": {"fnr": null}}],
+            "token": {"value": "secret", "fnr": "ignored"}
+          }
+          """;
+
+        assertThat(Json.withScrambledProps(json, List.of("fnr", "token", "zip"))).isEqualTo(
+          "{\"fnr\":\"***\",\"name\":\"Kari\",\"address\":{\"street\":\"Storgata 1\",\"zip\":\"***\"}," +
+          "\"relations\":[{\"fnr\":\"***\",\"name\":\"Ola\"},{\"name\":\"Per\",\"contact\":{\"fnr\":\"***\"}}]," +
+          "\"token\":\"***\"}");
+    }
+}
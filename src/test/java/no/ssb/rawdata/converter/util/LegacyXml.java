@@ -0,0 +1,46 @@
+package no.ssb.rawdata.converter.util;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Map;
+
+/**
+ * The previous implementation of {@link Xml#toGenericMap(String)}, which maps the XML with Jackson and then
+ * post-processes the result as a JSON tree. Kept as the reference for equivalence tests and benchmarks.
+ */
+class LegacyXml {
+
+    private LegacyXml() {}
+
+    static Map<String, Object> toGenericMap(String xml) {
+        Map<String, Object> map = Xml.toObject(new TypeReference<>() {}, xml);
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonNode node = objectMapper.valueToTree(map);
+        replaceEmptyKeys(node);
+        return objectMapper.convertValue(node, new TypeReference<Map<String, Object>>() {});
+    }
+
+    private static void replaceEmptyKeys(JsonNode jsonNode) {
+        if (jsonNode.isArray()) {
+            for (JsonNode element : (Iterable<JsonNode>) ((ArrayNode) jsonNode)::elements) {
+                replaceEmptyKeys(element);
+            }
+        }
+        if (jsonNode.isObject()) {
+            ObjectNode object = (ObjectNode) jsonNode;
+            for (String fieldName : (Iterable<String>) object::fieldNames) {
+                replaceEmptyKeys(object.get(fieldName));
+            }
+            JsonNode emptyKeyValue = object.get("");
+            JsonNode existing = object.get("value");
+            if (emptyKeyValue != null && (existing == null || existing.isNull())) {
+                object.set("value", emptyKeyValue);
+                object.remove("");
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package no.ssb.rawdata.converter.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Compares the single-pass {@link Xml#toGenericMap(String)} with the previous implementation, for documents
+ * with a varying number of repeated, attributed elements.</p>
+ *
+ * <p>Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=no.ssb.rawdata.converter.util.XmlBenchmark</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XmlBenchmark {
+
+    @Param({"10", "1000"})
+    private int entryCount;
+
+    private String xml;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<report xmlns:ns=\"urn:example\">\n");
+        for (int i = 0; i < entryCount; i++) {
+            sb.append("  <entry id=\"").append(i).append("\">\n")
+              .append("    <name>Entry ").append(i).append("</name>\n")
+              .append("    <amount ns:currency=\"NOK\">").append(i * 100).append("</amount>\n")
+              .append("    <tag>a</tag><tag>b</tag>\n")
+              .append("  </entry>\n");
+        }
+        xml = sb.append("</report>").toString();
+    }
+
+    @Benchmark
+    public Map<String, Object> legacy() {
+        return LegacyXml.toGenericMap(xml);
+    }
+
+    @Benchmark
+    public Map<String, Object> streaming() {
+        return Xml.toGenericMap(xml);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(XmlBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -1,10 +1,16 @@
 package no.ssb.rawdata.converter.util;
 
 import lombok.Data;
+import org.junit.jupiter.api.DynamicTest;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -71,6 +77,31 @@ class XmlTest {
         assertThat(unitIdMap.get("value")).isEqualTo("13");
     }
 
+    /**
+     * Each golden XML document must convert to the same map as the previous implementation did, and to the
+     * expected JSON structure if a .json file with the same name exists
+     */
+    @TestFactory
+    Stream<DynamicTest> goldenFiles_convertToGenericMap_shouldMatchExpected() throws Exception {
+        Path goldenDir = Path.of(XmlTest.class.getClassLoader().getResource("xml-golden").toURI());
+        List<Path> xmlFiles;
+        try (Stream<Path> files = Files.list(goldenDir)) {
+            xmlFiles = files.filter(f -> f.toString().endsWith(".xml")).sorted().collect(Collectors.toList());
+        }
+
+        return xmlFiles.stream().map(xmlFile -> DynamicTest.dynamicTest(xmlFile.getFileName().toString(), () -> {
+            String xml = Files.readString(xmlFile);
+            Map<String, Object> xmlMap = Xml.toGenericMap(xml);
+            assertThat(xmlMap).isEqualTo(LegacyXml.toGenericMap(xml));
+            assertThat(List.copyOf(xmlMap.keySet())).isEqualTo(List.copyOf(LegacyXml.toGenericMap(xml).keySet()));
+
+            Path jsonFile = xmlFile.resolveSibling(xmlFile.getFileName().toString().replace(".xml", ".json"));
+            if (Files.exists(jsonFile)) {
+                assertThat(xmlMap).isEqualTo(Json.toGenericMap(Files.readString(jsonFile)));
+            }
+        }));
+    }
+
     @Data
     static class SomePojo {
         private Integer someInt;